@@ -0,0 +1,321 @@
+package jgd.asset;
+
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.util.lz4.LZ4.LZ4_decompress_safe;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import jgd.memory.NativeMemory;
+import jgd.render.Shader;
+import jgd.render.Texture;
+
+/**
+ * This class reads an asset pack built by AssetPacker. The pack is a single file
+ * mapped in memory and read sequentially once when opened.
+ * Layout (little endian): the header (magic, version, entries count), the index sorted by
+ * the FNV-1a 64 bit hash of the entry names and the entries data. Every index entry
+ * contains the hash, the data offset, the stored size, the original size and the flags.
+ * An LZ4 compressed entry is decompressed in a native buffer, the others are slices of the map.
+ * @author Matteo Pignataro
+ */
+public class AssetPack
+{
+	/**
+	 * Pack file signature ("JGDP")
+	 */
+	public static final int MAGIC = 0x4A474450;
+	
+	/**
+	 * Pack format version
+	 */
+	public static final int VERSION = 1;
+	
+	/**
+	 * Header bytes
+	 */
+	public static final int HEADER_SIZE = 12;
+	
+	/**
+	 * Index entry bytes (hash, offset, stored size, size, flags, padding)
+	 */
+	public static final int ENTRY_SIZE = 32;
+	
+	/**
+	 * Flag of the LZ4 compressed entries
+	 */
+	public static final int FLAG_LZ4 = 1;
+	
+	/**
+	 * Mapped pack
+	 */
+	private MappedByteBuffer data;
+	
+	/**
+	 * Number of entries
+	 */
+	private int count;
+	
+	/**
+	 * Address and size of the map, used to recognize the slices
+	 */
+	private long address;
+	private long mapSize;
+	
+	/**
+	 * Constructor
+	 * @param path The pack file path
+	 */
+	public AssetPack(String path)
+	{
+		//The mapping stays valid after the channel is closed
+		try(FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ))
+		{
+			data = channel.map(MapMode.READ_ONLY, 0, channel.size());
+		}
+		catch(IOException e)
+		{
+			throw new RuntimeException("Unable to open the asset pack [AssetPack]: " + path);
+		}
+		
+		data.order(ByteOrder.LITTLE_ENDIAN);
+		
+		//Read the whole pack with a single sequential read
+		data.load();
+		
+		//Check the header
+		if(data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION)
+		{
+			throw new RuntimeException("Not an asset pack or unsupported version [AssetPack]: " + path);
+		}
+		
+		count = data.getInt(8);
+		address = memAddress(data);
+		mapSize = data.capacity();
+		
+		//The index and every entry must be inside the file
+		if(count < 0 || HEADER_SIZE + (long) count * ENTRY_SIZE > mapSize)
+		{
+			throw new RuntimeException("Corrupted index [AssetPack]: " + path);
+		}
+		
+		for(int i = 0; i < count; i++)
+		{
+			if(!isValid(HEADER_SIZE + i * ENTRY_SIZE))
+			{
+				throw new RuntimeException("Corrupted index [AssetPack]: " + path);
+			}
+		}
+	}
+	
+	/**
+	 * @param entry The index entry position
+	 * @return true if the entry data is after the index and inside the file
+	 */
+	private boolean isValid(int entry)
+	{
+		long offset = data.getLong(entry + 8);
+		int stored = data.getInt(entry + 16);
+		int size = data.getInt(entry + 20);
+		
+		return offset >= HEADER_SIZE + (long) count * ENTRY_SIZE && stored >= 0 && size >= 0 && offset + stored <= mapSize;
+	}
+	
+	/**
+	 * @param name The entry name
+	 * @return The index entry position, -1 if not present
+	 */
+	private int find(String name)
+	{
+		long hash = hash(name);
+		int low = 0;
+		int high = count - 1;
+		
+		//Binary search on the sorted hashes
+		while(low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			int compare = Long.compareUnsigned(data.getLong(HEADER_SIZE + middle * ENTRY_SIZE), hash);
+			
+			if(compare < 0)
+			{
+				low = middle + 1;
+			}
+			else if(compare > 0)
+			{
+				high = middle - 1;
+			}
+			else
+			{
+				return HEADER_SIZE + middle * ENTRY_SIZE;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @param name The entry name
+	 * @return true if the pack contains the entry
+	 */
+	public boolean contains(String name) { return find(name) != -1; }
+	
+	/**
+	 * Method to read an entry. The buffer must be given back with release.
+	 * @param name The entry name
+	 * @return The entry data
+	 */
+	public ByteBuffer get(String name)
+	{
+		if(data == null)
+		{
+			throw new RuntimeException("Asset pack already cleaned [AssetPack]");
+		}
+		
+		int entry = find(name);
+		
+		if(entry == -1)
+		{
+			throw new RuntimeException("Asset not found [AssetPack]: " + name);
+		}
+		
+		if(!isValid(entry))
+		{
+			throw new RuntimeException("Corrupted asset [AssetPack]: " + name);
+		}
+		
+		long offset = data.getLong(entry + 8);
+		int stored = data.getInt(entry + 16);
+		int size = data.getInt(entry + 20);
+		int flags = data.getInt(entry + 24);
+		
+		//Slice of the stored bytes
+		ByteBuffer slice = data.duplicate();
+		((Buffer) slice).position((int) offset);
+		((Buffer) slice).limit((int) offset + stored);
+		slice = slice.slice();
+		
+		if((flags & FLAG_LZ4) == 0)
+		{
+			return slice;
+		}
+		
+		//Decompress the entry
+		ByteBuffer output = NativeMemory.alloc(Math.max(size, 1));
+		((Buffer) output).limit(size);
+		
+		if(LZ4_decompress_safe(slice, output) != size)
+		{
+			NativeMemory.free(output);
+			throw new RuntimeException("Corrupted asset [AssetPack]: " + name);
+		}
+		
+		return output;
+	}
+	
+	/**
+	 * Method to give back an entry buffer. The decompressed buffers are released,
+	 * the slices of the map are ignored. It can be called after clean.
+	 * @param buffer The buffer returned by get
+	 */
+	public void release(ByteBuffer buffer)
+	{
+		if(buffer == null)
+		{
+			return;
+		}
+		
+		long bufferAddress = memAddress(buffer);
+		
+		if(bufferAddress < address || bufferAddress >= address + mapSize)
+		{
+			NativeMemory.free(buffer);
+		}
+	}
+	
+	/**
+	 * Method to create a shader from the pack entries
+	 * @param vertex The vertex entry name, can be null
+	 * @param fragment The fragment entry name, can be null
+	 * @param geometry The geometry entry name, can be null
+	 * @return The shader
+	 */
+	public Shader loadShader(String vertex, String fragment, String geometry)
+	{
+		ByteBuffer v = vertex != null ? get(vertex) : null;
+		ByteBuffer f = fragment != null ? get(fragment) : null;
+		ByteBuffer g = geometry != null ? get(geometry) : null;
+		
+		try
+		{
+			return new Shader(v, f, g);
+		}
+		finally
+		{
+			release(v);
+			release(f);
+			release(g);
+		}
+	}
+	
+	/**
+	 * Method to create a texture from a pack entry
+	 * @param name The image entry name
+	 * @param mipmapped If true the mip chain is generated and streamed progressively
+	 * @return The texture
+	 */
+	public Texture loadTexture(String name, boolean mipmapped)
+	{
+		ByteBuffer image = get(name);
+		
+		try
+		{
+			return new Texture(image, mipmapped);
+		}
+		finally
+		{
+			release(image);
+		}
+	}
+	
+	/**
+	 * FNV-1a 64 bit hash of the UTF-8 name
+	 * @param name The entry name, with '/' as separator
+	 * @return The hash
+	 */
+	public static long hash(String name)
+	{
+		long hash = 0xCBF29CE484222325L;
+		
+		for(byte b : name.getBytes(StandardCharsets.UTF_8))
+		{
+			hash ^= (b & 0xFF);
+			hash *= 0x100000001B3L;
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * @return The number of entries
+	 */
+	public int getEntryCount() { return count; }
+	
+	/**
+	 * Clean method. The map is released by the garbage collector,
+	 * the buffers returned by get must not be used anymore.
+	 */
+	public void clean()
+	{
+		data = null;
+		count = 0;
+	}
+}
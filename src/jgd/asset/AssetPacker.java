@@ -0,0 +1,195 @@
+package jgd.asset;
+
+import static org.lwjgl.util.lz4.LZ4.LZ4_compressBound;
+import static org.lwjgl.util.lz4.LZ4HC.LZ4HC_CLEVEL_MAX;
+import static org.lwjgl.util.lz4.LZ4HC.LZ4_compress_HC;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import jgd.memory.NativeMemory;
+
+/**
+ * Command line tool that builds an asset pack (see AssetPack) from a directory.
+ * The entry names are the file paths relative to the directory with '/' as separator.
+ * With -lz4 every entry is compressed with LZ4 HC and stored compressed only if it gets smaller.
+ * Usage: AssetPacker directory output-file [-lz4]
+ * @author Matteo Pignataro
+ */
+public final class AssetPacker
+{
+	/**
+	 * Not instantiable class
+	 */
+	private AssetPacker() {}
+	
+	/**
+	 * Entry point
+	 * @param args The directory, the output file and the optional -lz4 flag
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 2)
+		{
+			System.out.println("Usage: AssetPacker directory output-file [-lz4]");
+			return;
+		}
+		
+		Path root = Paths.get(args[0]);
+		boolean compress = args.length > 2 && args[2].equals("-lz4");
+		
+		List<Path> files;
+		
+		try(Stream<Path> walk = Files.walk(root))
+		{
+			files = walk.filter((Path p) -> Files.isRegularFile(p)).sorted().collect(Collectors.toList());
+		}
+		
+		//Read and compress every file
+		List<Entry> entries = new ArrayList<Entry>();
+		Map<Long, String> names = new HashMap<Long, String>();
+		long original = 0;
+		
+		for(Path file : files)
+		{
+			Entry e = new Entry();
+			e.name = root.relativize(file).toString().replace(File.separatorChar, '/');
+			e.hash = AssetPack.hash(e.name);
+			e.data = Files.readAllBytes(file);
+			e.size = e.data.length;
+			
+			//The index has no names, two names with the same hash can't be packed
+			String other = names.put(e.hash, e.name);
+			
+			if(other != null)
+			{
+				throw new RuntimeException("Hash collision between " + other + " and " + e.name + " [AssetPacker]");
+			}
+			
+			if(compress)
+			{
+				compress(e);
+			}
+			
+			original += e.size;
+			entries.add(e);
+		}
+		
+		//The index is sorted by hash for the binary search
+		entries.sort((Entry a, Entry b) -> Long.compareUnsigned(a.hash, b.hash));
+		
+		//Header and index
+		ByteBuffer index = ByteBuffer.allocate(AssetPack.HEADER_SIZE + entries.size() * AssetPack.ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		index.putInt(AssetPack.MAGIC).putInt(AssetPack.VERSION).putInt(entries.size());
+		
+		long offset = index.capacity();
+		
+		for(Entry e : entries)
+		{
+			index.putLong(e.hash).putLong(offset).putInt(e.data.length).putInt(e.size).putInt(e.flags).putInt(0);
+			offset += e.data.length;
+		}
+		
+		((Buffer) index).flip();
+		
+		//Write the pack sequentially
+		try(FileChannel out = FileChannel.open(Paths.get(args[1]), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			write(out, index);
+			
+			for(Entry e : entries)
+			{
+				write(out, ByteBuffer.wrap(e.data));
+			}
+		}
+		
+		System.out.println(entries.size() + " entries, " + original + " bytes packed in " + offset + " bytes");
+	}
+	
+	/**
+	 * Method that replaces the entry data with the LZ4 HC compressed data if it is smaller
+	 * @param e The entry
+	 */
+	private static void compress(Entry e)
+	{
+		if(e.size == 0)
+		{
+			return;
+		}
+		
+		ByteBuffer source = NativeMemory.alloc(e.size);
+		ByteBuffer destination = NativeMemory.alloc(LZ4_compressBound(e.size));
+		source.put(e.data);
+		((Buffer) source).flip();
+		
+		int compressed = LZ4_compress_HC(source, destination, LZ4HC_CLEVEL_MAX);
+		
+		if(compressed > 0 && compressed < e.size)
+		{
+			e.data = new byte[compressed];
+			destination.get(e.data);
+			e.flags |= AssetPack.FLAG_LZ4;
+		}
+		
+		NativeMemory.free(source);
+		NativeMemory.free(destination);
+	}
+	
+	/**
+	 * Method that writes all the buffer
+	 * @param out The channel
+	 * @param buffer The buffer
+	 */
+	private static void write(FileChannel out, ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			out.write(buffer);
+		}
+	}
+	
+	/**
+	 * Entry being packed
+	 */
+	private static class Entry
+	{
+		/**
+		 * Entry name
+		 */
+		private String name;
+		
+		/**
+		 * Name hash
+		 */
+		private long hash;
+		
+		/**
+		 * Stored bytes
+		 */
+		private byte[] data;
+		
+		/**
+		 * Original size
+		 */
+		private int size;
+		
+		/**
+		 * Entry flags
+		 */
+		private int flags;
+	}
+}
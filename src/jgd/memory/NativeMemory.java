@@ -0,0 +1,180 @@
+package jgd.memory;
+
+import static org.lwjgl.system.MemoryUtil.memAddress0;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class allocates the long lived native buffers of the framework with explicit
+ * ownership: every buffer returned by an alloc method must be released with free.
+ * The short lived buffers are allocated on the LWJGL MemoryStack instead.
+ * The number of outstanding bytes is always tracked. In debug mode also the
+ * allocation stack traces are kept, so that a leak report can be printed when the
+ * window is cleaned.
+ * @author Matteo Pignataro
+ */
+public final class NativeMemory
+{
+	/**
+	 * Boolean that represents the debug mode status
+	 */
+	private static volatile boolean debug = false;
+	
+	/**
+	 * Outstanding allocations by address
+	 */
+	private static final Map<Long, Allocation> allocations = new ConcurrentHashMap<Long, Allocation>();
+	
+	/**
+	 * Outstanding bytes
+	 */
+	private static final AtomicLong allocatedBytes = new AtomicLong();
+	
+	/**
+	 * Not instantiable class
+	 */
+	private NativeMemory() {}
+	
+	/**
+	 * Method to allocate a native byte buffer
+	 * @param bytes The buffer size
+	 * @return The buffer, to be released with free
+	 */
+	public static ByteBuffer alloc(int bytes)
+	{
+		ByteBuffer buffer = memAlloc(bytes);
+		track(memAddress0(buffer), bytes);
+		return buffer;
+	}
+	
+	/**
+	 * Method to allocate a native float buffer
+	 * @param count The number of floats
+	 * @return The buffer, to be released with free
+	 */
+	public static FloatBuffer allocFloat(int count) { return alloc(count * Float.BYTES).asFloatBuffer(); }
+	
+	/**
+	 * Method to allocate a native int buffer
+	 * @param count The number of ints
+	 * @return The buffer, to be released with free
+	 */
+	public static IntBuffer allocInt(int count) { return alloc(count * Integer.BYTES).asIntBuffer(); }
+	
+	/**
+	 * Method to allocate a native short buffer
+	 * @param count The number of shorts
+	 * @return The buffer, to be released with free
+	 */
+	public static ShortBuffer allocShort(int count) { return alloc(count * Short.BYTES).asShortBuffer(); }
+	
+	/**
+	 * Method to release a buffer allocated by this class. A null buffer is ignored.
+	 * @param buffer The buffer
+	 */
+	public static void free(Buffer buffer)
+	{
+		if(buffer == null)
+		{
+			return;
+		}
+		
+		//The address of the first element is the allocation address
+		long address = memAddress0(buffer);
+		Allocation a = allocations.remove(address);
+		
+		if(a == null)
+		{
+			throw new RuntimeException("Buffer not allocated or already released [NativeMemory]");
+		}
+		
+		allocatedBytes.addAndGet(-a.bytes);
+		memFree(buffer);
+	}
+	
+	/**
+	 * Method that registers an allocation
+	 * @param address The allocation address
+	 * @param bytes The allocation size
+	 */
+	private static void track(long address, int bytes)
+	{
+		allocations.put(address, new Allocation(bytes, debug ? new Throwable("Allocated here") : null));
+		allocatedBytes.addAndGet(bytes);
+	}
+	
+	/**
+	 * @return The outstanding allocations description with their stack traces in debug mode.
+	 * An empty string if there are no outstanding allocations
+	 */
+	public static String report()
+	{
+		StringBuilder report = new StringBuilder();
+		
+		if(allocations.isEmpty())
+		{
+			return "";
+		}
+		
+		report.append("Native memory leak [NativeMemory]: ").append(allocations.size())
+			  .append(" buffers, ").append(allocatedBytes.get()).append(" bytes\n");
+		
+		for(Map.Entry<Long, Allocation> e : allocations.entrySet())
+		{
+			report.append("\t").append(e.getValue().bytes).append(" bytes at 0x").append(Long.toHexString(e.getKey())).append("\n");
+			
+			//Stack traces are available only in debug mode
+			if(e.getValue().origin != null)
+			{
+				for(StackTraceElement s : e.getValue().origin.getStackTrace())
+				{
+					report.append("\t\tat ").append(s).append("\n");
+				}
+			}
+		}
+		
+		return report.toString();
+	}
+	
+	/**
+	 * Getters and setters
+	 */
+	public static long getAllocatedBytes()			{ return allocatedBytes.get(); }
+	public static int getAllocationCount()			{ return allocations.size(); }
+	public static boolean isDebug()					{ return debug; }
+	public static void setDebug(boolean enabled)	{ debug = enabled; }
+	
+	/**
+	 * Outstanding allocation
+	 */
+	private static class Allocation
+	{
+		/**
+		 * Allocation size
+		 */
+		private final int bytes;
+		
+		/**
+		 * Allocation stack trace, null out of debug mode
+		 */
+		private final Throwable origin;
+		
+		/**
+		 * Constructor
+		 */
+		private Allocation(int bytes, Throwable origin)
+		{
+			this.bytes = bytes;
+			this.origin = origin;
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glClear;
+import static jgd.trace.TracedGL.glDepthFunc;
+import static jgd.trace.TracedGL.glDepthMask;
+import static jgd.trace.TracedGL.glDisable;
+import static jgd.trace.TracedGL.glEnable;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11.GL_DEPTH_TEST;
+import static org.lwjgl.opengl.GL11.GL_LEQUAL;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class draws the VAOs and batches with the depth test, so the layering is decided
+ * by the depth of the elements instead of the draw order.
+ * The opaque content is drawn first, sorted by shader and texture to reduce the state
+ * changes and then front to back to reject the hidden fragments early. The translucent
+ * content is drawn afterwards back to front without writing the depth.
+ * The elements without an explicit depth take it from their position in the draw order
+ * (the VAOs, then the batches, every one with its elements in order; the later ones are
+ * nearer), so the sorting does not change the layering of a scene without depths.
+ * The elements with the same explicit depth have no defined order.
+ * The opaque content must not rely on blending: its transparent pixels must be discarded
+ * by the shader or the content marked as translucent.
+ * @author Matteo Pignataro
+ */
+public class DepthLayering
+{
+	/**
+	 * Opaque order: shader, texture and then depth, front first
+	 */
+	private static final Comparator<Item> STATE_ORDER = Comparator.comparingInt((Item i) -> i.shader)
+																   .thenComparingInt((Item i) -> i.texture)
+																   .thenComparingDouble((Item i) -> i.depth);
+	
+	/**
+	 * Translucent order: back to front, the sort is stable so the draw order breaks the ties
+	 */
+	private static final Comparator<Item> BACK_TO_FRONT = Comparator.comparingDouble((Item i) -> -i.depth);
+	
+	/**
+	 * Reusable items, one for every VAO and batch
+	 */
+	private List<Item> pool;
+	
+	/**
+	 * Opaque items of the current frame
+	 */
+	private List<Item> opaque;
+	
+	/**
+	 * Translucent items of the current frame
+	 */
+	private List<Item> translucent;
+	
+	/**
+	 * Constructor
+	 */
+	public DepthLayering()
+	{
+		pool = new ArrayList<Item>();
+		opaque = new ArrayList<Item>();
+		translucent = new ArrayList<Item>();
+	}
+	
+	/**
+	 * Method that gives the draw order depth to the elements without an explicit depth.
+	 * It must be called before the draw, and before the changed areas are collected.
+	 * @param vaos The VAOs
+	 * @param batches The batches
+	 */
+	public void assignOrderDepth(List<VAO> vaos, List<MultiDrawBatch> batches)
+	{
+		int count = 0;
+		
+		for(VAO v : vaos)
+		{
+			count += v.getElementCount();
+		}
+		
+		for(MultiDrawBatch b : batches)
+		{
+			count += b.getElementCount();
+		}
+		
+		//The positions are spread between the farthest and the nearest depth, both excluded
+		float step = 1f / (count + 1);
+		int position = 0;
+		
+		for(VAO v : vaos)
+		{
+			position = v.assignOrderDepth(position, step);
+		}
+		
+		for(MultiDrawBatch b : batches)
+		{
+			position = b.assignOrderDepth(position, step);
+		}
+	}
+	
+	/**
+	 * Method to draw the VAOs and the batches in the current framebuffer, which must have a depth buffer
+	 * @param vaos The VAOs
+	 * @param batches The batches
+	 */
+	public void draw(List<VAO> vaos, List<MultiDrawBatch> batches)
+	{
+		opaque.clear();
+		translucent.clear();
+		
+		int used = 0;
+		
+		for(VAO v : vaos)
+		{
+			Item item = next(used++);
+			item.vao = v;
+			item.batch = null;
+			item.shader = v.getShader().getID();
+			item.texture = v.getTexture() != null ? v.getTexture().getID() : 0;
+			item.depth = v.getSortDepth();
+			(v.isTranslucent() ? translucent : opaque).add(item);
+		}
+		
+		for(MultiDrawBatch b : batches)
+		{
+			//An empty batch has no state
+			if(b.getShader() == null)
+			{
+				continue;
+			}
+			
+			Item item = next(used++);
+			item.vao = null;
+			item.batch = b;
+			item.shader = b.getShader().getID();
+			item.texture = b.getTexture() != null ? b.getTexture().getID() : 0;
+			item.depth = b.getSortDepth();
+			(b.isTranslucent() ? translucent : opaque).add(item);
+		}
+		
+		opaque.sort(STATE_ORDER);
+		translucent.sort(BACK_TO_FRONT);
+		
+		//The clear is limited by the scissor, if enabled
+		glClear(GL_DEPTH_BUFFER_BIT);
+		glEnable(GL_DEPTH_TEST);
+		glDepthFunc(GL_LEQUAL);
+		
+		opaque.stream().forEach((Item i) -> i.draw());
+		
+		//The translucent content is tested but it does not hide what is behind
+		glDepthMask(false);
+		translucent.stream().forEach((Item i) -> i.draw());
+		glDepthMask(true);
+		
+		glDisable(GL_DEPTH_TEST);
+		
+		//Drop the references for the next frame
+		for(int i = 0; i < used; i++)
+		{
+			pool.get(i).vao = null;
+			pool.get(i).batch = null;
+		}
+	}
+	
+	/**
+	 * @return The reusable item in the given position
+	 */
+	private Item next(int index)
+	{
+		if(index == pool.size())
+		{
+			pool.add(new Item());
+		}
+		
+		return pool.get(index);
+	}
+	
+	/**
+	 * A VAO or a batch with its sort keys
+	 */
+	private static class Item
+	{
+		/**
+		 * The VAO or the batch, the other one is null
+		 */
+		private VAO vao;
+		private MultiDrawBatch batch;
+		
+		/**
+		 * Sort keys, the depth is the farthest one of the elements
+		 */
+		private int shader;
+		private int texture;
+		private float depth;
+		
+		/**
+		 * Method to draw the VAO or the batch
+		 */
+		private void draw()
+		{
+			if(vao != null)
+			{
+				vao.draw();
+			}
+			else
+			{
+				batch.draw();
+			}
+		}
+	}
+}
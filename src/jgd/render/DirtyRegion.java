@@ -0,0 +1,244 @@
+package jgd.render;
+
+/**
+ * This class collects the window areas that changed since the last frame.
+ * The areas are kept as a few rectangles in window pixels (origin bottom left, like glScissor):
+ * a new rectangle is merged with the ones it overlaps and, when there are too many,
+ * with the one that grows the least. If the rectangles cover most of the window or a
+ * change cannot be bounded the region becomes full and the whole frame is redrawn.
+ * @author Matteo Pignataro
+ */
+public class DirtyRegion
+{
+	/**
+	 * Maximum number of rectangles, every rectangle is a redraw pass
+	 */
+	public static final int MAX_RECTS = 4;
+	
+	/**
+	 * Covered fraction of the window over which a single full redraw is cheaper
+	 */
+	private static final float FULL_RATIO = 0.5f;
+	
+	/**
+	 * Rectangles as (x0, y0, x1, y1) in pixels
+	 */
+	private int[] rects;
+	
+	/**
+	 * Number of rectangles
+	 */
+	private int count;
+	
+	/**
+	 * Boolean that represents if the whole window must be redrawn
+	 */
+	private boolean full;
+	
+	/**
+	 * Window dimensions
+	 */
+	private int width;
+	private int height;
+	
+	/**
+	 * Constructor
+	 */
+	public DirtyRegion()
+	{
+		rects = new int[MAX_RECTS * 4];
+		width = 1;
+		height = 1;
+		
+		//Nothing has been drawn yet
+		full = true;
+	}
+	
+	/**
+	 * Method to change the window dimensions, the whole window must be redrawn
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void setWindowSize(int width, int height)
+	{
+		this.width = Math.max(width, 1);
+		this.height = Math.max(height, 1);
+		invalidate();
+	}
+	
+	/**
+	 * Method that empties the region after the frame has been drawn
+	 */
+	public void reset()
+	{
+		count = 0;
+		full = false;
+	}
+	
+	/**
+	 * Method that marks the whole window as changed
+	 */
+	public void invalidate()
+	{
+		count = 0;
+		full = true;
+	}
+	
+	/**
+	 * Method to add an area in normalized device coordinates, e.g. the bounds of an element
+	 * @param minX The left coordinate
+	 * @param minY The bottom coordinate
+	 * @param maxX The right coordinate
+	 * @param maxY The top coordinate
+	 */
+	public void addNDC(float minX, float minY, float maxX, float maxY)
+	{
+		//One pixel of padding covers the rasterization rounding
+		add((int) Math.floor((minX + 1) * 0.5f * width) - 1,
+			(int) Math.floor((minY + 1) * 0.5f * height) - 1,
+			(int) Math.ceil((maxX + 1) * 0.5f * width) + 1,
+			(int) Math.ceil((maxY + 1) * 0.5f * height) + 1);
+	}
+	
+	/**
+	 * Method to add an area in window pixels (origin bottom left)
+	 * @param x0 The left coordinate
+	 * @param y0 The bottom coordinate
+	 * @param x1 The right coordinate (excluded)
+	 * @param y1 The top coordinate (excluded)
+	 */
+	public void add(int x0, int y0, int x1, int y1)
+	{
+		if(full)
+		{
+			return;
+		}
+		
+		//Clip the area to the window
+		x0 = Math.max(x0, 0);
+		y0 = Math.max(y0, 0);
+		x1 = Math.min(x1, width);
+		y1 = Math.min(y1, height);
+		
+		//Nothing visible
+		if(x0 >= x1 || y0 >= y1)
+		{
+			return;
+		}
+		
+		//Merge the area with the rectangles it overlaps, the union can overlap others
+		boolean merged = true;
+		
+		while(merged)
+		{
+			merged = false;
+			
+			for(int i = 0; i < count; i++)
+			{
+				if(x0 < rects[i * 4 + 2] && rects[i * 4] < x1 && y0 < rects[i * 4 + 3] && rects[i * 4 + 1] < y1)
+				{
+					x0 = Math.min(x0, rects[i * 4]);
+					y0 = Math.min(y0, rects[i * 4 + 1]);
+					x1 = Math.max(x1, rects[i * 4 + 2]);
+					y1 = Math.max(y1, rects[i * 4 + 3]);
+					remove(i);
+					merged = true;
+					break;
+				}
+			}
+		}
+		
+		//Too many rectangles, i merge the area with the one that grows the least
+		if(count == MAX_RECTS)
+		{
+			int best = 0;
+			long bestGrowth = Long.MAX_VALUE;
+			
+			for(int i = 0; i < count; i++)
+			{
+				long growth = area(Math.min(x0, rects[i * 4]), Math.min(y0, rects[i * 4 + 1]), Math.max(x1, rects[i * 4 + 2]), Math.max(y1, rects[i * 4 + 3]))
+							- area(rects[i * 4], rects[i * 4 + 1], rects[i * 4 + 2], rects[i * 4 + 3]);
+				
+				if(growth < bestGrowth)
+				{
+					best = i;
+					bestGrowth = growth;
+				}
+			}
+			
+			int bx0 = rects[best * 4];
+			int by0 = rects[best * 4 + 1];
+			int bx1 = rects[best * 4 + 2];
+			int by1 = rects[best * 4 + 3];
+			
+			remove(best);
+			add(Math.min(x0, bx0), Math.min(y0, by0), Math.max(x1, bx1), Math.max(y1, by1));
+			return;
+		}
+		
+		rects[count * 4] = x0;
+		rects[count * 4 + 1] = y0;
+		rects[count * 4 + 2] = x1;
+		rects[count * 4 + 3] = y1;
+		count++;
+		
+		//A big region is redrawn in one pass
+		if(getArea() > FULL_RATIO * width * height)
+		{
+			invalidate();
+		}
+	}
+	
+	/**
+	 * Method that removes a rectangle keeping the others
+	 * @param i The rectangle index
+	 */
+	private void remove(int i)
+	{
+		count--;
+		System.arraycopy(rects, (i + 1) * 4, rects, i * 4, (count - i) * 4);
+	}
+	
+	/**
+	 * @return The area of a rectangle
+	 */
+	private static long area(int x0, int y0, int x1, int y1)
+	{
+		return (long) (x1 - x0) * (y1 - y0);
+	}
+	
+	/**
+	 * @return The sum of the rectangles areas, the window area if full
+	 */
+	public long getArea()
+	{
+		if(full)
+		{
+			return (long) width * height;
+		}
+		
+		long sum = 0;
+		
+		for(int i = 0; i < count; i++)
+		{
+			sum += area(rects[i * 4], rects[i * 4 + 1], rects[i * 4 + 2], rects[i * 4 + 3]);
+		}
+		
+		return sum;
+	}
+	
+	/**
+	 * @return true if nothing changed
+	 */
+	public boolean isEmpty() { return !full && count == 0; }
+	
+	/**
+	 * Rectangles getters
+	 */
+	public boolean isFull()				{ return full; }
+	public int getCount()				{ return count; }
+	public int getX(int i)				{ return rects[i * 4]; }
+	public int getY(int i)				{ return rects[i * 4 + 1]; }
+	public int getWidth(int i)			{ return rects[i * 4 + 2] - rects[i * 4]; }
+	public int getHeight(int i)			{ return rects[i * 4 + 3] - rects[i * 4 + 1]; }
+}
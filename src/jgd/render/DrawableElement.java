@@ -13,6 +13,47 @@ public abstract class DrawableElement
 	 */
 	protected boolean updated = true;
 	
+	/**
+	 * Transform applied by the vertex shader when the VAO has transforms enabled:
+	 * translation, rotation in radians, uniform scale and texture coordinates offset
+	 */
+	protected float translationX = 0;
+	protected float translationY = 0;
+	protected float rotation = 0;
+	protected float scale = 1;
+	protected float offsetU = 0;
+	protected float offsetV = 0;
+	
+	/**
+	 * Boolean that represents the transform status.
+	 * If it needs to be uploaded by the VAO it is true.
+	 * Default value = true
+	 */
+	protected boolean transformUpdated = true;
+	
+	/**
+	 * Depth used by the depth layering, from 0 (nearest) to 1 (farthest)
+	 */
+	protected float depth = 0.5f;
+	
+	/**
+	 * Boolean that represents if the depth has been set with setDepth.
+	 * If false the depth layering derives the depth from the draw order.
+	 */
+	protected boolean depthSet = false;
+	
+	/**
+	 * Boolean that represents the depth status.
+	 * If it needs to be uploaded by the VAO it is true.
+	 * Default value = true
+	 */
+	protected boolean depthUpdated = true;
+	
+	/**
+	 * Slot of the transform in the VAO transform buffer, -1 if not assigned
+	 */
+	private int transformIndex = -1;
+	
 	/**
 	 * @return the internal updated status
 	 */
@@ -23,6 +64,114 @@ public abstract class DrawableElement
 	 */
 	public void toggleUpdate() { updated = false; }
 	
+	/**
+	 * @return the internal transform updated status
+	 */
+	public boolean isTransformUpdated()	{ return transformUpdated; }
+	
+	/**
+	 * Method that toggles the transform updated flag
+	 */
+	public void toggleTransformUpdate() { transformUpdated = false; }
+	
+	/**
+	 * @return the internal depth updated status
+	 */
+	public boolean isDepthUpdated()	{ return depthUpdated; }
+	
+	/**
+	 * Method that toggles the depth updated flag
+	 */
+	public void toggleDepthUpdate() { depthUpdated = false; }
+	
+	/**
+	 * Method to change the layer of the element when the VAO has the depth enabled.
+	 * Without this call the element is layered by its position in the draw order;
+	 * the elements with the same explicit depth have no defined order.
+	 * @param depth The depth from 0 (nearest) to 1 (farthest)
+	 */
+	public void setDepth(float depth)
+	{
+		this.depth = Math.max(0, Math.min(1, depth));
+		depthSet = true;
+		depthUpdated = true;
+	}
+	
+	/**
+	 * Method used by the depth layering to give the draw order depth to an element
+	 * without an explicit depth
+	 * @param depth The depth of the element position in the draw order
+	 */
+	void setOrderDepth(float depth)
+	{
+		if(!depthSet && this.depth != depth)
+		{
+			this.depth = depth;
+			depthUpdated = true;
+		}
+	}
+	
+	/**
+	 * Method to move the element without changing its vertices
+	 * @param x The x translation
+	 * @param y The y translation
+	 */
+	public void setTranslation(float x, float y)
+	{
+		translationX = x;
+		translationY = y;
+		transformUpdated = true;
+	}
+	
+	/**
+	 * Method to rotate the element without changing its vertices
+	 * @param rotation The rotation in radians
+	 */
+	public void setRotation(float rotation)
+	{
+		this.rotation = rotation;
+		transformUpdated = true;
+	}
+	
+	/**
+	 * Method to scale the element without changing its vertices
+	 * @param scale The uniform scale
+	 */
+	public void setScale(float scale)
+	{
+		this.scale = scale;
+		transformUpdated = true;
+	}
+	
+	/**
+	 * Method to animate the texture without changing the vertices
+	 * @param u The texture coordinates x offset
+	 * @param v The texture coordinates y offset
+	 */
+	public void setUVOffset(float u, float v)
+	{
+		offsetU = u;
+		offsetV = v;
+		transformUpdated = true;
+	}
+	
+	/**
+	 * Transform getters
+	 */
+	public float getTranslationX()	{ return translationX; }
+	public float getTranslationY()	{ return translationY; }
+	public float getRotation()		{ return rotation; }
+	public float getScale()			{ return scale; }
+	public float getOffsetU()		{ return offsetU; }
+	public float getOffsetV()		{ return offsetV; }
+	public float getDepth()			{ return depth; }
+	public int getTransformIndex()	{ return transformIndex; }
+	
+	/**
+	 * @param index The slot assigned by the VAO
+	 */
+	void setTransformIndex(int index) { transformIndex = index; }
+	
 	/**
 	 * Method to change the shape in case of a window size update
 	 * @param width The new width
@@ -0,0 +1,396 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBeginQuery;
+import static jgd.trace.TracedGL.glBindFramebuffer;
+import static jgd.trace.TracedGL.glBindRenderbuffer;
+import static jgd.trace.TracedGL.glBlitFramebuffer;
+import static jgd.trace.TracedGL.glClear;
+import static jgd.trace.TracedGL.glEndQuery;
+import static jgd.trace.TracedGL.glFramebufferRenderbuffer;
+import static jgd.trace.TracedGL.glFramebufferTexture2D;
+import static jgd.trace.TracedGL.glRenderbufferStorage;
+import static jgd.trace.TracedGL.glViewport;
+import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11.GL_LINEAR;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL15.GL_QUERY_RESULT;
+import static org.lwjgl.opengl.GL15.GL_QUERY_RESULT_AVAILABLE;
+import static org.lwjgl.opengl.GL15.glGetQueryObjecti;
+import static org.lwjgl.opengl.GL30.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30.GL_DEPTH_ATTACHMENT;
+import static org.lwjgl.opengl.GL30.GL_DRAW_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
+import static org.lwjgl.opengl.GL30.GL_READ_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_RENDERBUFFER;
+import static org.lwjgl.opengl.GL30.glCheckFramebufferStatus;
+import static org.lwjgl.opengl.GL33.GL_TIME_ELAPSED;
+import static org.lwjgl.opengl.GL33.glGetQueryObjectui64;
+
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class renders the scene at a variable resolution to hold the frame rate.
+ * The scene is drawn into the bottom left part of a framebuffer (allocated at the
+ * maximum scale) and then stretched on the window with a bilinear blit.
+ * The GPU time of every scene pass is measured with a ring of GL_TIME_ELAPSED queries,
+ * read a few frames later without stalling. The time is divided by the rendered area
+ * to estimate the cost of a full resolution frame, so the scale that fits the target
+ * time can be computed directly. The scale drops as soon as the target is exceeded
+ * and grows back gradually.
+ * The elements keep working in window coordinates: only the viewport changes.
+ * The blit replaces the window content, so what must stay sharp (HUD layers) is drawn after end().
+ * The framebuffer has a depth buffer for the depth layering.
+ * @author Matteo Pignataro
+ */
+public class DynamicResolution
+{
+	/**
+	 * Number of timer queries in flight
+	 */
+	private static final int RING_SIZE = 4;
+	
+	/**
+	 * Maximum scale increment per frame
+	 */
+	private static final float STEP_UP = 0.02f;
+	
+	/**
+	 * Minimum scale change, smaller adjustments are ignored to avoid flickering
+	 */
+	private static final float HYSTERESIS = 0.02f;
+	
+	/**
+	 * Weight of the newest sample in the cost average
+	 */
+	private static final double SMOOTHING = 0.2;
+	
+	/**
+	 * Framebuffer ID
+	 */
+	private int fboID;
+	
+	/**
+	 * Texture where the scene is rendered
+	 */
+	private Texture colorTexture;
+	
+	/**
+	 * Depth renderbuffer ID, used by the depth layering
+	 */
+	private int depthID;
+	
+	/**
+	 * Timer queries ring
+	 */
+	private int[] queries;
+	
+	/**
+	 * Boolean that represents if the query of the slot has to be read
+	 */
+	private boolean[] pending;
+	
+	/**
+	 * Rendered area fraction of the frame of the slot
+	 */
+	private float[] queryArea;
+	
+	/**
+	 * Current ring slot
+	 */
+	private int slot;
+	
+	/**
+	 * Boolean that represents if the current frame is timed
+	 */
+	private boolean timing;
+	
+	/**
+	 * Scale bounds
+	 */
+	private float minScale;
+	private float maxScale;
+	
+	/**
+	 * Current scale
+	 */
+	private float scale;
+	
+	/**
+	 * Target GPU time (seconds) of the scene pass
+	 */
+	private double targetTime;
+	
+	/**
+	 * Averaged GPU time (seconds) of a full resolution scene pass, negative before the first sample
+	 */
+	private double fullCost;
+	
+	/**
+	 * Window dimensions
+	 */
+	private int width;
+	private int height;
+	
+	/**
+	 * Rendered area of the current frame
+	 */
+	private int sceneWidth;
+	private int sceneHeight;
+	
+	/**
+	 * Constructor
+	 * @param minScale The minimum scale, greater than 0
+	 * @param maxScale The maximum scale, at least minScale
+	 */
+	public DynamicResolution(float minScale, float maxScale)
+	{
+		//I expect valid bounds
+		if(minScale <= 0 || maxScale < minScale)
+		{
+			throw new RuntimeException("Invalid scale bounds [DynamicResolution]");
+		}
+		
+		this.minScale = minScale;
+		this.maxScale = maxScale;
+		scale = maxScale;
+		fullCost = -1;
+		
+		//A 60 fps frame with some room for the HUD, the blit and the swap
+		targetTime = 0.75 / 60;
+		
+		//Initial dimensions, they are changed by the first updateWindowSize
+		width = 1;
+		height = 1;
+		
+		//Create the target texture and the framebuffer
+		colorTexture = new Texture(1, 1);
+		fboID = GpuResources.create(Type.FRAMEBUFFER);
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, colorTexture.getID(), 0);
+		
+		//Attach the depth buffer
+		depthID = GpuResources.create(Type.RENDERBUFFER);
+		resizeDepth(1, 1);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthID);
+		
+		//Check the framebuffer status
+		if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+		{
+			throw new RuntimeException("Framebuffer incomplete [DynamicResolution]");
+		}
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		
+		//Create the queries ring
+		queries = new int[RING_SIZE];
+		pending = new boolean[RING_SIZE];
+		queryArea = new float[RING_SIZE];
+		
+		for(int i = 0; i < RING_SIZE; i++)
+		{
+			queries[i] = GpuResources.create(Type.QUERY);
+		}
+	}
+	
+	/**
+	 * Callback method called when the window size is changed
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void updateWindowSize(int width, int height)
+	{
+		this.width = Math.max(width, 1);
+		this.height = Math.max(height, 1);
+		
+		//The texture holds the biggest scene
+		colorTexture.resize((int) Math.ceil(this.width * maxScale), (int) Math.ceil(this.height * maxScale));
+		colorTexture.unbind();
+		resizeDepth(colorTexture.getWidth(), colorTexture.getHeight());
+	}
+	
+	/**
+	 * Method that starts the scene pass: it binds the framebuffer, sets the scaled viewport and clears it
+	 * with the current clear color
+	 */
+	public void begin()
+	{
+		//Read the finished queries and adapt the scale
+		collect();
+		
+		sceneWidth = Math.max(1, Math.min(Math.round(width * scale), colorTexture.getWidth()));
+		sceneHeight = Math.max(1, Math.min(Math.round(height * scale), colorTexture.getHeight()));
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+		glViewport(0, 0, sceneWidth, sceneHeight);
+		glClear(GL_COLOR_BUFFER_BIT);
+		
+		//If the slot is still in flight the frame is not timed
+		timing = !pending[slot];
+		
+		if(timing)
+		{
+			queryArea[slot] = (float) sceneWidth * sceneHeight / ((float) width * height);
+			glBeginQuery(GL_TIME_ELAPSED, queries[slot]);
+		}
+	}
+	
+	/**
+	 * Method that ends the scene pass and stretches it on the window
+	 */
+	public void end()
+	{
+		if(timing)
+		{
+			glEndQuery(GL_TIME_ELAPSED);
+			pending[slot] = true;
+			slot = (slot + 1) % RING_SIZE;
+		}
+		
+		//Copy the scene in the default framebuffer, bilinear only if it is scaled
+		boolean scaled = sceneWidth != width || sceneHeight != height;
+		
+		glBindFramebuffer(GL_READ_FRAMEBUFFER, fboID);
+		glBindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+		glBlitFramebuffer(0, 0, sceneWidth, sceneHeight, 0, 0, width, height, GL_COLOR_BUFFER_BIT, scaled ? GL_LINEAR : GL_NEAREST);
+		
+		//Go back to the default framebuffer
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+		glViewport(0, 0, width, height);
+	}
+	
+	/**
+	 * Method that reads the available queries in submission order and updates the scale
+	 */
+	private void collect()
+	{
+		for(int i = 0; i < RING_SIZE; i++)
+		{
+			int s = (slot + i) % RING_SIZE;
+			
+			if(!pending[s])
+			{
+				continue;
+			}
+			
+			//The older queries finish first, i stop at the first one still running
+			if(glGetQueryObjecti(queries[s], GL_QUERY_RESULT_AVAILABLE) == 0)
+			{
+				break;
+			}
+			
+			double seconds = glGetQueryObjectui64(queries[s], GL_QUERY_RESULT) / 1e9;
+			double cost = seconds / queryArea[s];
+			
+			fullCost = fullCost < 0 ? cost : fullCost + (cost - fullCost) * SMOOTHING;
+			pending[s] = false;
+		}
+		
+		if(fullCost <= 0)
+		{
+			return;
+		}
+		
+		//The time grows with the area, so with the square of the scale
+		float desired = (float) Math.sqrt(targetTime / fullCost);
+		desired = Math.max(minScale, Math.min(maxScale, desired));
+		
+		//Drop at once to save the next frames, grow back slowly
+		if(desired < scale - HYSTERESIS)
+		{
+			scale = desired;
+		}
+		else if(desired > scale + HYSTERESIS)
+		{
+			scale = Math.min(desired, scale + STEP_UP);
+		}
+	}
+	
+	/**
+	 * Method to set the target GPU time of the scene pass
+	 * @param seconds The target time (e.g. 0.012 for a 60 fps frame with some room)
+	 */
+	public void setTargetTime(double seconds)
+	{
+		if(seconds > 0)
+		{
+			targetTime = seconds;
+		}
+	}
+	
+	/**
+	 * Method to change the scale bounds
+	 * @param minScale The minimum scale, greater than 0
+	 * @param maxScale The maximum scale, at least minScale
+	 */
+	public void setBounds(float minScale, float maxScale)
+	{
+		//I expect valid bounds
+		if(minScale <= 0 || maxScale < minScale)
+		{
+			throw new RuntimeException("Invalid scale bounds [DynamicResolution]");
+		}
+		
+		this.minScale = minScale;
+		this.maxScale = maxScale;
+		scale = Math.max(minScale, Math.min(maxScale, scale));
+		
+		//The texture depends on the maximum scale
+		updateWindowSize(width, height);
+	}
+	
+	/**
+	 * @return The estimated GPU time (seconds) of the scene pass at the current scale, negative if unknown
+	 */
+	public double getGpuTime()
+	{
+		return fullCost < 0 ? -1 : fullCost * scale * scale;
+	}
+	
+	/**
+	 * Method to reallocate the depth buffer
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	private void resizeDepth(int width, int height)
+	{
+		glBindRenderbuffer(GL_RENDERBUFFER, depthID);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+		glBindRenderbuffer(GL_RENDERBUFFER, 0);
+		GpuResources.setBytes(Type.RENDERBUFFER, depthID, (long) width * height * 4);
+	}
+	
+	/**
+	 * Clean method
+	 */
+	public void clean()
+	{
+		//If present delete the framebuffer and the queries
+		if(fboID != 0)
+		{
+			GpuResources.delete(Type.FRAMEBUFFER, fboID);
+			GpuResources.delete(Type.RENDERBUFFER, depthID);
+			fboID = 0;
+			
+			for(int i = 0; i < RING_SIZE; i++)
+			{
+				GpuResources.delete(Type.QUERY, queries[i]);
+			}
+		}
+		
+		colorTexture.release();
+	}
+	
+	/**
+	 * Getters
+	 */
+	public float getScale()				{ return scale; }
+	public float getMinScale()			{ return minScale; }
+	public float getMaxScale()			{ return maxScale; }
+	public double getTargetTime()		{ return targetTime; }
+	public int getSceneWidth()			{ return sceneWidth; }
+	public int getSceneHeight()			{ return sceneHeight; }
+}
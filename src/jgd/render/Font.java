@@ -0,0 +1,515 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBindTexture;
+import static jgd.trace.TracedGL.glCopyImageSubData;
+import static jgd.trace.TracedGL.glPixelStorei;
+import static jgd.trace.TracedGL.glTexImage2D;
+import static jgd.trace.TracedGL.glTexParameteri;
+import static jgd.trace.TracedGL.glTexSubImage2D;
+import static org.lwjgl.opengl.GL11.GL_MAX_TEXTURE_SIZE;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_RED;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
+import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL30.GL_R8;
+import static org.lwjgl.stb.STBTruetype.stbtt_GetCodepointBitmapBox;
+import static org.lwjgl.stb.STBTruetype.stbtt_GetCodepointHMetrics;
+import static org.lwjgl.stb.STBTruetype.stbtt_GetCodepointKernAdvance;
+import static org.lwjgl.stb.STBTruetype.stbtt_GetFontBoundingBox;
+import static org.lwjgl.stb.STBTruetype.stbtt_GetFontVMetrics;
+import static org.lwjgl.stb.STBTruetype.stbtt_InitFont;
+import static org.lwjgl.stb.STBTruetype.stbtt_MakeCodepointBitmap;
+import static org.lwjgl.stb.STBTruetype.stbtt_ScaleForPixelHeight;
+
+import java.io.File;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.stb.STBTTFontinfo;
+
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class represents a TrueType font rasterized at a fixed pixel height.
+ * The glyphs are rasterized on demand in a shared atlas texture (one red channel)
+ * divided in cells as big as the font bounding box. When the atlas is full it
+ * doubles its height up to the maximum size, then the least recently used glyphs
+ * are evicted. The glyphs used since the last beginFrame are pinned: they are never
+ * evicted, so the strings built earlier in the same draw stay valid, and if every
+ * glyph is pinned the atlas grows over the maximum size. Every eviction or growth
+ * changes the atlas generation, so the cached texture coordinates of the strings
+ * must be computed again.
+ * @author Matteo Pignataro
+ */
+public class Font
+{
+	/**
+	 * Atlas width in cells
+	 */
+	private static final int ATLAS_COLUMNS = 16;
+	
+	/**
+	 * Initial atlas height in cells
+	 */
+	private static final int INITIAL_ATLAS_ROWS = 4;
+	
+	/**
+	 * Default maximum atlas height in pixels
+	 */
+	private static final int DEFAULT_MAX_ATLAS_SIZE = 2048;
+	
+	/**
+	 * Font file content, it must live as long as the font info
+	 */
+	private ByteBuffer data;
+	
+	/**
+	 * stb_truetype font info
+	 */
+	private STBTTFontinfo info;
+	
+	/**
+	 * Scale from font units to pixels
+	 */
+	private float scale;
+	
+	/**
+	 * Distance in pixels from the top of the line to the baseline
+	 */
+	private float ascent;
+	
+	/**
+	 * Distance in pixels between two baselines
+	 */
+	private float lineHeight;
+	
+	/**
+	 * Atlas cell dimensions in pixels
+	 */
+	private int cellWidth;
+	private int cellHeight;
+	
+	/**
+	 * Atlas texture ID
+	 */
+	private int atlasID;
+	
+	/**
+	 * Atlas height in cells
+	 */
+	private int atlasRows;
+	
+	/**
+	 * Maximum atlas height in cells
+	 */
+	private int maxAtlasRows;
+	
+	/**
+	 * Rasterized glyphs in least recently used order
+	 */
+	private LinkedHashMap<Integer, Glyph> glyphs;
+	
+	/**
+	 * Free atlas cells
+	 */
+	private Deque<Integer> freeCells;
+	
+	/**
+	 * Atlas generation, changed every time a texture coordinate becomes invalid
+	 */
+	private int generation;
+	
+	/**
+	 * Current frame, the glyphs used in this frame cannot be evicted
+	 */
+	private int frame;
+	
+	/**
+	 * Constructor
+	 * @param path The TrueType file path
+	 * @param pixelHeight The font height in pixels
+	 */
+	public Font(String path, float pixelHeight)
+	{
+		this(path, pixelHeight, DEFAULT_MAX_ATLAS_SIZE);
+	}
+	
+	/**
+	 * Constructor
+	 * @param path The TrueType file path
+	 * @param pixelHeight The font height in pixels
+	 * @param maxAtlasSize The maximum atlas height in pixels
+	 */
+	public Font(String path, float pixelHeight, int maxAtlasSize)
+	{
+		//Check the font exists and actually is a file
+		if(path == null || !(new File(path).isFile()))
+		{
+			throw new RuntimeException("No font file detected [Font]");
+		}
+		
+		//Read the file in a direct buffer
+		try
+		{
+			byte[] bytes = Files.readAllBytes(Paths.get(path));
+			data = NativeMemory.alloc(bytes.length).put(bytes);
+			((Buffer) data).flip();
+		}
+		catch (Exception e)
+		{
+			throw new RuntimeException("Error reading the font [Font]: " + path);
+		}
+		
+		//Initialize the font
+		info = STBTTFontinfo.create();
+		
+		if(!stbtt_InitFont(info, data))
+		{
+			throw new RuntimeException("Error initializing the font [Font]: " + path);
+		}
+		
+		scale = stbtt_ScaleForPixelHeight(info, pixelHeight);
+		
+		try(MemoryStack stack = MemoryStack.stackPush())
+		{
+			//Read the vertical metrics
+			IntBuffer a = stack.mallocInt(1);
+			IntBuffer b = stack.mallocInt(1);
+			IntBuffer c = stack.mallocInt(1);
+			IntBuffer d = stack.mallocInt(1);
+			
+			stbtt_GetFontVMetrics(info, a, b, c);
+			ascent = a.get(0) * scale;
+			lineHeight = (a.get(0) - b.get(0) + c.get(0)) * scale;
+			
+			//Every glyph fits in the font bounding box, one pixel of padding avoids bleeding
+			stbtt_GetFontBoundingBox(info, a, b, c, d);
+			cellWidth = (int) Math.ceil((c.get(0) - a.get(0)) * scale) + 1;
+			cellHeight = (int) Math.ceil((d.get(0) - b.get(0)) * scale) + 1;
+		}
+		
+		//Create the atlas
+		atlasRows = INITIAL_ATLAS_ROWS;
+		maxAtlasRows = Math.max(INITIAL_ATLAS_ROWS, maxAtlasSize / cellHeight);
+		atlasID = createAtlas(atlasRows);
+		
+		//Access order map for the LRU eviction
+		glyphs = new LinkedHashMap<Integer, Glyph>(64, 0.75f, true);
+		freeCells = new ArrayDeque<Integer>();
+		
+		for(int i = 0; i < ATLAS_COLUMNS * atlasRows; i++)
+		{
+			freeCells.add(i);
+		}
+		
+		generation = 0;
+	}
+	
+	/**
+	 * Method that creates an empty atlas texture
+	 * @param rows The atlas height in cells
+	 * @return The texture ID
+	 */
+	private int createAtlas(int rows)
+	{
+		int ID = GpuResources.create(Type.TEXTURE);
+		glBindTexture(GL_TEXTURE_2D, ID);
+		
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST);
+		
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_R8, ATLAS_COLUMNS * cellWidth, rows * cellHeight, 0, GL_RED, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		GpuResources.setBytes(Type.TEXTURE, ID, (long) ATLAS_COLUMNS * cellWidth * rows * cellHeight);
+		
+		return ID;
+	}
+	
+	/**
+	 * Method that returns the glyph, rasterizing it if it is not in the atlas
+	 * @param codepoint The unicode codepoint
+	 * @return The glyph
+	 */
+	public Glyph getGlyph(int codepoint)
+	{
+		//The access moves the glyph at the end of the LRU order
+		Glyph g = glyphs.get(codepoint);
+		
+		if(g != null)
+		{
+			g.lastUse = frame;
+			return g;
+		}
+		
+		float advance;
+		int offsetX;
+		int offsetY;
+		int w;
+		int h;
+		int cell = -1;
+		
+		try(MemoryStack stack = MemoryStack.stackPush())
+		{
+			//Horizontal metrics
+			IntBuffer advanceBuffer = stack.mallocInt(1);
+			IntBuffer bearing = stack.mallocInt(1);
+			stbtt_GetCodepointHMetrics(info, codepoint, advanceBuffer, bearing);
+			advance = advanceBuffer.get(0) * scale;
+			
+			//Bitmap box relative to the baseline
+			IntBuffer x0 = stack.mallocInt(1);
+			IntBuffer y0 = stack.mallocInt(1);
+			IntBuffer x1 = stack.mallocInt(1);
+			IntBuffer y1 = stack.mallocInt(1);
+			stbtt_GetCodepointBitmapBox(info, codepoint, scale, scale, x0, y0, x1, y1);
+			
+			offsetX = x0.get(0);
+			offsetY = y0.get(0);
+			w = Math.min(x1.get(0) - x0.get(0), cellWidth - 1);
+			h = Math.min(y1.get(0) - y0.get(0), cellHeight - 1);
+		}
+		
+		//Only the visible glyphs need a cell
+		if(w > 0 && h > 0)
+		{
+			cell = allocateCell();
+			
+			//Rasterize the glyph and copy it in the cell
+			ByteBuffer bitmap = NativeMemory.alloc(w * h);
+			stbtt_MakeCodepointBitmap(info, bitmap, w, h, w, scale, scale, codepoint);
+			
+			glBindTexture(GL_TEXTURE_2D, atlasID);
+			glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+			glTexSubImage2D(GL_TEXTURE_2D, 0, (cell % ATLAS_COLUMNS) * cellWidth, (cell / ATLAS_COLUMNS) * cellHeight,
+							w, h, GL_RED, GL_UNSIGNED_BYTE, bitmap);
+			glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+			glBindTexture(GL_TEXTURE_2D, 0);
+			
+			NativeMemory.free(bitmap);
+		}
+		
+		g = new Glyph(codepoint, cell, offsetX, offsetY, Math.max(w, 0), Math.max(h, 0), advance);
+		g.lastUse = frame;
+		glyphs.put(codepoint, g);
+		
+		return g;
+	}
+	
+	/**
+	 * Method that starts a new frame, the glyphs used in the previous one can be evicted again.
+	 * A renderer calls it before building its strings.
+	 */
+	public void beginFrame() { frame++; }
+	
+	/**
+	 * Method that finds a free cell, growing the atlas or evicting the least recently used glyph
+	 * @return The cell index
+	 */
+	private int allocateCell()
+	{
+		//Grow the atlas if there are no free cells
+		if(freeCells.isEmpty() && atlasRows < maxAtlasRows)
+		{
+			grow(Math.min(atlasRows * 2, maxAtlasRows));
+		}
+		
+		//Evict the least recently used glyph that owns a cell and is not used in this frame
+		if(freeCells.isEmpty())
+		{
+			Iterator<Map.Entry<Integer, Glyph>> it = glyphs.entrySet().iterator();
+			
+			while(it.hasNext() && freeCells.isEmpty())
+			{
+				Glyph old = it.next().getValue();
+				
+				if(old.cell >= 0 && old.lastUse != frame)
+				{
+					it.remove();
+					freeCells.add(old.cell);
+					generation++;
+				}
+			}
+		}
+		
+		//Every glyph is pinned, the frame needs a bigger atlas than the maximum
+		if(freeCells.isEmpty())
+		{
+			int limit = glGetInteger(GL_MAX_TEXTURE_SIZE) / cellHeight;
+			
+			if(atlasRows >= limit)
+			{
+				throw new RuntimeException("Too many glyphs in a single frame [Font]");
+			}
+			
+			grow(Math.min(atlasRows * 2, limit));
+		}
+		
+		return freeCells.pop();
+	}
+	
+	/**
+	 * Method that reallocates the atlas with more rows keeping the rasterized glyphs
+	 * @param newRows The new height in cells
+	 */
+	private void grow(int newRows)
+	{
+		int newID = createAtlas(newRows);
+		
+		//Copy the rasterized glyphs
+		glCopyImageSubData(atlasID, GL_TEXTURE_2D, 0, 0, 0, 0,
+						   newID, GL_TEXTURE_2D, 0, 0, 0, 0,
+						   ATLAS_COLUMNS * cellWidth, atlasRows * cellHeight, 1);
+		GpuResources.delete(Type.TEXTURE, atlasID);
+		
+		for(int i = ATLAS_COLUMNS * atlasRows; i < ATLAS_COLUMNS * newRows; i++)
+		{
+			freeCells.add(i);
+		}
+		
+		atlasID = newID;
+		atlasRows = newRows;
+		
+		//The vertical texture coordinates changed
+		generation++;
+	}
+	
+	/**
+	 * @param first The first codepoint
+	 * @param second The following codepoint
+	 * @return The kerning adjustment in pixels
+	 */
+	public float getKerning(int first, int second)
+	{
+		return stbtt_GetCodepointKernAdvance(info, first, second) * scale;
+	}
+	
+	/**
+	 * Binding method
+	 */
+	public void bind() { glBindTexture(GL_TEXTURE_2D, atlasID); }
+	
+	/**
+	 * Unbinding method
+	 */
+	public void unbind() { glBindTexture(GL_TEXTURE_2D, 0); }
+	
+	/**
+	 * Clean method
+	 */
+	public void clean()
+	{
+		//unbind the atlas
+		unbind();
+		
+		//If the atlas was created i delete it
+		if(atlasID != 0)
+		{
+			GpuResources.delete(Type.TEXTURE, atlasID);
+			atlasID = 0;
+		}
+		
+		glyphs.clear();
+		
+		//Release the font file
+		NativeMemory.free(data);
+		data = null;
+	}
+	
+	/**
+	 * Getters
+	 */
+	public float getAscent()		{ return ascent; }
+	public float getLineHeight()	{ return lineHeight; }
+	public int getGeneration()		{ return generation; }
+	public int getAtlasWidth()		{ return ATLAS_COLUMNS * cellWidth; }
+	public int getAtlasHeight()		{ return atlasRows * cellHeight; }
+	
+	/**
+	 * Rasterized glyph in the atlas
+	 */
+	public class Glyph
+	{
+		/**
+		 * Unicode codepoint
+		 */
+		private final int codepoint;
+		
+		/**
+		 * Atlas cell, -1 for an invisible glyph
+		 */
+		private final int cell;
+		
+		/**
+		 * Bitmap offset from the pen position on the baseline
+		 */
+		private final int offsetX;
+		private final int offsetY;
+		
+		/**
+		 * Bitmap dimensions
+		 */
+		private final int width;
+		private final int height;
+		
+		/**
+		 * Horizontal advance in pixels
+		 */
+		private final float advance;
+		
+		/**
+		 * Last frame in which the glyph has been used
+		 */
+		private int lastUse;
+		
+		/**
+		 * Constructor
+		 */
+		private Glyph(int codepoint, int cell, int offsetX, int offsetY, int width, int height, float advance)
+		{
+			this.codepoint = codepoint;
+			this.cell = cell;
+			this.offsetX = offsetX;
+			this.offsetY = offsetY;
+			this.width = width;
+			this.height = height;
+			this.advance = advance;
+		}
+		
+		/**
+		 * Texture coordinates in the current atlas
+		 */
+		public float getU0() { return (float) ((cell % ATLAS_COLUMNS) * cellWidth) / getAtlasWidth(); }
+		public float getV0() { return (float) ((cell / ATLAS_COLUMNS) * cellHeight) / getAtlasHeight(); }
+		public float getU1() { return (float) ((cell % ATLAS_COLUMNS) * cellWidth + width) / getAtlasWidth(); }
+		public float getV1() { return (float) ((cell / ATLAS_COLUMNS) * cellHeight + height) / getAtlasHeight(); }
+		
+		/**
+		 * Getters
+		 */
+		public int getCodepoint()	{ return codepoint; }
+		public boolean isVisible()	{ return cell >= 0; }
+		public int getOffsetX()		{ return offsetX; }
+		public int getOffsetY()		{ return offsetY; }
+		public int getWidth()		{ return width; }
+		public int getHeight()		{ return height; }
+		public float getAdvance()	{ return advance; }
+	}
+}
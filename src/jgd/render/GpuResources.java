@@ -0,0 +1,410 @@
+package jgd.render;
+
+import static org.lwjgl.glfw.GLFW.glfwGetCurrentContext;
+import static org.lwjgl.opengl.GL11.glDeleteTextures;
+import static org.lwjgl.opengl.GL11.glFlush;
+import static org.lwjgl.opengl.GL11.glGenTextures;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glDeleteQueries;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL15.glGenQueries;
+import static org.lwjgl.opengl.GL20.glCreateProgram;
+import static org.lwjgl.opengl.GL20.glCreateShader;
+import static org.lwjgl.opengl.GL20.glDeleteProgram;
+import static org.lwjgl.opengl.GL20.glDeleteShader;
+import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
+import static org.lwjgl.opengl.GL30.glDeleteRenderbuffers;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+import static org.lwjgl.opengl.GL30.glGenFramebuffers;
+import static org.lwjgl.opengl.GL30.glGenRenderbuffers;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
+import static org.lwjgl.opengl.GL32.GL_TIMEOUT_IGNORED;
+import static org.lwjgl.opengl.GL32.glDeleteSync;
+import static org.lwjgl.opengl.GL32.glFenceSync;
+import static org.lwjgl.opengl.GL32.glWaitSync;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import jgd.trace.GLCapture;
+
+/**
+ * This class owns every OpenGL object created by the framework.
+ * The objects are created through this registry and their deletion is deferred
+ * to the flush method, called by the window at the end of the frame, so an
+ * object can be released while it is still referenced by the current frame.
+ * The registry keeps the number of live objects and their bytes per type.
+ * The registry can be used by several threads with shared contexts. The container objects
+ * (vertex arrays, framebuffers, queries) are not shared and every context names them on its own,
+ * so they are registered per context: the methods that take a container ID refer to the
+ * current context and only its flush deletes them. A thread that creates or uploads shared
+ * objects calls publish, the other threads call await before using them.
+ * @author Matteo Pignataro
+ */
+public final class GpuResources
+{
+	/**
+	 * OpenGL object types
+	 */
+	public static enum Type
+	{
+		BUFFER, VERTEX_ARRAY, TEXTURE, FRAMEBUFFER, RENDERBUFFER, PROGRAM, SHADER, QUERY;
+	}
+	
+	/**
+	 * Live objects per type
+	 */
+	private static final int[] counts = new int[Type.values().length];
+	
+	/**
+	 * Bytes per type
+	 */
+	private static final long[] bytes = new long[Type.values().length];
+	
+	/**
+	 * Bytes of every object that declared its size
+	 */
+	private static final Map<Long, Long> sizes = new HashMap<Long, Long>();
+	
+	/**
+	 * Keys of the live objects
+	 */
+	private static final Set<Long> live = new HashSet<Long>();
+	
+	/**
+	 * Objects waiting to be deleted, in release order
+	 */
+	private static final Set<Long> pending = new LinkedHashSet<Long>();
+	
+	/**
+	 * Slot of every context in the container keys, never reused
+	 */
+	private static final Map<Long, Long> slots = new HashMap<Long, Long>();
+	
+	/**
+	 * Next context slot, 0 is for the shared objects
+	 */
+	private static long nextSlot = 1;
+	
+	/**
+	 * Last publish of every publishing context
+	 */
+	private static final Map<Long, Publish> publishes = new HashMap<Long, Publish>();
+	
+	/**
+	 * Publish generation of every publisher awaited by every context
+	 */
+	private static final Map<Long, Map<Long, Long>> awaited = new HashMap<Long, Map<Long, Long>>();
+	
+	/**
+	 * Not instantiable class
+	 */
+	private GpuResources() {}
+	
+	/**
+	 * @return The unique key of an object, a container key includes the current context slot
+	 */
+	private static long key(Type type, int ID)
+	{
+		long k = ((long) type.ordinal() << 32) | (ID & 0xFFFFFFFFL);
+		
+		if(isContainer(type))
+		{
+			k |= slot(glfwGetCurrentContext()) << 40;
+		}
+		
+		return k;
+	}
+	
+	/**
+	 * @param context The GLFW window of the context
+	 * @return The context slot, assigned at the first use
+	 */
+	private static long slot(long context) { return slots.computeIfAbsent(context, (Long c) -> nextSlot++); }
+	
+	/**
+	 * Key fields
+	 */
+	private static Type typeOf(long k)	{ return Type.values()[(int) (k >>> 32) & 0xFF]; }
+	private static long slotOf(long k)	{ return k >>> 40; }
+	
+	/**
+	 * Method to create an OpenGL object. For a shader object use createShader.
+	 * @param type The object type
+	 * @return The object ID
+	 */
+	public static synchronized int create(Type type)
+	{
+		int ID;
+		
+		switch(type)
+		{
+			case BUFFER: 		ID = glGenBuffers(); break;
+			case VERTEX_ARRAY: 	ID = glGenVertexArrays(); break;
+			case TEXTURE: 		ID = glGenTextures(); break;
+			case FRAMEBUFFER: 	ID = glGenFramebuffers(); break;
+			case RENDERBUFFER: 	ID = glGenRenderbuffers(); break;
+			case PROGRAM: 		ID = glCreateProgram(); break;
+			case QUERY: 		ID = glGenQueries(); break;
+			default: throw new RuntimeException("Use createShader for shader objects [GpuResources]");
+		}
+		
+		counts[type.ordinal()]++;
+		live.add(key(type, ID));
+		GLCapture.created(type, ID);
+		
+		return ID;
+	}
+	
+	/**
+	 * @param type The object type
+	 * @return true if the objects of the type are not shared between contexts
+	 */
+	private static boolean isContainer(Type type)
+	{
+		return type == Type.VERTEX_ARRAY || type == Type.FRAMEBUFFER || type == Type.QUERY;
+	}
+	
+	/**
+	 * Method to create a shader object
+	 * @param shaderType The OpenGL shader type (e.g. GL_VERTEX_SHADER)
+	 * @return The shader ID
+	 */
+	public static synchronized int createShader(int shaderType)
+	{
+		int ID = glCreateShader(shaderType);
+		
+		counts[Type.SHADER.ordinal()]++;
+		live.add(key(Type.SHADER, ID));
+		GLCapture.created(Type.SHADER, ID);
+		
+		return ID;
+	}
+	
+	/**
+	 * Method to declare the bytes used by an object
+	 * @param type The object type
+	 * @param ID The object ID
+	 * @param size The current object size in bytes
+	 */
+	public static synchronized void setBytes(Type type, int ID, long size)
+	{
+		Long old = sizes.put(key(type, ID), size);
+		bytes[type.ordinal()] += size - (old == null ? 0 : old);
+	}
+	
+	/**
+	 * Method to release an object. The object is deleted by the next flush,
+	 * a container object by the next flush of the current context. An object that is not live or already released is ignored, so a double
+	 * release does not change the statistics or delete the object twice.
+	 * @param type The object type
+	 * @param ID The object ID, 0 is ignored
+	 */
+	public static synchronized void delete(Type type, int ID)
+	{
+		long k = key(type, ID);
+		
+		if(ID != 0 && live.contains(k))
+		{
+			pending.add(k);
+		}
+	}
+	
+	/**
+	 * Method that deletes all the released objects that can be deleted by the current context.
+	 * It must be called at a point where no released object is used anymore, e.g. at the end of the frame.
+	 */
+	public static synchronized void flush()
+	{
+		long slot = slot(glfwGetCurrentContext());
+		Iterator<Long> iterator = pending.iterator();
+		
+		while(iterator.hasNext())
+		{
+			long k = iterator.next();
+			Type type = typeOf(k);
+			int ID = (int) k;
+			
+			//A container of another context waits for its flush
+			if(slotOf(k) != 0 && slotOf(k) != slot)
+			{
+				continue;
+			}
+			
+			iterator.remove();
+			
+			switch(type)
+			{
+				case BUFFER: 		glDeleteBuffers(ID); break;
+				case VERTEX_ARRAY: 	glDeleteVertexArrays(ID); break;
+				case TEXTURE: 		glDeleteTextures(ID); break;
+				case FRAMEBUFFER: 	glDeleteFramebuffers(ID); break;
+				case RENDERBUFFER: 	glDeleteRenderbuffers(ID); break;
+				case PROGRAM: 		glDeleteProgram(ID); break;
+				case SHADER: 		glDeleteShader(ID); break;
+				case QUERY: 		glDeleteQueries(ID); break;
+			}
+			
+			//Update the statistics
+			counts[type.ordinal()]--;
+			live.remove(k);
+			GLCapture.deleted(type, ID);
+			Long size = sizes.remove(k);
+			
+			if(size != null)
+			{
+				bytes[type.ordinal()] -= size;
+			}
+		}
+	}
+	
+	/**
+	 * Method called when a context is destroyed, while it is still current. Its container objects are
+	 * deleted with it, so they are removed from the registry. A new context with the same handle gets a new slot.
+	 * @param context The GLFW window of the context
+	 */
+	public static synchronized void forgetContext(long context)
+	{
+		Long slot = slots.remove(context);
+		
+		if(slot != null)
+		{
+			Iterator<Long> iterator = live.iterator();
+			
+			while(iterator.hasNext())
+			{
+				long k = iterator.next();
+				
+				if(slotOf(k) == slot)
+				{
+					Type type = typeOf(k);
+					
+					counts[type.ordinal()]--;
+					pending.remove(k);
+					Long size = sizes.remove(k);
+					
+					if(size != null)
+					{
+						bytes[type.ordinal()] -= size;
+					}
+					
+					iterator.remove();
+				}
+			}
+		}
+		
+		//Its fence is not published anymore
+		Publish publish = publishes.remove(context);
+		
+		if(publish != null)
+		{
+			glDeleteSync(publish.fence);
+		}
+		
+		awaited.remove(context);
+		awaited.values().forEach((Map<Long, Long> m) -> m.remove(context));
+	}
+	
+	/**
+	 * Method to make the shared objects created or uploaded by the current context visible
+	 * to the other contexts. It inserts a fence that the other contexts wait on the GPU.
+	 */
+	public static synchronized void publish()
+	{
+		Publish publish = publishes.computeIfAbsent(glfwGetCurrentContext(), (Long c) -> new Publish());
+		
+		//The new fence follows the old one in the same context, so it covers it
+		if(publish.fence != 0)
+		{
+			glDeleteSync(publish.fence);
+		}
+		
+		publish.fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		
+		//The fence must reach the GPU before another context waits it
+		glFlush();
+		
+		publish.generation++;
+	}
+	
+	/**
+	 * Method that makes the current context wait (on the GPU, the thread is not blocked)
+	 * the last publish of every other context that it has not waited yet
+	 */
+	public static synchronized void await()
+	{
+		long context = glfwGetCurrentContext();
+		Map<Long, Long> seen = awaited.computeIfAbsent(context, (Long c) -> new HashMap<Long, Long>());
+		
+		for(Map.Entry<Long, Publish> e : publishes.entrySet())
+		{
+			long publisher = e.getKey();
+			Publish publish = e.getValue();
+			
+			//The own publishes are already ordered
+			if(publisher == context || seen.getOrDefault(publisher, 0L) >= publish.generation)
+			{
+				continue;
+			}
+			
+			glWaitSync(publish.fence, 0, GL_TIMEOUT_IGNORED);
+			seen.put(publisher, publish.generation);
+		}
+	}
+	
+	/**
+	 * @return A line per type with the live objects and their bytes
+	 */
+	public static synchronized String report()
+	{
+		StringBuilder report = new StringBuilder();
+		
+		for(Type type : Type.values())
+		{
+			report.append(type).append(": ").append(counts[type.ordinal()])
+				  .append(" objects, ").append(bytes[type.ordinal()]).append(" bytes\n");
+		}
+		
+		return report.toString();
+	}
+	
+	/**
+	 * @param type The object type
+	 * @return The IDs of the live objects of the type, only the current context ones for a container type
+	 */
+	public static synchronized int[] getLiveIDs(Type type)
+	{
+		long slot = isContainer(type) ? slot(glfwGetCurrentContext()) : 0;
+		
+		return live.stream().filter((Long k) -> typeOf(k) == type && slotOf(k) == slot)
+				   .mapToInt((Long k) -> k.intValue()).sorted().toArray();
+	}
+	
+	/**
+	 * Getters
+	 */
+	public static synchronized int getLiveCount(Type type) 	{ return counts[type.ordinal()]; }
+	public static synchronized long getBytes(Type type)		{ return bytes[type.ordinal()]; }
+	public static synchronized int getPendingCount()		{ return pending.size(); }
+	
+	/**
+	 * Last publish of a context
+	 */
+	private static class Publish
+	{
+		/**
+		 * Fence of the publish, 0 if none
+		 */
+		private long fence;
+		
+		/**
+		 * Number of publish calls of the context
+		 */
+		private long generation;
+	}
+}
@@ -0,0 +1,389 @@
+package jgd.render;
+
+import java.util.Arrays;
+
+/**
+ * This class optimizes the indexed triangle lists of the static meshes.
+ * The optimization welds the duplicate vertices, reorders the triangles with the
+ * Tipsify algorithm (Sander, Nehab, Barczak 2007) to reuse the GPU post transform
+ * vertex cache and finally renumbers the vertices in the order of their first use
+ * to improve the vertex fetch locality.
+ * The result is a remap table (optimized vertex to original vertex) and the new
+ * elements, so the caller can gather the vertices again when their values change.
+ * @author Matteo Pignataro
+ */
+public class MeshOptimizer
+{
+	/**
+	 * Vertex cache size used by the reordering, a conservative value for the current GPUs
+	 */
+	public static final int CACHE_SIZE = 16;
+	
+	/**
+	 * Not instantiable class
+	 */
+	private MeshOptimizer() {}
+	
+	/**
+	 * Method that optimizes a mesh
+	 * @param vertices The vertices array
+	 * @param verticesSize The number of floats used in the vertices array
+	 * @param elements The triangle list
+	 * @param elementsSize The number of indices used in the triangle list
+	 * @param stride The floats per vertex
+	 * @return The optimized mesh
+	 */
+	public static Mesh optimize(float[] vertices, int verticesSize, int[] elements, int elementsSize, int stride)
+	{
+		//I expect a triangle list
+		if(stride <= 0 || elementsSize % 3 != 0)
+		{
+			throw new RuntimeException("Invalid stride or triangle list [MeshOptimizer]");
+		}
+		
+		int vertexCount = verticesSize / stride;
+		
+		//Merge the equal vertices
+		int[] weld = weld(vertices, vertexCount, stride);
+		int[] welded = new int[elementsSize];
+		
+		for(int i = 0; i < elementsSize; i++)
+		{
+			if(elements[i] < 0 || elements[i] >= vertexCount)
+			{
+				throw new RuntimeException("Element out of the vertices range [MeshOptimizer]");
+			}
+			
+			welded[i] = weld[elements[i]];
+		}
+		
+		//Reorder the triangles for the vertex cache
+		int[] ordered = reorder(welded, vertexCount, CACHE_SIZE);
+		
+		//Renumber the vertices in the order of their first use, the unused ones are dropped
+		int[] newIndex = new int[vertexCount];
+		int[] remap = new int[vertexCount];
+		int used = 0;
+		
+		Arrays.fill(newIndex, -1);
+		
+		for(int i = 0; i < ordered.length; i++)
+		{
+			int v = ordered[i];
+			
+			if(newIndex[v] == -1)
+			{
+				newIndex[v] = used;
+				remap[used++] = v;
+			}
+			
+			ordered[i] = newIndex[v];
+		}
+		
+		return new Mesh(Arrays.copyOf(remap, used), ordered, stride);
+	}
+	
+	/**
+	 * Method that finds the duplicate vertices (bitwise equal attributes)
+	 * @param vertices The vertices array
+	 * @param vertexCount The number of vertices
+	 * @param stride The floats per vertex
+	 * @return For every vertex the index of its first equal vertex
+	 */
+	public static int[] weld(float[] vertices, int vertexCount, int stride)
+	{
+		int[] result = new int[vertexCount];
+		
+		//Open addressing table of vertex indices, the capacity is a power of two at least twice the vertices
+		int capacity = Integer.highestOneBit(Math.max(vertexCount, 1) * 2 - 1) << 1;
+		int[] table = new int[capacity];
+		
+		Arrays.fill(table, -1);
+		
+		for(int v = 0; v < vertexCount; v++)
+		{
+			int slot = hash(vertices, v * stride, stride) & (capacity - 1);
+			
+			//Linear probing until an empty slot or an equal vertex
+			while(table[slot] != -1 && !equals(vertices, table[slot] * stride, v * stride, stride))
+			{
+				slot = (slot + 1) & (capacity - 1);
+			}
+			
+			if(table[slot] == -1)
+			{
+				table[slot] = v;
+			}
+			
+			result[v] = table[slot];
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Tipsify triangle reordering. The algorithm fans around a vertex emitting all its
+	 * triangles, then it moves to the next vertex that is still in the cache and has
+	 * few triangles left, or to a recently used vertex when the fan reaches a dead end.
+	 * @param elements The triangle list
+	 * @param vertexCount The number of vertices
+	 * @param cacheSize The vertex cache size
+	 * @return The reordered triangle list
+	 */
+	public static int[] reorder(int[] elements, int vertexCount, int cacheSize)
+	{
+		int triangleCount = elements.length / 3;
+		
+		//Vertex to triangles adjacency in compressed form
+		int[] live = new int[vertexCount];
+		int[] offsets = new int[vertexCount + 1];
+		int[] adjacency = new int[elements.length];
+		
+		for(int i = 0; i < elements.length; i++)
+		{
+			live[elements[i]]++;
+		}
+		
+		for(int v = 0; v < vertexCount; v++)
+		{
+			offsets[v + 1] = offsets[v] + live[v];
+		}
+		
+		int[] fill = Arrays.copyOf(offsets, vertexCount);
+		
+		for(int i = 0; i < elements.length; i++)
+		{
+			adjacency[fill[elements[i]]++] = i / 3;
+		}
+		
+		int[] cacheTime = new int[vertexCount];
+		boolean[] emitted = new boolean[triangleCount];
+		int[] deadEnd = new int[elements.length];
+		int deadEndSize = 0;
+		int[] candidates = new int[elements.length];
+		int[] result = new int[elements.length];
+		int resultSize = 0;
+		int time = cacheSize + 1;
+		int cursor = 0;
+		
+		//The first fanning vertex is the first one with triangles
+		int fan = nextLive(live, 0);
+		
+		while(fan != -1)
+		{
+			int candidatesSize = 0;
+			
+			//Emit all the triangles around the fanning vertex
+			for(int i = offsets[fan]; i < offsets[fan + 1]; i++)
+			{
+				int t = adjacency[i];
+				
+				if(emitted[t])
+				{
+					continue;
+				}
+				
+				for(int j = 0; j < 3; j++)
+				{
+					int v = elements[t * 3 + j];
+					
+					result[resultSize++] = v;
+					deadEnd[deadEndSize++] = v;
+					candidates[candidatesSize++] = v;
+					live[v]--;
+					
+					//The vertex enters the cache if it is not there
+					if(time - cacheTime[v] > cacheSize)
+					{
+						cacheTime[v] = time++;
+					}
+				}
+				
+				emitted[t] = true;
+			}
+			
+			//Choose the candidate that stays in the cache while its fan is emitted, the oldest first
+			int best = -1;
+			int bestPriority = -1;
+			
+			for(int i = 0; i < candidatesSize; i++)
+			{
+				int v = candidates[i];
+				
+				if(live[v] > 0)
+				{
+					int priority = 0;
+					
+					if(time - cacheTime[v] + 2 * live[v] <= cacheSize)
+					{
+						priority = time - cacheTime[v];
+					}
+					
+					if(priority > bestPriority)
+					{
+						best = v;
+						bestPriority = priority;
+					}
+				}
+			}
+			
+			//Dead end, i go back to the recently used vertices and then to the input order
+			while(best == -1 && deadEndSize > 0)
+			{
+				int v = deadEnd[--deadEndSize];
+				
+				if(live[v] > 0)
+				{
+					best = v;
+				}
+			}
+			
+			if(best == -1)
+			{
+				cursor = nextLive(live, cursor);
+				best = cursor;
+			}
+			
+			fan = best;
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Method that computes the average cache miss ratio (vertex shader invocations per triangle)
+	 * of a triangle list with a FIFO cache. It is useful to measure an optimization.
+	 * @param elements The triangle list
+	 * @param elementsSize The number of indices used in the triangle list
+	 * @param cacheSize The vertex cache size
+	 * @return The ratio between the cache misses and the triangles
+	 */
+	public static float getACMR(int[] elements, int elementsSize, int cacheSize)
+	{
+		int[] cache = new int[cacheSize];
+		int head = 0;
+		int misses = 0;
+		
+		Arrays.fill(cache, -1);
+		
+		for(int i = 0; i < elementsSize; i++)
+		{
+			boolean hit = false;
+			
+			for(int j = 0; j < cacheSize && !hit; j++)
+			{
+				hit = cache[j] == elements[i];
+			}
+			
+			if(!hit)
+			{
+				cache[head] = elements[i];
+				head = (head + 1) % cacheSize;
+				misses++;
+			}
+		}
+		
+		return elementsSize == 0 ? 0 : misses / (elementsSize / 3f);
+	}
+	
+	/**
+	 * @return The first vertex from the given one with triangles left, -1 if none
+	 */
+	private static int nextLive(int[] live, int from)
+	{
+		for(int v = from; v < live.length; v++)
+		{
+			if(live[v] > 0)
+			{
+				return v;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * @return The hash of the vertex attributes bits
+	 */
+	private static int hash(float[] vertices, int offset, int stride)
+	{
+		int h = 1;
+		
+		for(int i = 0; i < stride; i++)
+		{
+			h = 31 * h + Float.floatToIntBits(vertices[offset + i]);
+		}
+		
+		//Spread the bits for the power of two table
+		return h ^ (h >>> 16);
+	}
+	
+	/**
+	 * @return true if the two vertices have equal attributes
+	 */
+	private static boolean equals(float[] vertices, int a, int b, int stride)
+	{
+		for(int i = 0; i < stride; i++)
+		{
+			if(Float.floatToIntBits(vertices[a + i]) != Float.floatToIntBits(vertices[b + i]))
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Optimized mesh
+	 */
+	public static class Mesh
+	{
+		/**
+		 * For every optimized vertex the index of the original vertex
+		 */
+		private int[] remap;
+		
+		/**
+		 * Optimized triangle list
+		 */
+		private int[] elements;
+		
+		/**
+		 * Floats per vertex
+		 */
+		private int stride;
+		
+		/**
+		 * Constructor
+		 */
+		private Mesh(int[] remap, int[] elements, int stride)
+		{
+			this.remap = remap;
+			this.elements = elements;
+			this.stride = stride;
+		}
+		
+		/**
+		 * Method that gathers the optimized vertices from the original ones
+		 * @param vertices The original vertices
+		 * @param dest The destination array, at least getVerticesSize() floats
+		 */
+		public void gather(float[] vertices, float[] dest)
+		{
+			for(int i = 0; i < remap.length; i++)
+			{
+				System.arraycopy(vertices, remap[i] * stride, dest, i * stride, stride);
+			}
+		}
+		
+		/**
+		 * Getters
+		 */
+		public int[] getRemap()			{ return remap; }
+		public int[] getElements()		{ return elements; }
+		public int getVertexCount()		{ return remap.length; }
+		public int getVerticesSize()	{ return remap.length * stride; }
+		public int getElementsSize()	{ return elements.length; }
+	}
+}
@@ -0,0 +1,514 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBindBuffer;
+import static jgd.trace.TracedGL.glBindVertexArray;
+import static jgd.trace.TracedGL.glBufferData;
+import static jgd.trace.TracedGL.glEnableVertexAttribArray;
+import static jgd.trace.TracedGL.glMultiDrawElementsIndirect;
+import static jgd.trace.TracedGL.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+import static org.lwjgl.opengl.GL40.GL_DRAW_INDIRECT_BUFFER;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.lwjgl.opengl.GL;
+
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class draws several VAOs that share the same shader, texture and
+ * vertex layout with a single glMultiDrawElementsIndirect call (OpenGL 4.3).
+ * The geometry of every logical VAO is suballocated in a shared VBO and EBO
+ * when the batch is drawn for the first time, so like a VAO it is impossible
+ * to add VAOs or elements after the first draw.
+ * The draw command buffer is built every frame with the visible VAOs.
+ * If the VAOs have the depth enabled the depth attribute follows the user attributes.
+ * @author Matteo Pignataro
+ */
+public class MultiDrawBatch
+{
+	/**
+	 * Integers per draw command (count, instanceCount, firstIndex, baseVertex, baseInstance)
+	 */
+	private static final int COMMAND_SIZE = 5;
+	
+	/**
+	 * vaoID
+	 */
+	private int vaoID;
+	
+	/**
+	 * Shared vboID
+	 */
+	private int vboID;
+	
+	/**
+	 * Shared eboID
+	 */
+	private int eboID;
+	
+	/**
+	 * Draw command buffer ID
+	 */
+	private int commandID;
+	
+	/**
+	 * Shader shared by all the VAOs
+	 */
+	private Shader shader;
+	
+	/**
+	 * Texture shared by all the VAOs
+	 */
+	private Texture texture;
+	
+	/**
+	 * Attributes list shared by all the VAOs
+	 */
+	private List<Integer> attributes;
+	
+	/**
+	 * List of the logical VAOs
+	 */
+	private List<VAO> vaoList;
+	
+	/**
+	 * VAOs that are not drawn
+	 */
+	private Set<VAO> hidden;
+	
+	/**
+	 * First vertex (in floats) of every VAO in the shared vbo
+	 */
+	private int[] vertexOffsets;
+	
+	/**
+	 * First index of every VAO in the shared ebo
+	 */
+	private int[] elementOffsets;
+	
+	/**
+	 * Draw command buffer, rebuilt every frame
+	 */
+	private IntBuffer commands;
+	
+	/**
+	 * Boolean that represents if the shared buffers have been allocated
+	 */
+	private boolean drawn;
+	
+	/**
+	 * Boolean that represents if a VAO has been shown or hidden since the last draw
+	 */
+	private boolean visibilityChanged;
+	
+	/**
+	 * Boolean that represents if the VAOs depth is used
+	 */
+	private boolean depth;
+	
+	/**
+	 * Shared depth buffer ID, 0 if the depth is not used
+	 */
+	private int depthBufferID;
+	
+	/**
+	 * Boolean that represents if the batch is translucent, so drawn back to front
+	 */
+	private boolean translucent;
+	
+	/**
+	 * Constructor
+	 */
+	public MultiDrawBatch()
+	{
+		//The indirect multi draw is part of OpenGL 4.3
+		if(!GL.getCapabilities().OpenGL43)
+		{
+			throw new RuntimeException("OpenGL 4.3 required [MultiDrawBatch]");
+		}
+		
+		//Create the VAO, the shared buffers and the command buffer
+		vaoID = GpuResources.create(Type.VERTEX_ARRAY);
+		vboID = GpuResources.create(Type.BUFFER);
+		eboID = GpuResources.create(Type.BUFFER);
+		commandID = GpuResources.create(Type.BUFFER);
+		
+		//Instance the lists
+		vaoList = new ArrayList<VAO>();
+		hidden = new HashSet<VAO>();
+		
+		//The batch has not been drawn
+		drawn = false;
+	}
+	
+	/**
+	 * Method to add a VAO to the batch BEFORE the first draw method call.
+	 * The first VAO decides the shader, the texture and the vertex layout of the batch.
+	 * After this call it is impossible to add elements to the VAO or to draw it alone.
+	 * The VAO must never have been drawn and it cannot use the transforms.
+	 * @param v The VAO to be added
+	 */
+	public void addVAO(VAO v)
+	{
+		//If the batch has already been drawn or the VAO is present i don't add it
+		if(drawn || vaoList.contains(v))
+		{
+			return;
+		}
+		
+		//A drawn VAO has its own buffers and no updated elements left, a locked one belongs to another batch
+		if(v.isDrawn())
+		{
+			throw new RuntimeException("VAO already drawn or batched [MultiDrawBatch]");
+		}
+		
+		//The batch has no transform buffers
+		if(v.isTransformsEnabled())
+		{
+			throw new RuntimeException("VAO with transforms not supported [MultiDrawBatch]");
+		}
+		
+		//The first VAO sets the batch state
+		if(vaoList.isEmpty())
+		{
+			shader = v.getShader();
+			texture = v.getTexture();
+			attributes = new ArrayList<Integer>(v.getAttributes());
+			depth = v.isDepthEnabled();
+		}
+		//The others must be compatible
+		else if(v.getShader() != shader || v.getTexture() != texture || !v.getAttributes().equals(attributes) || v.isDepthEnabled() != depth)
+		{
+			throw new RuntimeException("VAO with different shader, texture or layout [MultiDrawBatch]");
+		}
+		
+		//Add the VAO and lock its elements
+		vaoList.add(v);
+		v.lock();
+	}
+	
+	/**
+	 * Method to show or hide a VAO of the batch
+	 * @param v The VAO
+	 * @param visible The new visibility
+	 */
+	public void setVisible(VAO v, boolean visible)
+	{
+		if(visible)
+		{
+			visibilityChanged |= hidden.remove(v);
+		}
+		else
+		{
+			visibilityChanged |= hidden.add(v);
+		}
+	}
+	
+	/**
+	 * Callback method called when the window size is changed
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void updateWindowSize(int width, int height)
+	{
+		//Forall the VAOs in the batch i call the same method
+		vaoList.stream().forEach((VAO v) -> v.updateWindowSize(width, height));
+	}
+	
+	/**
+	 * @return true if the batch has never been drawn or one of its visible VAOs changed
+	 */
+	public boolean isUpdated()
+	{
+		return !drawn || visibilityChanged || vaoList.stream().anyMatch((VAO v) -> !hidden.contains(v) && v.isUpdated());
+	}
+	
+	/**
+	 * Method that adds to the region the areas of the elements changed since the last draw.
+	 * The hidden VAOs only update their bounds, a visibility change redraws the whole region.
+	 * It must be called before the draw, which clears the updated flags.
+	 * @param region The dirty region of the frame
+	 */
+	public void collectDirty(DirtyRegion region)
+	{
+		if(!drawn || visibilityChanged)
+		{
+			region.invalidate();
+		}
+		
+		vaoList.stream().forEach((VAO v) -> v.collectDirty(region, !hidden.contains(v)));
+	}
+	
+	/**
+	 * Method to allocate the shared buffers and to set the vertex layout
+	 */
+	private void allocate()
+	{
+		//Suballocate every VAO one after the other
+		vertexOffsets = new int[vaoList.size()];
+		elementOffsets = new int[vaoList.size()];
+		int vertexSize = 0;
+		int elementSize = 0;
+		
+		for(int i = 0; i < vaoList.size(); i++)
+		{
+			vertexOffsets[i] = vertexSize;
+			elementOffsets[i] = elementSize;
+			vertexSize += vaoList.get(i).getVertexSize();
+			elementSize += vaoList.get(i).getElementSize();
+		}
+		
+		//Allocate the shared buffers, the ebo binding is stored in the vao
+		glBindBuffer(GL_ARRAY_BUFFER, vboID);
+		glBufferData(GL_ARRAY_BUFFER, (long) vertexSize * Float.BYTES, GL_STREAM_DRAW);
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboID);
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, (long) elementSize * Integer.BYTES, GL_STATIC_DRAW);
+		GpuResources.setBytes(Type.BUFFER, vboID, (long) vertexSize * Float.BYTES);
+		GpuResources.setBytes(Type.BUFFER, eboID, (long) elementSize * Integer.BYTES);
+		
+		//The vertex layout is the same for every VAO so it is set only once
+		int sumAttributes = (attributes.stream().reduce(0, Integer::sum)).intValue();
+		int partialSum = 0;
+		
+		for(int i = 0; i < attributes.size(); i++)
+		{
+			//Create the attribute pointer
+			glVertexAttribPointer(i, attributes.get(i).intValue(), GL_FLOAT, false, sumAttributes * Float.BYTES, partialSum * Float.BYTES);
+			
+			//Enable the vertex attribute pointer
+			glEnableVertexAttribArray(i);
+			
+			//Increment the partial sum
+			partialSum += attributes.get(i);
+		}
+		
+		//The depth attribute follows the user ones
+		if(depth)
+		{
+			depthBufferID = GpuResources.create(Type.BUFFER);
+			glBindBuffer(GL_ARRAY_BUFFER, depthBufferID);
+			glBufferData(GL_ARRAY_BUFFER, (long) vertexSize / sumAttributes * Float.BYTES, GL_STREAM_DRAW);
+			GpuResources.setBytes(Type.BUFFER, depthBufferID, (long) vertexSize / sumAttributes * Float.BYTES);
+			glVertexAttribPointer(attributes.size(), 1, GL_FLOAT, false, 0, 0);
+			glEnableVertexAttribArray(attributes.size());
+		}
+		
+		//Allocate the command buffer for the worst case
+		commands = NativeMemory.allocInt(vaoList.size() * COMMAND_SIZE);
+		
+		//I invalidate the addVAO function
+		drawn = true;
+	}
+	
+	/**
+	 * Method to draw all the visible VAOs with one call.
+	 * It allocates the buffers if it is the first draw call.
+	 */
+	public void draw()
+	{
+		//Nothing to draw
+		if(vaoList.isEmpty())
+		{
+			return;
+		}
+		
+		//First of all we bind the batch
+		bind();
+		
+		//In case of the first call i allocate the buffers
+		if(!drawn)
+		{
+			allocate();
+		}
+		
+		int sumAttributes = (attributes.stream().reduce(0, Integer::sum)).intValue();
+		int drawCount = 0;
+		
+		((Buffer) commands).clear();
+		
+		for(int i = 0; i < vaoList.size(); i++)
+		{
+			VAO v = vaoList.get(i);
+			
+			//Update the changed elements in the VAO range
+			v.upload(vboID, eboID, vertexOffsets[i], elementOffsets[i]);
+			
+			if(depth)
+			{
+				v.uploadDepth(depthBufferID, vertexOffsets[i] / sumAttributes);
+			}
+			
+			//Create the draw command for the visible VAOs
+			if(v.getElementSize() > 0 && !hidden.contains(v))
+			{
+				commands.put(v.getElementSize())				//count
+						.put(1)									//instanceCount
+						.put(elementOffsets[i])					//firstIndex
+						.put(vertexOffsets[i] / sumAttributes)	//baseVertex
+						.put(0);								//baseInstance
+				drawCount++;
+			}
+		}
+		
+		((Buffer) commands).flip();
+		
+		//Upload the commands and draw them
+		if(drawCount > 0)
+		{
+			glBindBuffer(GL_DRAW_INDIRECT_BUFFER, commandID);
+			glBufferData(GL_DRAW_INDIRECT_BUFFER, commands, GL_STREAM_DRAW);
+			GpuResources.setBytes(Type.BUFFER, commandID, (long) drawCount * COMMAND_SIZE * Integer.BYTES);
+			glMultiDrawElementsIndirect(GL_TRIANGLES, GL_UNSIGNED_INT, 0, drawCount, 0);
+			glBindBuffer(GL_DRAW_INDIRECT_BUFFER, 0);
+		}
+		
+		visibilityChanged = false;
+		
+		//Unbind
+		unbind();
+	}
+	
+	/**
+	 * Method to mark the batch as translucent: with the depth layering it is drawn after
+	 * the opaque content, back to front and without writing the depth
+	 * @param translucent The new translucent status
+	 */
+	public void setTranslucent(boolean translucent) { this.translucent = translucent; }
+	
+	/**
+	 * @return true if the batch is translucent
+	 */
+	public boolean isTranslucent() { return translucent; }
+	
+	/**
+	 * @return The farthest depth of the visible VAOs, used to sort the translucent batches
+	 */
+	public float getSortDepth()
+	{
+		float max = 0;
+		
+		for(VAO v : vaoList)
+		{
+			if(!hidden.contains(v))
+			{
+				max = Math.max(max, v.getSortDepth());
+			}
+		}
+		
+		return max;
+	}
+	
+	/**
+	 * Method that gives the draw order depth to the elements of the VAOs without an explicit depth
+	 * @param position The draw order position of the first element
+	 * @param step The depth distance between two consecutive positions
+	 * @return The position after the last element
+	 */
+	int assignOrderDepth(int position, float step)
+	{
+		for(VAO v : vaoList)
+		{
+			position = v.assignOrderDepth(position, step);
+		}
+		
+		return position;
+	}
+	
+	/**
+	 * @return The number of elements of the VAOs
+	 */
+	int getElementCount()
+	{
+		int count = 0;
+		
+		for(VAO v : vaoList)
+		{
+			count += v.getElementCount();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Package getters
+	 */
+	Shader getShader()		{ return shader; }
+	Texture getTexture()	{ return texture; }
+	
+	/**
+	 * Binding method
+	 */
+	public void bind()
+	{
+		//Bind the vao
+		glBindVertexArray(vaoID);
+		//Bind the shader
+		shader.bind();
+		//Bind the texture in case not null
+		if(texture != null)
+		{
+			texture.bind();
+		}
+	}
+	
+	/**
+	 * Unbinding method
+	 */
+	public void unbind()
+	{
+		//Unbind the vao
+		glBindVertexArray(0);
+		//Unbind the shader
+		shader.unbind();
+		//Unbind the texture in case not null
+		if(texture != null)
+		{
+			texture.unbind();
+		}
+	}
+	
+	/**
+	 * Clean method. It cleans also all the VAOs of the batch
+	 */
+	public void clean()
+	{
+		//Clean the logical VAOs
+		vaoList.stream().forEach((VAO v) -> v.clean());
+		
+		//If present delete the vao
+		if(vaoID != 0)
+		{
+			GpuResources.delete(Type.VERTEX_ARRAY, vaoID);
+			vaoID = 0;
+		}
+		
+		//Delete the shared buffers
+		GpuResources.delete(Type.BUFFER, vboID);
+		GpuResources.delete(Type.BUFFER, eboID);
+		GpuResources.delete(Type.BUFFER, commandID);
+		
+		//If present delete the depth buffer
+		if(depthBufferID != 0)
+		{
+			GpuResources.delete(Type.BUFFER, depthBufferID);
+			depthBufferID = 0;
+		}
+		
+		//Release the command buffer
+		NativeMemory.free(commands);
+		commands = null;
+	}
+}
@@ -0,0 +1,203 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBindFramebuffer;
+import static jgd.trace.TracedGL.glBindRenderbuffer;
+import static jgd.trace.TracedGL.glBlitFramebuffer;
+import static jgd.trace.TracedGL.glClear;
+import static jgd.trace.TracedGL.glDisable;
+import static jgd.trace.TracedGL.glEnable;
+import static jgd.trace.TracedGL.glFramebufferRenderbuffer;
+import static jgd.trace.TracedGL.glFramebufferTexture2D;
+import static jgd.trace.TracedGL.glRenderbufferStorage;
+import static jgd.trace.TracedGL.glScissor;
+import static jgd.trace.TracedGL.glViewport;
+import static org.lwjgl.opengl.GL11.GL_COLOR_BUFFER_BIT;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_SCISSOR_TEST;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL30.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30.GL_DEPTH_ATTACHMENT;
+import static org.lwjgl.opengl.GL30.GL_DRAW_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
+import static org.lwjgl.opengl.GL30.GL_READ_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_RENDERBUFFER;
+import static org.lwjgl.opengl.GL30.glCheckFramebufferStatus;
+
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class redraws only the changed parts of a mostly static scene.
+ * The scene lives in a persistent framebuffer: every frame the VAOs and batches report
+ * the bounds of their changed elements in a DirtyRegion, then the scene is drawn once
+ * per dirty rectangle with the scissor test (so only those pixels are cleared and shaded)
+ * and the framebuffer is copied on the window. A frame without changes costs only the copy.
+ * The blit replaces the window content, so the layers are drawn afterwards.
+ * The framebuffer has a depth buffer for the depth layering.
+ * @author Matteo Pignataro
+ */
+public class PartialRedraw
+{
+	/**
+	 * Framebuffer ID
+	 */
+	private int fboID;
+	
+	/**
+	 * Texture that keeps the scene between the frames
+	 */
+	private Texture colorTexture;
+	
+	/**
+	 * Depth renderbuffer ID, used by the depth layering
+	 */
+	private int depthID;
+	
+	/**
+	 * Changed areas of the current frame
+	 */
+	private DirtyRegion region;
+	
+	/**
+	 * Window dimensions
+	 */
+	private int width;
+	private int height;
+	
+	/**
+	 * Redrawn pixels of the last frame
+	 */
+	private long redrawnPixels;
+	
+	/**
+	 * Constructor
+	 */
+	public PartialRedraw()
+	{
+		//Initial dimensions, they are changed by the first updateWindowSize
+		width = 1;
+		height = 1;
+		region = new DirtyRegion();
+		
+		//Create the target texture and the framebuffer
+		colorTexture = new Texture(width, height);
+		fboID = GpuResources.create(Type.FRAMEBUFFER);
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, colorTexture.getID(), 0);
+		
+		//Attach the depth buffer
+		depthID = GpuResources.create(Type.RENDERBUFFER);
+		resizeDepth(1, 1);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depthID);
+		
+		//Check the framebuffer status
+		if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+		{
+			throw new RuntimeException("Framebuffer incomplete [PartialRedraw]");
+		}
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+	}
+	
+	/**
+	 * Callback method called when the window size is changed
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void updateWindowSize(int width, int height)
+	{
+		this.width = Math.max(width, 1);
+		this.height = Math.max(height, 1);
+		
+		//Reallocate the texture, the content is lost
+		colorTexture.resize(this.width, this.height);
+		colorTexture.unbind();
+		resizeDepth(colorTexture.getWidth(), colorTexture.getHeight());
+		region.setWindowSize(this.width, this.height);
+	}
+	
+	/**
+	 * Method that redraws the dirty region of the scene and copies the scene on the window.
+	 * The region must have been filled by the VAOs and batches before this call.
+	 * @param scene The runnable that draws the whole scene
+	 */
+	public void draw(Runnable scene)
+	{
+		redrawnPixels = region.getArea();
+		
+		glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+		glViewport(0, 0, width, height);
+		
+		if(region.isFull())
+		{
+			glClear(GL_COLOR_BUFFER_BIT);
+			scene.run();
+		}
+		else if(!region.isEmpty())
+		{
+			glEnable(GL_SCISSOR_TEST);
+			
+			//One pass for every rectangle, the clear is also limited by the scissor
+			for(int i = 0; i < region.getCount(); i++)
+			{
+				glScissor(region.getX(i), region.getY(i), region.getWidth(i), region.getHeight(i));
+				glClear(GL_COLOR_BUFFER_BIT);
+				scene.run();
+			}
+			
+			glDisable(GL_SCISSOR_TEST);
+		}
+		
+		region.reset();
+		
+		//Copy the scene on the window
+		glBindFramebuffer(GL_READ_FRAMEBUFFER, fboID);
+		glBindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+		glBlitFramebuffer(0, 0, width, height, 0, 0, width, height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+		
+		//Go back to the default framebuffer
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+	}
+	
+	/**
+	 * Method to redraw the whole scene in the next frame (e.g. after a clear color change)
+	 */
+	public void invalidate() { region.invalidate(); }
+	
+	/**
+	 * Method to reallocate the depth buffer
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	private void resizeDepth(int width, int height)
+	{
+		glBindRenderbuffer(GL_RENDERBUFFER, depthID);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+		glBindRenderbuffer(GL_RENDERBUFFER, 0);
+		GpuResources.setBytes(Type.RENDERBUFFER, depthID, (long) width * height * 4);
+	}
+	
+	/**
+	 * Clean method
+	 */
+	public void clean()
+	{
+		//If present delete the framebuffer
+		if(fboID != 0)
+		{
+			GpuResources.delete(Type.FRAMEBUFFER, fboID);
+			GpuResources.delete(Type.RENDERBUFFER, depthID);
+			fboID = 0;
+		}
+		
+		colorTexture.release();
+	}
+	
+	/**
+	 * Getters
+	 */
+	public DirtyRegion getRegion()		{ return region; }
+	public long getRedrawnPixels()		{ return redrawnPixels; }
+}
@@ -0,0 +1,390 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBindBuffer;
+import static jgd.trace.TracedGL.glBindVertexArray;
+import static jgd.trace.TracedGL.glBufferData;
+import static jgd.trace.TracedGL.glBufferSubData;
+import static jgd.trace.TracedGL.glDrawArraysInstanced;
+import static jgd.trace.TracedGL.glEnableVertexAttribArray;
+import static jgd.trace.TracedGL.glVertexAttribDivisor;
+import static jgd.trace.TracedGL.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLE_STRIP;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class represents a particle system stored as parallel primitive arrays
+ * (structure of arrays). The integration runs with SIMD loops of the Java Vector API,
+ * so the module jdk.incubator.vector must be added at compile and run time
+ * (--add-modules jdk.incubator.vector).
+ * The dead particles are recycled with a swap with the last alive one.
+ * Every particle is an instance of a unit quad: the arrays are uploaded as they are
+ * in consecutive ranges of one streaming buffer, without interleaving.
+ * The shader receives the quad corner (vec2, from -0.5 to 0.5) at location 0 and
+ * the per instance x, y, size, red, green, blue and alpha (float) at locations 1 to 7,
+ * with x, y and size in window pixels. The uniform vec2 "windowSize" contains the
+ * window dimensions.
+ * @author Matteo Pignataro
+ */
+public class ParticleSystem
+{
+	/**
+	 * SIMD species used by the integration loops
+	 */
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	
+	/**
+	 * Number of per instance arrays uploaded to the GPU
+	 */
+	private static final int INSTANCE_ATTRIBUTES = 7;
+	
+	/**
+	 * Unit quad as a triangle strip
+	 */
+	private static final float[] QUAD = { -0.5f, -0.5f, 0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f };
+	
+	/**
+	 * Particles arrays
+	 */
+	private final float[] posX;
+	private final float[] posY;
+	private final float[] velX;
+	private final float[] velY;
+	private final float[] size;
+	private final float[] red;
+	private final float[] green;
+	private final float[] blue;
+	private final float[] alpha;
+	private final float[] life;
+	
+	/**
+	 * Number of alive particles, they are the first ones in the arrays
+	 */
+	private int count;
+	
+	/**
+	 * Maximum number of particles
+	 */
+	private final int capacity;
+	
+	/**
+	 * Acceleration applied to every particle in pixels per second squared
+	 */
+	private float gravityX;
+	private float gravityY;
+	
+	/**
+	 * vaoID
+	 */
+	private int vaoID;
+	
+	/**
+	 * Quad buffer ID
+	 */
+	private int quadID;
+	
+	/**
+	 * Instance buffer ID
+	 */
+	private int instanceID;
+	
+	/**
+	 * Staging buffer used to upload one array
+	 */
+	private FloatBuffer staging;
+	
+	/**
+	 * Shader assigned to the system
+	 */
+	private Shader shader;
+	
+	/**
+	 * The optional texture assigned
+	 */
+	private Texture texture;
+	
+	/**
+	 * Window dimensions
+	 */
+	private int width;
+	private int height;
+	
+	/**
+	 * Constructor
+	 * @param shader The shader that draws the particles
+	 * @param texture The optional particle texture
+	 * @param capacity The maximum number of particles
+	 */
+	public ParticleSystem(Shader shader, Texture texture, int capacity)
+	{
+		//I expect the shader not null
+		if(shader == null)
+		{
+			throw new NullPointerException("Error shader null pointer [ParticleSystem]");
+		}
+		
+		this.shader = shader;
+		this.texture = texture;
+		
+		//The system is an owner of the shader and of the texture
+		shader.retain();
+		
+		if(texture != null)
+		{
+			texture.retain();
+		}
+		this.capacity = capacity > 0 ? capacity : 1;
+		
+		//Instance the arrays
+		posX = new float[this.capacity];
+		posY = new float[this.capacity];
+		velX = new float[this.capacity];
+		velY = new float[this.capacity];
+		size = new float[this.capacity];
+		red = new float[this.capacity];
+		green = new float[this.capacity];
+		blue = new float[this.capacity];
+		alpha = new float[this.capacity];
+		life = new float[this.capacity];
+		count = 0;
+		
+		staging = NativeMemory.allocFloat(this.capacity);
+		
+		//Create the buffers
+		vaoID = GpuResources.create(Type.VERTEX_ARRAY);
+		quadID = GpuResources.create(Type.BUFFER);
+		instanceID = GpuResources.create(Type.BUFFER);
+		
+		glBindVertexArray(vaoID);
+		
+		//The quad never changes
+		glBindBuffer(GL_ARRAY_BUFFER, quadID);
+		glBufferData(GL_ARRAY_BUFFER, QUAD, GL_STATIC_DRAW);
+		GpuResources.setBytes(Type.BUFFER, quadID, (long) QUAD.length * Float.BYTES);
+		glVertexAttribPointer(0, 2, GL_FLOAT, false, 0, 0);
+		glEnableVertexAttribArray(0);
+		
+		//Every array is a range of the instance buffer
+		glBindBuffer(GL_ARRAY_BUFFER, instanceID);
+		glBufferData(GL_ARRAY_BUFFER, (long) INSTANCE_ATTRIBUTES * this.capacity * Float.BYTES, GL_STREAM_DRAW);
+		GpuResources.setBytes(Type.BUFFER, instanceID, (long) INSTANCE_ATTRIBUTES * this.capacity * Float.BYTES);
+		
+		for(int i = 0; i < INSTANCE_ATTRIBUTES; i++)
+		{
+			glVertexAttribPointer(i + 1, 1, GL_FLOAT, false, 0, (long) i * this.capacity * Float.BYTES);
+			glEnableVertexAttribArray(i + 1);
+			glVertexAttribDivisor(i + 1, 1);
+		}
+		
+		glBindVertexArray(0);
+	}
+	
+	/**
+	 * Method to create a particle
+	 * @param x The x position in pixels
+	 * @param y The y position in pixels
+	 * @param vx The x velocity in pixels per second
+	 * @param vy The y velocity in pixels per second
+	 * @param particleSize The particle size in pixels
+	 * @param lifetime The life in seconds
+	 * @return false if the system is full
+	 */
+	public boolean emit(float x, float y, float vx, float vy, float particleSize, float lifetime, float r, float g, float b, float a)
+	{
+		if(count == capacity)
+		{
+			return false;
+		}
+		
+		posX[count] = x;
+		posY[count] = y;
+		velX[count] = vx;
+		velY[count] = vy;
+		size[count] = particleSize;
+		life[count] = lifetime;
+		red[count] = r;
+		green[count] = g;
+		blue[count] = b;
+		alpha[count] = a;
+		count++;
+		
+		return true;
+	}
+	
+	/**
+	 * Method that moves the particles and recycles the dead ones
+	 * @param dt The elapsed time in seconds
+	 */
+	public void update(float dt)
+	{
+		int bound = SPECIES.loopBound(count);
+		FloatVector vdt = FloatVector.broadcast(SPECIES, dt);
+		FloatVector vgx = FloatVector.broadcast(SPECIES, gravityX * dt);
+		FloatVector vgy = FloatVector.broadcast(SPECIES, gravityY * dt);
+		int i = 0;
+		
+		//SIMD integration
+		for(; i < bound; i += SPECIES.length())
+		{
+			FloatVector vx = FloatVector.fromArray(SPECIES, velX, i);
+			FloatVector vy = FloatVector.fromArray(SPECIES, velY, i);
+			
+			//position += velocity * dt
+			vx.fma(vdt, FloatVector.fromArray(SPECIES, posX, i)).intoArray(posX, i);
+			vy.fma(vdt, FloatVector.fromArray(SPECIES, posY, i)).intoArray(posY, i);
+			
+			//velocity += gravity * dt
+			vx.add(vgx).intoArray(velX, i);
+			vy.add(vgy).intoArray(velY, i);
+			
+			//life -= dt
+			FloatVector.fromArray(SPECIES, life, i).sub(vdt).intoArray(life, i);
+		}
+		
+		//Scalar tail
+		for(; i < count; i++)
+		{
+			posX[i] += velX[i] * dt;
+			posY[i] += velY[i] * dt;
+			velX[i] += gravityX * dt;
+			velY[i] += gravityY * dt;
+			life[i] -= dt;
+		}
+		
+		//Swap the dead particles with the last alive one
+		i = 0;
+		
+		while(i < count)
+		{
+			if(life[i] <= 0)
+			{
+				count--;
+				posX[i] = posX[count];
+				posY[i] = posY[count];
+				velX[i] = velX[count];
+				velY[i] = velY[count];
+				size[i] = size[count];
+				life[i] = life[count];
+				red[i] = red[count];
+				green[i] = green[count];
+				blue[i] = blue[count];
+				alpha[i] = alpha[count];
+			}
+			else
+			{
+				i++;
+			}
+		}
+	}
+	
+	/**
+	 * Callback method called when the window size is changed
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void updateWindowSize(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+	}
+	
+	/**
+	 * Method that uploads the alive part of an array in its range
+	 * @param array The particles array
+	 * @param index The range index
+	 */
+	private void upload(float[] array, int index)
+	{
+		((Buffer) staging).clear();
+		staging.put(array, 0, count);
+		((Buffer) staging).flip();
+		
+		glBufferSubData(GL_ARRAY_BUFFER, (long) index * capacity * Float.BYTES, staging);
+	}
+	
+	/**
+	 * Method to draw all the alive particles with one instanced call
+	 */
+	public void draw()
+	{
+		if(count == 0)
+		{
+			return;
+		}
+		
+		//Orphan the previous frame data and upload the arrays
+		glBindBuffer(GL_ARRAY_BUFFER, instanceID);
+		glBufferData(GL_ARRAY_BUFFER, (long) INSTANCE_ATTRIBUTES * capacity * Float.BYTES, GL_STREAM_DRAW);
+		upload(posX, 0);
+		upload(posY, 1);
+		upload(size, 2);
+		upload(red, 3);
+		upload(green, 4);
+		upload(blue, 5);
+		upload(alpha, 6);
+		
+		//Bind and draw
+		shader.setUniform("windowSize", (float) width, (float) height);
+		glBindVertexArray(vaoID);
+		
+		if(texture != null)
+		{
+			texture.bind();
+		}
+		
+		glDrawArraysInstanced(GL_TRIANGLE_STRIP, 0, 4, count);
+		
+		//Unbind
+		if(texture != null)
+		{
+			texture.unbind();
+		}
+		
+		glBindVertexArray(0);
+		shader.unbind();
+	}
+	
+	/**
+	 * Clean method. The shader and the texture are released.
+	 */
+	public void clean()
+	{
+		//If present delete the vao
+		if(vaoID != 0)
+		{
+			GpuResources.delete(Type.VERTEX_ARRAY, vaoID);
+			GpuResources.delete(Type.BUFFER, quadID);
+			GpuResources.delete(Type.BUFFER, instanceID);
+			vaoID = 0;
+			
+			//Release the shader and the texture
+			shader.release();
+			
+			if(texture != null)
+			{
+				texture.release();
+			}
+		}
+		
+		//Release the staging buffer
+		NativeMemory.free(staging);
+		staging = null;
+	}
+	
+	/**
+	 * Getters and setters
+	 */
+	public int getCount()						{ return count; }
+	public int getCapacity()					{ return capacity; }
+	public void setGravity(float x, float y)	{ gravityX = x; gravityY = y; }
+}
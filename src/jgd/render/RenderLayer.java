@@ -0,0 +1,258 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBindFramebuffer;
+import static jgd.trace.TracedGL.glClearBufferfv;
+import static jgd.trace.TracedGL.glFramebufferTexture2D;
+import static jgd.trace.TracedGL.glViewport;
+import static org.lwjgl.opengl.GL11.GL_COLOR;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL30.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_COMPLETE;
+import static org.lwjgl.opengl.GL30.glCheckFramebufferStatus;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class represents a group of VAOs that rarely change (backgrounds, HUD frames...).
+ * The VAOs are rendered into a framebuffer texture only when one of their elements
+ * is updated or the window is resized. Otherwise the layer is drawn as a single
+ * full screen quad.
+ * The composite shader receives the quad with two attributes: the position (vec2) at
+ * location 0 in normalized device coordinates and the texture coordinates (vec2) at location 1.
+ * @author Matteo Pignataro
+ */
+public class RenderLayer
+{
+	/**
+	 * Transparent clear color of the cached texture
+	 */
+	private static final float[] CLEAR_COLOR = {0, 0, 0, 0};
+	
+	/**
+	 * Framebuffer ID
+	 */
+	private int fboID;
+	
+	/**
+	 * Texture where the VAOs are rendered
+	 */
+	private Texture colorTexture;
+	
+	/**
+	 * VAO that draws the full screen quad
+	 */
+	private VAO quad;
+	
+	/**
+	 * List of the cached VAOs
+	 */
+	private List<VAO> vaoList;
+	
+	/**
+	 * Layer width
+	 */
+	private int width;
+	
+	/**
+	 * Layer height
+	 */
+	private int height;
+	
+	/**
+	 * Boolean that represents if the cached texture must be rendered again
+	 */
+	private boolean dirty;
+	
+	/**
+	 * Constructor
+	 * @param shader The shader that draws the cached texture on the screen
+	 */
+	public RenderLayer(Shader shader)
+	{
+		//I expect the shader not null
+		if(shader == null)
+		{
+			throw new NullPointerException("Error shader null pointer [RenderLayer]");
+		}
+		
+		//Initial dimensions, they are changed by the first updateWindowSize
+		width = 1;
+		height = 1;
+		
+		//Create the target texture and the framebuffer
+		colorTexture = new Texture(width, height);
+		fboID = GpuResources.create(Type.FRAMEBUFFER);
+		attachTexture();
+		
+		//Create the quad VAO with position and texture coordinates
+		quad = new VAO(shader, colorTexture);
+		quad.addAttribute(2);
+		quad.addAttribute(2);
+		quad.addElement(new FullScreenQuad());
+		
+		//Instance the VAO list
+		vaoList = new ArrayList<VAO>();
+		
+		//The layer has never been rendered
+		dirty = true;
+	}
+	
+	/**
+	 * Method that links the color texture to the framebuffer
+	 */
+	private void attachTexture()
+	{
+		//Bind the framebuffer
+		glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+		
+		//Attach the texture as color buffer
+		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, colorTexture.getID(), 0);
+		
+		//Check the framebuffer status
+		if(glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE)
+		{
+			throw new RuntimeException("Framebuffer incomplete [RenderLayer]");
+		}
+		
+		//Go back to the default framebuffer
+		glBindFramebuffer(GL_FRAMEBUFFER, 0);
+	}
+	
+	/**
+	 * Add the vao to the cached VAOs list
+	 * @param v The VAO that needs to be added
+	 */
+	public void addVAO(VAO v)
+	{
+		//I add it if its not already present
+		if(!vaoList.contains(v))
+		{
+			//Add the VAO to the list
+			vaoList.add(v);
+			//Send a change dimensions to force every element to adapt
+			v.updateWindowSize(width, height);
+			//The new VAO must be rendered
+			dirty = true;
+		}
+	}
+	
+	/**
+	 * Callback method called when the window size is changed
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void updateWindowSize(int width, int height)
+	{
+		//Change the values
+		this.width = width;
+		this.height = height;
+		
+		//Reallocate the texture with the new dimensions
+		colorTexture.resize(width, height);
+		colorTexture.unbind();
+		
+		//Update all the VAOs objects
+		vaoList.stream().forEach((VAO v) -> v.updateWindowSize(width, height));
+		
+		//The texture content is lost
+		dirty = true;
+	}
+	
+	/**
+	 * @return true if the cached texture needs to be rendered again
+	 */
+	public boolean isUpdated()
+	{
+		return dirty || vaoList.stream().anyMatch((VAO v) -> v.isUpdated());
+	}
+	
+	/**
+	 * Method to draw the layer. The VAOs are rendered into the texture only
+	 * if something changed, then the texture is drawn on the screen.
+	 */
+	public void draw()
+	{
+		//Render the VAOs only if needed
+		if(isUpdated())
+		{
+			//Bind the framebuffer and set its viewport
+			glBindFramebuffer(GL_FRAMEBUFFER, fboID);
+			glViewport(0, 0, width, height);
+			
+			//Clear to transparent without touching the user clear color
+			glClearBufferfv(GL_COLOR, 0, CLEAR_COLOR);
+			
+			//Draw all the VAOs
+			vaoList.stream().forEach((VAO v) -> v.draw());
+			
+			//Go back to the default framebuffer
+			glBindFramebuffer(GL_FRAMEBUFFER, 0);
+			glViewport(0, 0, width, height);
+			
+			dirty = false;
+		}
+		
+		//Draw the cached texture
+		quad.draw();
+	}
+	
+	/**
+	 * Clean method
+	 */
+	public void clean()
+	{
+		//Clean all the VAOs
+		vaoList.stream().forEach((VAO v) -> v.clean());
+		
+		//Clean the quad, it releases the composite shader and the texture
+		quad.clean();
+		
+		//If present delete the framebuffer
+		if(fboID != 0)
+		{
+			GpuResources.delete(Type.FRAMEBUFFER, fboID);
+			fboID = 0;
+		}
+	}
+	
+	/**
+	 * Full screen quad in normalized device coordinates
+	 */
+	private static class FullScreenQuad extends DrawableElement
+	{
+		/**
+		 * Position and texture coordinates per vertex
+		 */
+		private static final float[] VERTICES =
+		{
+			-1, -1,		0, 0,
+			 1, -1,		1, 0,
+			 1,  1,		1, 1,
+			-1,  1,		0, 1
+		};
+		
+		/**
+		 * Two triangles
+		 */
+		private static final int[] ELEMENTS = { 0, 1, 2, 2, 3, 0 };
+		
+		@Override
+		public void updateWindowSize(int width, int height) {}
+		
+		@Override
+		public float[] getVertices() 	{ return VERTICES; }
+		
+		@Override
+		public int getVerticesSize() 	{ return VERTICES.length; }
+		
+		@Override
+		public int[] getElements() 		{ return ELEMENTS; }
+		
+		@Override
+		public int getElementsSize() 	{ return ELEMENTS.length; }
+	}
+}
@@ -0,0 +1,259 @@
+package jgd.render;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class represents a node of a 2D scene graph. Every node has a local transform
+ * (translation, rotation and uniform scale) relative to its parent and a cached world transform.
+ * A leaf node can be linked to a DrawableElement of a VAO with the transforms enabled:
+ * its world transform is written into the element transform, so moving a group of
+ * elements changes only their transform slots and never their vertices.
+ * Changes are propagated lazily: a change marks the node and flags the path to the root,
+ * then update() on the root visits only the flagged subtrees.
+ * @author Matteo Pignataro
+ */
+public class SceneNode
+{
+	/**
+	 * Parent node, null for the root
+	 */
+	private SceneNode parent;
+	
+	/**
+	 * Children nodes
+	 */
+	private List<SceneNode> children;
+	
+	/**
+	 * Linked element, can be null
+	 */
+	private DrawableElement element;
+	
+	/**
+	 * Local transform relative to the parent
+	 */
+	private float localX = 0;
+	private float localY = 0;
+	private float localRotation = 0;
+	private float localScale = 1;
+	
+	/**
+	 * Cached world transform
+	 */
+	private float worldX = 0;
+	private float worldY = 0;
+	private float worldRotation = 0;
+	private float worldScale = 1;
+	
+	/**
+	 * Boolean that represents if the local transform changed since the last update
+	 */
+	private boolean dirty;
+	
+	/**
+	 * Boolean that represents if a node in the subtree needs an update
+	 */
+	private boolean childDirty;
+	
+	/**
+	 * Constructor for a group node
+	 */
+	public SceneNode()
+	{
+		this(null);
+	}
+	
+	/**
+	 * Constructor
+	 * @param element The element moved by this node, null for a group node
+	 */
+	public SceneNode(DrawableElement element)
+	{
+		this.element = element;
+		
+		//Instance the children list
+		children = new ArrayList<SceneNode>();
+		
+		//The world transform has never been computed
+		dirty = true;
+	}
+	
+	/**
+	 * Method to add a child node. If the child has another parent it is moved here.
+	 * @param child The node to be added
+	 */
+	public void addChild(SceneNode child)
+	{
+		//I expect the child not null
+		if(child == null)
+		{
+			throw new NullPointerException("Error child null pointer [SceneNode]");
+		}
+		
+		//A node can't be an ancestor of itself
+		for(SceneNode n = this; n != null; n = n.parent)
+		{
+			if(n == child)
+			{
+				throw new RuntimeException("Cycle in the scene graph [SceneNode]");
+			}
+		}
+		
+		//Detach it from the old parent
+		if(child.parent != null)
+		{
+			child.parent.removeChild(child);
+		}
+		
+		children.add(child);
+		child.parent = this;
+		
+		//The world transform of the child depends on the new parent
+		child.markDirty();
+	}
+	
+	/**
+	 * Method to remove a child node. The child keeps its last world transform.
+	 * @param child The node to be removed
+	 */
+	public void removeChild(SceneNode child)
+	{
+		if(children.remove(child))
+		{
+			child.parent = null;
+		}
+	}
+	
+	/**
+	 * Method that marks the node and flags the path to the root.
+	 * The walk stops at the first ancestor already flagged.
+	 */
+	private void markDirty()
+	{
+		dirty = true;
+		
+		for(SceneNode n = parent; n != null && !n.childDirty; n = n.parent)
+		{
+			n.childDirty = true;
+		}
+	}
+	
+	/**
+	 * Method to set the translation relative to the parent
+	 * @param x The x translation
+	 * @param y The y translation
+	 */
+	public void setTranslation(float x, float y)
+	{
+		localX = x;
+		localY = y;
+		markDirty();
+	}
+	
+	/**
+	 * Method to set the rotation relative to the parent
+	 * @param rotation The rotation in radians
+	 */
+	public void setRotation(float rotation)
+	{
+		localRotation = rotation;
+		markDirty();
+	}
+	
+	/**
+	 * Method to set the scale relative to the parent
+	 * @param scale The uniform scale
+	 */
+	public void setScale(float scale)
+	{
+		localScale = scale;
+		markDirty();
+	}
+	
+	/**
+	 * Method to recompute the world transforms of the changed subtrees.
+	 * It must be called on the root before drawing the VAOs.
+	 */
+	public void update()
+	{
+		//A root uses the identity as parent transform
+		if(parent == null)
+		{
+			update(false, 0, 0, 0, 1);
+		}
+		else
+		{
+			update(false, parent.worldX, parent.worldY, parent.worldRotation, parent.worldScale);
+		}
+	}
+	
+	/**
+	 * Recursive update method
+	 * @param parentChanged true if the parent world transform changed
+	 * @param px Parent world x translation
+	 * @param py Parent world y translation
+	 * @param pr Parent world rotation
+	 * @param ps Parent world scale
+	 */
+	private void update(boolean parentChanged, float px, float py, float pr, float ps)
+	{
+		//Clean subtree, nothing to do
+		if(!parentChanged && !dirty && !childDirty)
+		{
+			return;
+		}
+		
+		boolean changed = parentChanged || dirty;
+		
+		if(changed)
+		{
+			//Compose parent * local (uniform scale keeps the result a similarity)
+			float cos = (float) Math.cos(pr);
+			float sin = (float) Math.sin(pr);
+			
+			worldX = px + ps * (cos * localX - sin * localY);
+			worldY = py + ps * (sin * localX + cos * localY);
+			worldRotation = pr + localRotation;
+			worldScale = ps * localScale;
+			
+			//Write the transform in the linked element, the VAO uploads only its slot
+			if(element != null)
+			{
+				element.setTranslation(worldX, worldY);
+				element.setRotation(worldRotation);
+				element.setScale(worldScale);
+			}
+		}
+		
+		dirty = false;
+		childDirty = false;
+		
+		//Visit the children, the clean ones return immediately
+		for(int i = 0; i < children.size(); i++)
+		{
+			children.get(i).update(changed, worldX, worldY, worldRotation, worldScale);
+		}
+	}
+	
+	/**
+	 * @return true if the node or its subtree needs an update
+	 */
+	public boolean isUpdated() { return dirty || childDirty; }
+	
+	/**
+	 * Node getters
+	 */
+	public SceneNode getParent()			{ return parent; }
+	public List<SceneNode> getChildren()	{ return Collections.unmodifiableList(children); }
+	public DrawableElement getElement()		{ return element; }
+	public float getTranslationX()			{ return localX; }
+	public float getTranslationY()			{ return localY; }
+	public float getRotation()				{ return localRotation; }
+	public float getScale()					{ return localScale; }
+	public float getWorldX()				{ return worldX; }
+	public float getWorldY()				{ return worldY; }
+	public float getWorldRotation()			{ return worldRotation; }
+	public float getWorldScale()			{ return worldScale; }
+}
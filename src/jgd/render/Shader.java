@@ -1,5 +1,11 @@
 package jgd.render;
 
+import static jgd.trace.TracedGL.glUniform1f;
+import static jgd.trace.TracedGL.glUniform1i;
+import static jgd.trace.TracedGL.glUniform2f;
+import static jgd.trace.TracedGL.glUniform3f;
+import static jgd.trace.TracedGL.glUniform4f;
+import static jgd.trace.TracedGL.glUseProgram;
 import static org.lwjgl.opengl.GL20.GL_COMPILE_STATUS;
 import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
 import static org.lwjgl.opengl.GL20.GL_LINK_STATUS;
@@ -7,23 +13,30 @@ import static org.lwjgl.opengl.GL20.GL_VALIDATE_STATUS;
 import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
 import static org.lwjgl.opengl.GL20.glAttachShader;
 import static org.lwjgl.opengl.GL20.glCompileShader;
-import static org.lwjgl.opengl.GL20.glCreateProgram;
-import static org.lwjgl.opengl.GL20.glCreateShader;
-import static org.lwjgl.opengl.GL20.glDeleteProgram;
 import static org.lwjgl.opengl.GL20.glDetachShader;
 import static org.lwjgl.opengl.GL20.glGetProgramInfoLog;
 import static org.lwjgl.opengl.GL20.glGetProgrami;
 import static org.lwjgl.opengl.GL20.glGetShaderInfoLog;
 import static org.lwjgl.opengl.GL20.glGetShaderi;
+import static org.lwjgl.opengl.GL20.glGetUniformLocation;
 import static org.lwjgl.opengl.GL20.glLinkProgram;
 import static org.lwjgl.opengl.GL20.glShaderSource;
-import static org.lwjgl.opengl.GL20.glUseProgram;
 import static org.lwjgl.opengl.GL20.glValidateProgram;
 import static org.lwjgl.opengl.GL32.GL_GEOMETRY_SHADER;
+import static org.lwjgl.opengl.KHRParallelShaderCompile.GL_COMPLETION_STATUS_KHR;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL;
+
+import jgd.render.GpuResources.Type;
+import jgd.trace.GLCapture;
 
 /**
  * Shader class represents all the GLSL programs that the pipeline GPU
@@ -52,6 +65,27 @@ public class Shader
 	 */
 	private int geometryShaderID;
 	
+	/**
+	 * Uniform locations already requested
+	 */
+	private Map<String, Integer> uniforms;
+	
+	/**
+	 * GLSL code of the vertex, fragment and geometry stages, null if not present
+	 */
+	private String[] sources;
+	
+	/**
+	 * Number of owners (VAOs, layers...) of the shader
+	 */
+	private int references;
+	
+	/**
+	 * Boolean that represents if the compile and link results still have to be checked.
+	 * A deferred shader is checked at the first bind so the driver can compile in background.
+	 */
+	private boolean pending;
+	
 	/**
 	 * Constructor
 	 * @param vertexFile The file path to the vertex GLSL code
@@ -61,12 +95,16 @@ public class Shader
 	public Shader(String vertexFile, String fragmentFile, String geometryFile)
 	{
 		//Create the gl program
-		programID = glCreateProgram();
+		programID = GpuResources.create(Type.PROGRAM);
+		
+		//Instance the uniform locations cache
+		uniforms = new HashMap<String, Integer>();
+		sources = new String[3];
 		
 		//If the vertex is a file i create the shader
 		if(vertexFile != null && (new File(vertexFile).isFile()))
 		{
-			vertexShaderID = createShader(vertexFile, GL_VERTEX_SHADER);
+			vertexShaderID = createShader(vertexFile, GL_VERTEX_SHADER, 0);
 		}
 		else 
 		{
@@ -76,7 +114,7 @@ public class Shader
 		//If the fragment is a file i create the shader
 		if(fragmentFile != null && (new File(fragmentFile).isFile()))
 		{
-			fragmentShaderID = createShader(fragmentFile, GL_FRAGMENT_SHADER);
+			fragmentShaderID = createShader(fragmentFile, GL_FRAGMENT_SHADER, 1);
 		}
 		else
 		{
@@ -86,7 +124,7 @@ public class Shader
 		//If the geometry is a file i create the shader
 		if(geometryFile != null && (new File(geometryFile).isFile()))
 		{
-			geometryShaderID = createShader(geometryFile, GL_GEOMETRY_SHADER);
+			geometryShaderID = createShader(geometryFile, GL_GEOMETRY_SHADER, 2);
 		}
 		else 
 		{
@@ -97,21 +135,69 @@ public class Shader
 		link();
 	}
 	
+	/**
+	 * Constructor from memory, e.g. from the entries of an asset pack
+	 * @param vertex The UTF-8 vertex GLSL code, can be null
+	 * @param fragment The UTF-8 fragment GLSL code, can be null
+	 * @param geometry The UTF-8 geometry GLSL code, can be null
+	 */
+	public Shader(ByteBuffer vertex, ByteBuffer fragment, ByteBuffer geometry)
+	{
+		//Create the gl program
+		programID = GpuResources.create(Type.PROGRAM);
+		
+		//Instance the uniform locations cache
+		uniforms = new HashMap<String, Integer>();
+		sources = new String[3];
+		
+		//Compile the stages that are present, the buffers positions are not changed
+		vertexShaderID = vertex != null ? compileShader(StandardCharsets.UTF_8.decode(vertex.duplicate()).toString(), GL_VERTEX_SHADER, 0) : -1;
+		fragmentShaderID = fragment != null ? compileShader(StandardCharsets.UTF_8.decode(fragment.duplicate()).toString(), GL_FRAGMENT_SHADER, 1) : -1;
+		geometryShaderID = geometry != null ? compileShader(StandardCharsets.UTF_8.decode(geometry.duplicate()).toString(), GL_GEOMETRY_SHADER, 2) : -1;
+		
+		//After all the shaders have been compiled i can link the program
+		link();
+	}
+	
+	/**
+	 * Constructor from code, used by the variants
+	 * @param vertex The vertex GLSL code, can be null
+	 * @param fragment The fragment GLSL code, can be null
+	 * @param geometry The geometry GLSL code, can be null
+	 * @param deferred If true the results are checked at the first bind
+	 */
+	Shader(String vertex, String fragment, String geometry, boolean deferred)
+	{
+		//Create the gl program
+		programID = GpuResources.create(Type.PROGRAM);
+		
+		//Instance the uniform locations cache
+		uniforms = new HashMap<String, Integer>();
+		sources = new String[3];
+		pending = deferred;
+		
+		//Compile the stages that are present
+		vertexShaderID = vertex != null ? compileShader(vertex, GL_VERTEX_SHADER, 0) : -1;
+		fragmentShaderID = fragment != null ? compileShader(fragment, GL_FRAGMENT_SHADER, 1) : -1;
+		geometryShaderID = geometry != null ? compileShader(geometry, GL_GEOMETRY_SHADER, 2) : -1;
+		
+		//Start the link, the results are checked later if deferred
+		link();
+	}
+	
 	/**
 	 * This method reads the shader file, compiles it and links it
 	 * @param filePath The string path to the shader file
 	 * @param type The shader type
+	 * @param stage The index of the stage in the sources array
 	 * @return The integer program ID
 	 */
-	private int createShader(String filePath, int type)
+	private int createShader(String filePath, int type, int stage)
 	{
 		//The file at this point should be present
 		String code;
 		byte byteArray[] = null;
 		
-		//Create the shader
-		int IDshader = glCreateShader(type);
-		
 		//Try to open the file and store it into an array
 		try { byteArray = Files.readAllBytes(Paths.get(filePath)); }
 		catch (Exception e) { return -1; }
@@ -119,51 +205,89 @@ public class Shader
 		//Create the code
 		code = new String(byteArray);
 		
+		return compileShader(code, type, stage);
+	}
+	
+	/**
+	 * This method compiles the code and attaches it to the program
+	 * @param code The GLSL code
+	 * @param type The shader type
+	 * @param stage The index of the stage in the sources array
+	 * @return The integer shader ID
+	 */
+	private int compileShader(String code, int type, int stage)
+	{
+		//Create the shader
+		int IDshader = GpuResources.createShader(type);
+		sources[stage] = code;
+		
 		//Set the shader code
 		glShaderSource(IDshader, code);
-		//Compile the code
+		//Compile the code, the result is checked with the link one
 		glCompileShader(IDshader);
 		
-		//Check the compilation results
-		if(glGetShaderi(IDshader, GL_COMPILE_STATUS) == 0)
-		{
-			throw new RuntimeException("Shader compile error [Shader]: " + glGetShaderInfoLog(IDshader, 1024));
-		}
-		
-		//If all went good i attach the shader to the program
+		//I attach the shader to the program
 		glAttachShader(programID, IDshader);
 		
 		return IDshader;
 	}
 	
 	/**
-	 * This method links all the shaders
+	 * This method links all the shaders. The results are checked immediately
+	 * if the shader is not deferred.
 	 */
 	private void link()
 	{
 		//Linking process
 		glLinkProgram(programID);
 		
+		if(!pending)
+		{
+			check();
+		}
+	}
+	
+	/**
+	 * This method checks the compile and link results and releases the shader objects.
+	 * If a check fails the shader stays pending, so clean still deletes its shader objects.
+	 */
+	private void check()
+	{
+		//Check the compilation results
+		for(int IDshader : new int[] {vertexShaderID, fragmentShaderID, geometryShaderID})
+		{
+			if(IDshader != -1 && glGetShaderi(IDshader, GL_COMPILE_STATUS) == 0)
+			{
+				throw new RuntimeException("Shader compile error [Shader]: " + glGetShaderInfoLog(IDshader, 1024));
+			}
+		}
+		
 		//Check the linking results
 		if(glGetProgrami(programID, GL_LINK_STATUS) == 0)
 		{
 			throw new RuntimeException("Shader program linking error [Shader]: " + glGetProgramInfoLog(programID, 1024));
 		}
 		
+		//The shader objects are released here
+		pending = false;
+		
 		//Detach all the shaders if they are present
 		if(vertexShaderID != -1)
 		{
 			glDetachShader(programID, vertexShaderID);
+			GpuResources.delete(Type.SHADER, vertexShaderID);
 		}
 		
 		if(fragmentShaderID != -1)
 		{
 			glDetachShader(programID, fragmentShaderID);
+			GpuResources.delete(Type.SHADER, fragmentShaderID);
 		}
 		
 		if(geometryShaderID != -1)
 		{
 			glDetachShader(programID, geometryShaderID);
+			GpuResources.delete(Type.SHADER, geometryShaderID);
 		}
 		
 		//Validate the program
@@ -174,18 +298,110 @@ public class Shader
 		{
 			throw new RuntimeException("Shader program validation error [Shader]: " + glGetProgramInfoLog(programID, 1024));
 		}
+		
+		//Keep the code for the GL captures
+		GLCapture.registerProgram(programID, sources[0], sources[1], sources[2]);
+	}
+	
+	/**
+	 * @param name The uniform name
+	 * @return The uniform location, -1 if the uniform is not used by the program
+	 */
+	private int getUniformLocation(String name)
+	{
+		//Ask OpenGL only the first time
+		return uniforms.computeIfAbsent(name, (String n) -> glGetUniformLocation(programID, n));
+	}
+	
+	/**
+	 * Method to set a float, vec2, vec3 or vec4 uniform. The shader is bound by this method.
+	 * @param name The uniform name
+	 * @param values From 1 to 4 values
+	 */
+	public void setUniform(String name, float... values)
+	{
+		//Bind first, a deferred shader must be checked before the query
+		bind();
+		
+		int location = getUniformLocation(name);
+		
+		//Select the uniform type by the number of values
+		switch(values.length)
+		{
+			case 1: glUniform1f(location, values[0]); break;
+			case 2: glUniform2f(location, values[0], values[1]); break;
+			case 3: glUniform3f(location, values[0], values[1], values[2]); break;
+			case 4: glUniform4f(location, values[0], values[1], values[2], values[3]); break;
+			default: throw new RuntimeException("Uniform with " + values.length + " values [Shader]: " + name);
+		}
+	}
+	
+	/**
+	 * Method to set an int or sampler uniform. The shader is bound by this method.
+	 * @param name The uniform name
+	 * @param value The value
+	 */
+	public void setUniform(String name, int value)
+	{
+		//Bind first, a deferred shader must be checked before the query
+		bind();
+		
+		int location = getUniformLocation(name);
+		glUniform1i(location, value);
+	}
+	
+	/**
+	 * Bind method. A deferred shader is checked at the first bind.
+	 */
+	public void bind()
+	{
+		if(pending)
+		{
+			check();
+		}
+		
+		glUseProgram(programID);
 	}
 	
 	/**
-	 * Bind method
+	 * @return true if the bind will not wait the driver compilation. Without
+	 * KHR_parallel_shader_compile only the checked shaders are ready.
 	 */
-	public void bind() { glUseProgram(programID); }
+	public boolean isReady()
+	{
+		if(!pending)
+		{
+			return true;
+		}
+		
+		return GL.getCapabilities().GL_KHR_parallel_shader_compile && glGetProgrami(programID, GL_COMPLETION_STATUS_KHR) != 0;
+	}
 	
 	/**
 	 * Unbind method
 	 */
 	public void unbind() { glUseProgram(0); }
 	
+	/**
+	 * Method to declare a new owner of the shader
+	 */
+	public synchronized void retain() { references++; }
+	
+	/**
+	 * Method to release an owner of the shader. When the last owner
+	 * releases it the shader is cleaned.
+	 */
+	public synchronized void release()
+	{
+		references--;
+		
+		if(references <= 0)
+		{
+			references = 0;
+			clean();
+		}
+	}
+	
 	/**
 	 * Clean method
 	 */
@@ -197,9 +413,28 @@ public class Shader
 		//If the program actually exists i delete it
 		if(programID != 0)
 		{
-			glDeleteProgram(programID);
+			//A deferred shader never bound still owns its shader objects
+			if(pending)
+			{
+				for(int IDshader : new int[] {vertexShaderID, fragmentShaderID, geometryShaderID})
+				{
+					if(IDshader != -1)
+					{
+						GpuResources.delete(Type.SHADER, IDshader);
+					}
+				}
+				
+				pending = false;
+			}
+			
+			GpuResources.delete(Type.PROGRAM, programID);
 			//Turn the programID to 0
 			programID = 0;
 		}
 	}
+	
+	/**
+	 * @return The OpenGL program ID
+	 */
+	public int getID() { return programID; }
 }
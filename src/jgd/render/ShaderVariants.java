@@ -0,0 +1,224 @@
+package jgd.render;
+
+import static org.lwjgl.opengl.KHRParallelShaderCompile.glMaxShaderCompilerThreadsKHR;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.lwjgl.opengl.GL;
+
+/**
+ * This class creates the permutations of a base shader. Every variant is the base code
+ * with a "#define FLAG 1" line (after the #version line) for every flag in its bitmask.
+ * The variants are compiled the first time they are requested and cached by bitmask.
+ * The variants are deferred shaders: their compile and link results are checked at the
+ * first bind, so several variants can be prewarmed and compiled by the driver in parallel
+ * when KHR_parallel_shader_compile is available.
+ * @author Matteo Pignataro
+ */
+public class ShaderVariants
+{
+	/**
+	 * Base code of the vertex, fragment and geometry stages, null if not present
+	 */
+	private String[] sources;
+	
+	/**
+	 * Flag names, the flag i is the bit i of the mask
+	 */
+	private String[] flags;
+	
+	/**
+	 * Compiled variants by mask
+	 */
+	private Map<Integer, Shader> variants;
+	
+	/**
+	 * Constructor
+	 * @param vertexFile The file path to the vertex GLSL code
+	 * @param fragmentFile The file path to the fragment GLSL code
+	 * @param geometryFile The file path to the geometry GLSL code, can be null
+	 * @param flags The flag names, at most 32
+	 */
+	public ShaderVariants(String vertexFile, String fragmentFile, String geometryFile, String... flags)
+	{
+		this(new String[] {read(vertexFile), read(fragmentFile), read(geometryFile)}, flags);
+	}
+	
+	/**
+	 * Constructor from code
+	 * @param sources The vertex, fragment and geometry code, null if not present
+	 * @param flags The flag names, at most 32
+	 */
+	public ShaderVariants(String[] sources, String... flags)
+	{
+		//I expect the sources not null
+		if(sources == null || sources.length != 3)
+		{
+			throw new NullPointerException("Error sources null pointer [ShaderVariants]");
+		}
+		
+		if(flags.length > Integer.SIZE)
+		{
+			throw new RuntimeException("Too many flags [ShaderVariants]");
+		}
+		
+		this.sources = sources.clone();
+		this.flags = flags.clone();
+		variants = new HashMap<Integer, Shader>();
+	}
+	
+	/**
+	 * @param path The file path, can be null
+	 * @return The file content, null if the file is not readable
+	 */
+	private static String read(String path)
+	{
+		if(path == null)
+		{
+			return null;
+		}
+		
+		try { return new String(Files.readAllBytes(Paths.get(path))); }
+		catch (Exception e) { return null; }
+	}
+	
+	/**
+	 * @param names The flag names
+	 * @return The mask of the flags
+	 */
+	public int mask(String... names)
+	{
+		int mask = 0;
+		
+		for(String name : names)
+		{
+			int bit = -1;
+			
+			for(int i = 0; i < flags.length && bit == -1; i++)
+			{
+				bit = flags[i].equals(name) ? i : -1;
+			}
+			
+			if(bit == -1)
+			{
+				throw new RuntimeException("Unknown flag [ShaderVariants]: " + name);
+			}
+			
+			mask |= 1 << bit;
+		}
+		
+		return mask;
+	}
+	
+	/**
+	 * Method to get a variant, it is created the first time
+	 * @param mask The flags mask
+	 * @return The shader, checked at its first bind
+	 */
+	public Shader get(int mask)
+	{
+		Shader shader = variants.get(mask);
+		
+		if(shader == null)
+		{
+			shader = new Shader(inject(sources[0], mask), inject(sources[1], mask), inject(sources[2], mask), true);
+			
+			//The variants cache is an owner of the shader
+			shader.retain();
+			variants.put(mask, shader);
+		}
+		
+		return shader;
+	}
+	
+	/**
+	 * Method to start the compilation of several variants at once, e.g. during a loading screen.
+	 * With KHR_parallel_shader_compile the driver compiles them on its threads,
+	 * otherwise they are compiled one after the other but still checked only when used.
+	 * @param masks The variants masks
+	 */
+	public void prewarm(int... masks)
+	{
+		//The threads are a state of the current context, so they are requested at every prewarm.
+		//The call is cheap and a process wide flag would skip the other windows contexts
+		if(GL.getCapabilities().GL_KHR_parallel_shader_compile)
+		{
+			//Let the driver choose the number of threads
+			glMaxShaderCompilerThreadsKHR(0xFFFFFFFF);
+		}
+		
+		for(int mask : masks)
+		{
+			get(mask);
+		}
+	}
+	
+	/**
+	 * @param mask The variant mask
+	 * @return true if the variant exists and can be bound without waiting the compiler
+	 */
+	public boolean isReady(int mask)
+	{
+		Shader shader = variants.get(mask);
+		
+		return shader != null && shader.isReady();
+	}
+	
+	/**
+	 * Method that adds the defines of the mask after the #version line.
+	 * A #line directive keeps the line numbers of the errors equal to the base code.
+	 * @param code The base code, can be null
+	 * @param mask The flags mask
+	 * @return The variant code
+	 */
+	private String inject(String code, int mask)
+	{
+		if(code == null)
+		{
+			return null;
+		}
+		
+		StringBuilder defines = new StringBuilder();
+		
+		for(int i = 0; i < flags.length; i++)
+		{
+			if((mask & (1 << i)) != 0)
+			{
+				defines.append("#define ").append(flags[i]).append(" 1\n");
+			}
+		}
+		
+		//The #version must stay the first directive
+		int version = code.indexOf("#version");
+		
+		if(version == -1)
+		{
+			return defines.append("#line 1\n").append(code).toString();
+		}
+		
+		int end = code.indexOf('\n', version);
+		end = end == -1 ? code.length() : end + 1;
+		
+		//Line of the code after the #version line
+		int line = 2;
+		
+		for(int i = 0; i < version; i++)
+		{
+			line += code.charAt(i) == '\n' ? 1 : 0;
+		}
+		
+		return code.substring(0, end) + (end == code.length() ? "\n" : "") + defines + "#line " + line + "\n" + code.substring(end);
+	}
+	
+	/**
+	 * Clean method. The variants are released, a variant still used by a VAO is cleaned by its last owner.
+	 */
+	public void clean()
+	{
+		variants.values().stream().forEach((Shader s) -> s.release());
+		variants.clear();
+	}
+}
@@ -0,0 +1,134 @@
+package jgd.render;
+
+/**
+ * This class represents a string drawn by a TextRenderer.
+ * The quads of the string are computed again only when the string,
+ * its position or its color change.
+ * @author Matteo Pignataro
+ */
+public class Text
+{
+	/**
+	 * The string
+	 */
+	private String string;
+	
+	/**
+	 * Top left corner in window pixels
+	 */
+	private float x;
+	private float y;
+	
+	/**
+	 * Color
+	 */
+	private float r;
+	private float g;
+	private float b;
+	private float a;
+	
+	/**
+	 * Cached vertex run (8 floats per vertex, 4 vertices per quad)
+	 */
+	float[] vertices;
+	
+	/**
+	 * Number of quads in the vertex run
+	 */
+	int quads;
+	
+	/**
+	 * First quad of the run in the renderer buffer
+	 */
+	int offset;
+	
+	/**
+	 * Font generation used to compute the texture coordinates
+	 */
+	int generation;
+	
+	/**
+	 * Boolean that represents if the run must be computed again
+	 */
+	boolean updated;
+	
+	/**
+	 * Boolean that represents if the run must be uploaded
+	 */
+	boolean uploaded;
+	
+	/**
+	 * Constructor
+	 * @param string The string
+	 * @param x The left coordinate in window pixels
+	 * @param y The top coordinate in window pixels
+	 */
+	public Text(String string, float x, float y)
+	{
+		this.string = string == null ? "" : string;
+		this.x = x;
+		this.y = y;
+		
+		//White by default
+		r = g = b = a = 1;
+		
+		vertices = new float[0];
+		quads = 0;
+		generation = -1;
+		updated = true;
+		uploaded = false;
+	}
+	
+	/**
+	 * Method to change the string. Nothing is computed if the string is the same.
+	 * @param string The new string
+	 */
+	public void setString(String string)
+	{
+		string = string == null ? "" : string;
+		
+		if(!this.string.equals(string))
+		{
+			this.string = string;
+			updated = true;
+		}
+	}
+	
+	/**
+	 * Method to move the string
+	 * @param x The left coordinate in window pixels
+	 * @param y The top coordinate in window pixels
+	 */
+	public void setPosition(float x, float y)
+	{
+		if(this.x != x || this.y != y)
+		{
+			this.x = x;
+			this.y = y;
+			updated = true;
+		}
+	}
+	
+	/**
+	 * Method to change the color
+	 */
+	public void setColor(float r, float g, float b, float a)
+	{
+		this.r = r;
+		this.g = g;
+		this.b = b;
+		this.a = a;
+		updated = true;
+	}
+	
+	/**
+	 * Getters
+	 */
+	public String getString()	{ return string; }
+	public float getX()			{ return x; }
+	public float getY()			{ return y; }
+	public float getR()			{ return r; }
+	public float getG()			{ return g; }
+	public float getB()			{ return b; }
+	public float getA()			{ return a; }
+}
@@ -0,0 +1,405 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBindBuffer;
+import static jgd.trace.TracedGL.glBindVertexArray;
+import static jgd.trace.TracedGL.glBufferData;
+import static jgd.trace.TracedGL.glBufferSubData;
+import static jgd.trace.TracedGL.glDrawElements;
+import static jgd.trace.TracedGL.glEnableVertexAttribArray;
+import static jgd.trace.TracedGL.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
+
+import java.nio.Buffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class draws all the strings of a font with a single draw call.
+ * The quads of every string are kept as a cached vertex run in a streaming buffer:
+ * only the changed runs are uploaded, and the whole buffer is uploaded again only
+ * when the number of quads of a string changes.
+ * Every vertex has the position in normalized device coordinates (vec2) at location 0,
+ * the atlas texture coordinates (vec2) at location 1 and the color (vec4) at location 2.
+ * The glyph coverage is in the red channel of the atlas.
+ * @author Matteo Pignataro
+ */
+public class TextRenderer
+{
+	/**
+	 * Floats per vertex (position, texture coordinates and color)
+	 */
+	private static final int VERTEX_SIZE = 8;
+	
+	/**
+	 * Floats per quad
+	 */
+	private static final int QUAD_SIZE = 4 * VERTEX_SIZE;
+	
+	/**
+	 * vaoID
+	 */
+	private int vaoID;
+	
+	/**
+	 * vboID
+	 */
+	private int vboID;
+	
+	/**
+	 * eboID
+	 */
+	private int eboID;
+	
+	/**
+	 * Shader assigned to the renderer
+	 */
+	private Shader shader;
+	
+	/**
+	 * Font of all the strings
+	 */
+	private Font font;
+	
+	/**
+	 * List of the strings
+	 */
+	private List<Text> texts;
+	
+	/**
+	 * Number of quads the buffers can contain
+	 */
+	private int quadCapacity;
+	
+	/**
+	 * Number of quads in the buffers
+	 */
+	private int quadCount;
+	
+	/**
+	 * Boolean that represents if the runs positions in the buffer must be computed again
+	 */
+	private boolean layoutChanged;
+	
+	/**
+	 * Window dimensions
+	 */
+	private int width;
+	private int height;
+	
+	/**
+	 * Constructor
+	 * @param shader The shader that draws the strings
+	 * @param font The font of the strings
+	 */
+	public TextRenderer(Shader shader, Font font)
+	{
+		//I expect shader and font not null
+		if(shader == null || font == null)
+		{
+			throw new NullPointerException("Error shader or font null pointer [TextRenderer]");
+		}
+		
+		this.shader = shader;
+		this.font = font;
+		
+		//The renderer is an owner of the shader
+		shader.retain();
+		
+		//Create the VAO, VBO and EBO buffers
+		vaoID = GpuResources.create(Type.VERTEX_ARRAY);
+		vboID = GpuResources.create(Type.BUFFER);
+		eboID = GpuResources.create(Type.BUFFER);
+		
+		//Set the vertex layout once
+		glBindVertexArray(vaoID);
+		glBindBuffer(GL_ARRAY_BUFFER, vboID);
+		glVertexAttribPointer(0, 2, GL_FLOAT, false, VERTEX_SIZE * Float.BYTES, 0);
+		glEnableVertexAttribArray(0);
+		glVertexAttribPointer(1, 2, GL_FLOAT, false, VERTEX_SIZE * Float.BYTES, 2 * Float.BYTES);
+		glEnableVertexAttribArray(1);
+		glVertexAttribPointer(2, 4, GL_FLOAT, false, VERTEX_SIZE * Float.BYTES, 4 * Float.BYTES);
+		glEnableVertexAttribArray(2);
+		glBindVertexArray(0);
+		
+		texts = new ArrayList<Text>();
+		quadCapacity = 0;
+		quadCount = 0;
+		layoutChanged = true;
+	}
+	
+	/**
+	 * Add the string to the drawn strings
+	 * @param t The string
+	 */
+	public void addText(Text t)
+	{
+		//I add it if its not already present
+		if(!texts.contains(t))
+		{
+			texts.add(t);
+			t.updated = true;
+			layoutChanged = true;
+		}
+	}
+	
+	/**
+	 * Remove the string from the drawn strings
+	 * @param t The string
+	 */
+	public void removeText(Text t)
+	{
+		if(texts.remove(t))
+		{
+			layoutChanged = true;
+		}
+	}
+	
+	/**
+	 * Callback method called when the window size is changed
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void updateWindowSize(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		
+		//All the positions change
+		texts.stream().forEach((Text t) -> t.updated = true);
+	}
+	
+	/**
+	 * Method that computes the vertex run of a string
+	 * @param t The string
+	 */
+	private void build(Text t)
+	{
+		int generation = font.getGeneration();
+		String string = t.getString();
+		float[] run = new float[string.length() * QUAD_SIZE];
+		int quads = 0;
+		
+		//Pen position in pixels
+		float penX = t.getX();
+		float baseline = t.getY() + font.getAscent();
+		int previous = -1;
+		
+		for(int i = 0; i < string.length(); i += Character.charCount(string.codePointAt(i)))
+		{
+			int codepoint = string.codePointAt(i);
+			
+			//New line
+			if(codepoint == '\n')
+			{
+				penX = t.getX();
+				baseline += font.getLineHeight();
+				previous = -1;
+				continue;
+			}
+			
+			//Kerning with the previous glyph
+			if(previous != -1)
+			{
+				penX += font.getKerning(previous, codepoint);
+			}
+			
+			Font.Glyph g = font.getGlyph(codepoint);
+			
+			if(g.isVisible())
+			{
+				//Quad corners in normalized device coordinates
+				float left = (penX + g.getOffsetX()) * 2 / width - 1;
+				float right = (penX + g.getOffsetX() + g.getWidth()) * 2 / width - 1;
+				float top = 1 - (baseline + g.getOffsetY()) * 2 / height;
+				float bottom = 1 - (baseline + g.getOffsetY() + g.getHeight()) * 2 / height;
+				
+				int base = quads * QUAD_SIZE;
+				putVertex(run, base, left, top, g.getU0(), g.getV0(), t);
+				putVertex(run, base + VERTEX_SIZE, right, top, g.getU1(), g.getV0(), t);
+				putVertex(run, base + 2 * VERTEX_SIZE, right, bottom, g.getU1(), g.getV1(), t);
+				putVertex(run, base + 3 * VERTEX_SIZE, left, bottom, g.getU0(), g.getV1(), t);
+				quads++;
+			}
+			
+			penX += g.getAdvance();
+			previous = codepoint;
+		}
+		
+		//A different number of quads moves the following runs
+		if(quads != t.quads)
+		{
+			layoutChanged = true;
+		}
+		
+		t.vertices = Arrays.copyOf(run, quads * QUAD_SIZE);
+		t.quads = quads;
+		t.updated = false;
+		t.uploaded = false;
+		
+		//If the atlas changed while building, the first texture coordinates may be invalid
+		t.generation = generation == font.getGeneration() ? generation : -1;
+	}
+	
+	/**
+	 * Method that writes a vertex in the run
+	 */
+	private void putVertex(float[] run, int index, float x, float y, float u, float v, Text t)
+	{
+		run[index] 		= x;
+		run[index + 1] 	= y;
+		run[index + 2] 	= u;
+		run[index + 3] 	= v;
+		run[index + 4] 	= t.getR();
+		run[index + 5] 	= t.getG();
+		run[index + 6] 	= t.getB();
+		run[index + 7] 	= t.getA();
+	}
+	
+	/**
+	 * Method that creates the index buffer for the given number of quads
+	 * @param capacity The number of quads
+	 */
+	private void allocate(int capacity)
+	{
+		IntBuffer elements = NativeMemory.allocInt(capacity * 6);
+		
+		//Two triangles per quad
+		for(int q = 0; q < capacity; q++)
+		{
+			elements.put(4 * q).put(4 * q + 1).put(4 * q + 2);
+			elements.put(4 * q + 2).put(4 * q + 3).put(4 * q);
+		}
+		
+		((Buffer) elements).flip();
+		
+		//The ebo binding is stored in the vao
+		glBindVertexArray(vaoID);
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboID);
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, elements, GL_STATIC_DRAW);
+		GpuResources.setBytes(Type.BUFFER, eboID, (long) capacity * 6 * Integer.BYTES);
+		glBindVertexArray(0);
+		
+		NativeMemory.free(elements);
+		
+		quadCapacity = capacity;
+	}
+	
+	/**
+	 * Method to draw all the strings
+	 */
+	public void draw()
+	{
+		//Nothing can be placed
+		if(width <= 0 || height <= 0)
+		{
+			return;
+		}
+		
+		//The glyphs used by the runs built in this draw cannot be evicted
+		font.beginFrame();
+		
+		//Compute the changed runs, again until no atlas change invalidates them.
+		//Every pass pins the glyphs it uses, so the evictions end when every run is built
+		int generation;
+		
+		do
+		{
+			generation = font.getGeneration();
+			
+			for(int i = 0; i < texts.size(); i++)
+			{
+				if(texts.get(i).updated || texts.get(i).generation != generation)
+				{
+					build(texts.get(i));
+				}
+			}
+		}
+		while(generation != font.getGeneration());
+		
+		glBindBuffer(GL_ARRAY_BUFFER, vboID);
+		
+		if(layoutChanged)
+		{
+			//Place the runs one after the other
+			quadCount = 0;
+			
+			for(int i = 0; i < texts.size(); i++)
+			{
+				texts.get(i).offset = quadCount;
+				quadCount += texts.get(i).quads;
+			}
+			
+			//Grow the buffers if needed
+			if(quadCount > quadCapacity)
+			{
+				allocate(Math.max(quadCount, quadCapacity * 2));
+			}
+			
+			//Orphan the old vertex buffer and upload every run
+			glBufferData(GL_ARRAY_BUFFER, (long) quadCapacity * QUAD_SIZE * Float.BYTES, GL_STREAM_DRAW);
+			GpuResources.setBytes(Type.BUFFER, vboID, (long) quadCapacity * QUAD_SIZE * Float.BYTES);
+			
+			texts.stream().forEach((Text t) -> t.uploaded = false);
+			layoutChanged = false;
+		}
+		
+		//Upload only the runs that changed
+		for(int i = 0; i < texts.size(); i++)
+		{
+			Text t = texts.get(i);
+			
+			if(!t.uploaded)
+			{
+				if(t.quads > 0)
+				{
+					glBufferSubData(GL_ARRAY_BUFFER, (long) t.offset * QUAD_SIZE * Float.BYTES, t.vertices);
+				}
+				
+				t.uploaded = true;
+			}
+		}
+		
+		//Draw all the strings
+		if(quadCount > 0)
+		{
+			glBindVertexArray(vaoID);
+			shader.bind();
+			font.bind();
+			
+			glDrawElements(GL_TRIANGLES, quadCount * 6, GL_UNSIGNED_INT, 0);
+			
+			font.unbind();
+			shader.unbind();
+			glBindVertexArray(0);
+		}
+	}
+	
+	/**
+	 * Clean method. The shader is released and the font is not cleaned because it can be shared.
+	 */
+	public void clean()
+	{
+		//If present delete the vao
+		if(vaoID != 0)
+		{
+			GpuResources.delete(Type.VERTEX_ARRAY, vaoID);
+			GpuResources.delete(Type.BUFFER, vboID);
+			GpuResources.delete(Type.BUFFER, eboID);
+			vaoID = 0;
+			
+			//Release the shader
+			shader.release();
+		}
+	}
+}
@@ -1,6 +1,12 @@
 package jgd.render;
 
+import static jgd.trace.TracedGL.glBindTexture;
+import static jgd.trace.TracedGL.glPixelStorei;
+import static jgd.trace.TracedGL.glTexImage2D;
+import static jgd.trace.TracedGL.glTexParameteri;
+import static jgd.trace.TracedGL.glTexSubImage2D;
 import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_NEAREST_MIPMAP_LINEAR;
 import static org.lwjgl.opengl.GL11.GL_REPEAT;
 import static org.lwjgl.opengl.GL11.GL_RGB;
 import static org.lwjgl.opengl.GL11.GL_RGBA;
@@ -9,67 +15,202 @@ import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
 import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
+import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
 import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
-import static org.lwjgl.opengl.GL11.glBindTexture;
-import static org.lwjgl.opengl.GL11.glDeleteTextures;
-import static org.lwjgl.opengl.GL11.glGenTextures;
-import static org.lwjgl.opengl.GL11.glTexImage2D;
-import static org.lwjgl.opengl.GL11.glTexParameteri;
+import static org.lwjgl.opengl.GL12.GL_CLAMP_TO_EDGE;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_BASE_LEVEL;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
 import static org.lwjgl.stb.STBImage.stbi_image_free;
 import static org.lwjgl.stb.STBImage.stbi_load;
+import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
 
 import java.io.File;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
-import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources.Type;
 
 /**
- * This class represents a texture opened from a file
+ * This class represents a texture opened from a file.
+ * A mipmapped texture keeps its whole mip chain in memory and uploads it
+ * progressively: the smallest levels are uploaded at creation so the texture
+ * is immediately usable, the bigger ones are streamed with streamLevels.
  * @author Matteo Pignataro
  */
-public class Texture 
+public class Texture
 {
+	/**
+	 * Bytes uploaded at creation for a mipmapped texture
+	 */
+	private static final int INITIAL_STREAM_BUDGET = 64 * 1024;
+	
 	/**
 	 * Texture ID
 	 */
-	private int textureID;
+	protected int textureID;
 	
 	/**
 	 * Texture width
 	 */
-	private int width;
+	protected int width;
 	
 	/**
 	 * Texture height
 	 */
-	private int height;
+	protected int height;
+	
+	/**
+	 * Number of color channels (3 or 4)
+	 */
+	private int channels;
+	
+	/**
+	 * OpenGL pixel format (GL_RGB or GL_RGBA)
+	 */
+	private int format;
+	
+	/**
+	 * Mip chain kept in memory, level 0 is the full image.
+	 * Null in case of a not mipmapped texture
+	 */
+	private List<ByteBuffer> levels;
+	
+	/**
+	 * Highest resolution level completely uploaded to the GPU
+	 */
+	private int baseLevel;
+	
+	/**
+	 * Rows already uploaded of the level under streaming (baseLevel - 1)
+	 */
+	private int streamRow;
+	
+	/**
+	 * Number of owners (VAOs, layers...) of the texture
+	 */
+	private int references;
+	
+	/**
+	 * Constructor for the subclasses that create their own OpenGL texture
+	 */
+	protected Texture() {}
 	
 	/**
 	 * Constructor
+	 * @param path The texture file path
 	 */
 	public Texture(String path)
+	{
+		this(path, false);
+	}
+	
+	/**
+	 * Constructor
+	 * @param path The texture file path
+	 * @param mipmapped If true the mip chain is generated and streamed progressively
+	 */
+	public Texture(String path, boolean mipmapped)
 	{
 		//Generate the texture with OpenGL
-		textureID = glGenTextures();
+		textureID = GpuResources.create(Type.TEXTURE);
 		
 		//Check the texture exists and actually is a file
 		if(path != null && (new File(path).isFile()))
 		{
-			createTexture(path);
+			createTexture(null, path, mipmapped);
 		}
-		else 
+		else
 		{
 			throw new RuntimeException("No texture file detected [Texture]");
 		}
 	}
 	
 	/**
-	 * This method reads the file and links it to the texture generated
+	 * Constructor
+	 * @param data The encoded image (PNG, JPG...), e.g. an entry of an asset pack
+	 */
+	public Texture(ByteBuffer data)
+	{
+		this(data, false);
+	}
+	
+	/**
+	 * Constructor
+	 * @param data The encoded image (PNG, JPG...), e.g. an entry of an asset pack
+	 * @param mipmapped If true the mip chain is generated and streamed progressively
+	 */
+	public Texture(ByteBuffer data, boolean mipmapped)
+	{
+		//I expect the data not null
+		if(data == null)
+		{
+			throw new NullPointerException("Error data null pointer [Texture]");
+		}
+		
+		//Generate the texture with OpenGL
+		textureID = GpuResources.create(Type.TEXTURE);
+		
+		createTexture(data, "memory image", mipmapped);
+	}
+	
+	/**
+	 * Constructor for an empty RGBA texture, useful as a render target
+	 * @param width The texture width
+	 * @param height The texture height
+	 */
+	public Texture(int width, int height)
+	{
+		//Generate the texture with OpenGL
+		textureID = GpuResources.create(Type.TEXTURE);
+		
+		//Bind the texture
+		bind();
+		
+		//A render target is never repeated
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_CLAMP_TO_EDGE);
+		
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST); //Select the nearest pixel
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST); //The same in expansion
+		
+		//Allocate the storage
+		channels = 4;
+		format = GL_RGBA;
+		resize(width, height);
+	}
+	
+	/**
+	 * Method to reallocate an empty texture with new dimensions.
+	 * The previous content is lost.
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void resize(int width, int height)
+	{
+		//At least one pixel
+		this.width = width > 0 ? width : 1;
+		this.height = height > 0 ? height : 1;
+		
+		//Bind the texture and allocate the storage without data
+		bind();
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, this.width, this.height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		GpuResources.setBytes(Type.TEXTURE, textureID, getResidentBytes());
+	}
+	
+	/**
+	 * This method reads the file (or decodes the data) and links it to the texture generated
 	 * with OpenGL
-	 * @param filePath Texture file path
+	 * @param data The encoded image, null to read the file
+	 * @param filePath Texture file path, used as name in the errors when the data is present
+	 * @param mipmapped If true the mip chain is generated and streamed
 	 */
-	private void createTexture(String filePath)
+	private void createTexture(ByteBuffer data, String filePath, boolean mipmapped)
 	{
 		//First of all we bind the texture
 		bind();
@@ -78,44 +219,297 @@ public class Texture
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_S, GL_REPEAT); //Repeat in case of >1 coordinates
 		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_WRAP_T, GL_REPEAT); //Same on the y axis
 		
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_NEAREST); //Select the nearest pixel
-		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST); //The same in expansion
-		
-		//Create the buffer and read the image
-		IntBuffer widthBuffer = BufferUtils.createIntBuffer(1);
-		IntBuffer heightBuffer = BufferUtils.createIntBuffer(1);
-		IntBuffer channelsBuffer = BufferUtils.createIntBuffer(1);
+		//In case of minification a mipmapped texture interpolates between the nearest pixels of two levels
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, mipmapped ? GL_NEAREST_MIPMAP_LINEAR : GL_NEAREST);
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_NEAREST); //Select the nearest pixel
 		
-		//Read the image
-		ByteBuffer image = stbi_load(filePath, widthBuffer, heightBuffer, channelsBuffer, 0);
+		ByteBuffer image;
 		
-		//Check if the image was read
-		if(image == null)
+		//The dimension buffers live only during the read
+		try(MemoryStack stack = MemoryStack.stackPush())
 		{
-			throw new RuntimeException("Error reading the texture [Texture]: " + filePath);
+			//Create the buffer and read the image
+			IntBuffer widthBuffer = stack.mallocInt(1);
+			IntBuffer heightBuffer = stack.mallocInt(1);
+			IntBuffer channelsBuffer = stack.mallocInt(1);
+			
+			//Read the image
+			if(data == null)
+			{
+				image = stbi_load(filePath, widthBuffer, heightBuffer, channelsBuffer, 0);
+			}
+			else
+			{
+				image = stbi_load_from_memory(data, widthBuffer, heightBuffer, channelsBuffer, 0);
+			}
+			
+			//Check if the image was read
+			if(image == null)
+			{
+				throw new RuntimeException("Error reading the texture [Texture]: " + filePath);
+			}
+			
+			//If all is good i assign the variables
+			width = widthBuffer.get(0);
+			height = heightBuffer.get(0);
+			channels = channelsBuffer.get(0);
 		}
 		
-		//If all is good i assign the variables
-		width = widthBuffer.get(0);
-		height = heightBuffer.get(0);
-		
-		//Check how many channels the image is composed of and link it to the texture
-		if(channelsBuffer.get(0) == 3)
+		//Check how many channels the image is composed of
+		if(channels == 3)
 		{
-			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGB, widthBuffer.get(0), heightBuffer.get(0), 0, GL_RGB, GL_UNSIGNED_BYTE, image);
+			format = GL_RGB;
 		}
-		else if(channelsBuffer.get(0) == 4)
+		else if(channels == 4)
 		{
-			glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA, widthBuffer.get(0), heightBuffer.get(0), 0, GL_RGBA, GL_UNSIGNED_BYTE, image);
+			format = GL_RGBA;
 		}
 		else
 		{
+			//Free the memory before the error
+			stbi_image_free(image);
 			//Channel unreadable error
 			throw new RuntimeException("Error reading the texture color scheme [Texture]: " + filePath);
 		}
 		
-		//Free the memory
-		stbi_image_free(image);
+		if(!mipmapped)
+		{
+			//Link the image to the texture
+			glTexImage2D(GL_TEXTURE_2D, 0, format, width, height, 0, format, GL_UNSIGNED_BYTE, image);
+			GpuResources.setBytes(Type.TEXTURE, textureID, getResidentBytes());
+			
+			//Free the memory
+			stbi_image_free(image);
+		}
+		else
+		{
+			//Generate the mip chain, the image is kept as level 0
+			generateLevels(image);
+			
+			//Nothing is on the GPU yet
+			baseLevel = levels.size();
+			streamRow = 0;
+			glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, levels.size() - 1);
+			
+			//Upload the smallest levels so that the texture is usable at once
+			streamLevels(INITIAL_STREAM_BUDGET);
+		}
+	}
+	
+	/**
+	 * Method that generates the mip chain with a 2x2 box filter
+	 * @param image The full resolution image
+	 */
+	private void generateLevels(ByteBuffer image)
+	{
+		levels = new ArrayList<ByteBuffer>();
+		levels.add(image);
+		
+		int w = width;
+		int h = height;
+		
+		//Halve the dimensions until the 1x1 level
+		while(w > 1 || h > 1)
+		{
+			ByteBuffer source = levels.get(levels.size() - 1);
+			int nw = Math.max(1, w / 2);
+			int nh = Math.max(1, h / 2);
+			ByteBuffer level = NativeMemory.alloc(nw * nh * channels);
+			
+			for(int y = 0; y < nh; y++)
+			{
+				//Source rows, clamped in case of odd dimensions
+				int y0 = Math.min(y * 2, h - 1);
+				int y1 = Math.min(y * 2 + 1, h - 1);
+				
+				for(int x = 0; x < nw; x++)
+				{
+					//Source columns
+					int x0 = Math.min(x * 2, w - 1);
+					int x1 = Math.min(x * 2 + 1, w - 1);
+					
+					//Average every channel of the four source pixels
+					for(int c = 0; c < channels; c++)
+					{
+						int sum = (source.get((y0 * w + x0) * channels + c) & 0xFF)
+								+ (source.get((y0 * w + x1) * channels + c) & 0xFF)
+								+ (source.get((y1 * w + x0) * channels + c) & 0xFF)
+								+ (source.get((y1 * w + x1) * channels + c) & 0xFF);
+						
+						level.put((y * nw + x) * channels + c, (byte) ((sum + 2) / 4));
+					}
+				}
+			}
+			
+			levels.add(level);
+			w = nw;
+			h = nh;
+		}
+	}
+	
+	/**
+	 * Method that uploads the next higher resolution levels within a budget.
+	 * A level is uploaded in rows across several calls if it doesn't fit,
+	 * and it is used by OpenGL only when completed.
+	 * @param byteBudget The maximum number of bytes to upload (at least one row is uploaded)
+	 * @return The number of uploaded bytes
+	 */
+	public int streamLevels(int byteBudget)
+	{
+		int uploaded = 0;
+		
+		//Nothing to do if the texture is not mipmapped or it is complete
+		if(isStreamed())
+		{
+			return 0;
+		}
+		
+		bind();
+		
+		//The levels rows are tightly packed
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		
+		while(baseLevel > 0 && (uploaded == 0 || uploaded < byteBudget))
+		{
+			int level = baseLevel - 1;
+			int w = getLevelWidth(level);
+			int h = getLevelHeight(level);
+			int rowBytes = w * channels;
+			
+			//In case of a new level i allocate it
+			if(streamRow == 0)
+			{
+				glTexImage2D(GL_TEXTURE_2D, level, format, w, h, 0, format, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+			}
+			
+			//Number of rows that fit in the remaining budget
+			int rows = Math.min(h - streamRow, Math.max(1, (byteBudget - uploaded) / rowBytes));
+			
+			//Select the rows in the level buffer
+			ByteBuffer slice = levels.get(level).duplicate();
+			((Buffer) slice).position(streamRow * rowBytes);
+			((Buffer) slice).limit((streamRow + rows) * rowBytes);
+			
+			glTexSubImage2D(GL_TEXTURE_2D, level, 0, streamRow, w, rows, format, GL_UNSIGNED_BYTE, slice);
+			
+			streamRow += rows;
+			uploaded += rows * rowBytes;
+			
+			//If the level is complete OpenGL can use it
+			if(streamRow == h)
+			{
+				streamRow = 0;
+				baseLevel = level;
+				glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, baseLevel);
+			}
+		}
+		
+		//Restore the default alignment
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+		
+		GpuResources.setBytes(Type.TEXTURE, textureID, getResidentBytes());
+		
+		return uploaded;
+	}
+	
+	/**
+	 * Method that releases the GPU memory of the highest resolution levels.
+	 * The smallest level is always kept and the evicted levels can be
+	 * streamed again with streamLevels.
+	 * @param count The number of levels to evict
+	 * @return The number of freed bytes
+	 */
+	public int evictLevels(int count)
+	{
+		int freed = 0;
+		
+		//Only a mipmapped texture can be evicted
+		if(levels == null || baseLevel >= levels.size())
+		{
+			return 0;
+		}
+		
+		bind();
+		
+		//A partially streamed level is dropped as well
+		if(streamRow > 0)
+		{
+			glTexImage2D(GL_TEXTURE_2D, baseLevel - 1, format, 0, 0, 0, format, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+			streamRow = 0;
+		}
+		
+		for(int i = 0; i < count && baseLevel < levels.size() - 1; i++)
+		{
+			freed += getLevelWidth(baseLevel) * getLevelHeight(baseLevel) * channels;
+			
+			//Release the level storage
+			glTexImage2D(GL_TEXTURE_2D, baseLevel, format, 0, 0, 0, format, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+			baseLevel++;
+		}
+		
+		glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, baseLevel);
+		
+		GpuResources.setBytes(Type.TEXTURE, textureID, getResidentBytes());
+		
+		return freed;
+	}
+	
+	/**
+	 * @return true if all the levels are on the GPU
+	 */
+	public boolean isStreamed() { return levels == null || baseLevel == 0; }
+	
+	/**
+	 * @return The bytes of the levels completely uploaded to the GPU
+	 */
+	public int getResidentBytes()
+	{
+		//A not mipmapped texture has only level 0
+		if(levels == null)
+		{
+			return width * height * channels;
+		}
+		
+		int bytes = 0;
+		
+		for(int level = baseLevel; level < levels.size(); level++)
+		{
+			bytes += getLevelWidth(level) * getLevelHeight(level) * channels;
+		}
+		
+		return bytes;
+	}
+	
+	/**
+	 * @param level The mip level
+	 * @return The width of the level
+	 */
+	private int getLevelWidth(int level) { return Math.max(1, width >> level); }
+	
+	/**
+	 * @param level The mip level
+	 * @return The height of the level
+	 */
+	private int getLevelHeight(int level) { return Math.max(1, height >> level); }
+	
+	/**
+	 * Method to declare a new owner of the texture
+	 */
+	public synchronized void retain() { references++; }
+	
+	/**
+	 * Method to release an owner of the texture. When the last owner
+	 * releases it the texture is cleaned.
+	 */
+	public synchronized void release()
+	{
+		references--;
+		
+		if(references <= 0)
+		{
+			references = 0;
+			clean();
+		}
 	}
 	
 	/**
@@ -139,15 +533,25 @@ public class Texture
 		//If the texture was created i delete it
 		if(textureID != 0)
 		{
-			glDeleteTextures(textureID);
+			GpuResources.delete(Type.TEXTURE, textureID);
 			//Turn the textureID to 0
 			textureID = 0;
 		}
+		
+		//Free the image kept as level 0 and the generated levels of the mip chain
+		if(levels != null)
+		{
+			stbi_image_free(levels.get(0));
+			levels.stream().skip(1).forEach((ByteBuffer level) -> NativeMemory.free(level));
+			levels = null;
+		}
 	}
 	
 	/**
 	 * Getters
 	 */
-	public int getWidth() 	{ return width; }
-	public int getHeight() 	{ return height; }
+	public int getID()			{ return textureID; }
+	public int getWidth() 		{ return width; }
+	public int getHeight() 		{ return height; }
+	public int getBaseLevel()	{ return baseLevel; }
 }
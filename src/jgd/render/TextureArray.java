@@ -0,0 +1,210 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBindTexture;
+import static jgd.trace.TracedGL.glCopyImageSubData;
+import static jgd.trace.TracedGL.glTexImage3D;
+import static jgd.trace.TracedGL.glTexParameteri;
+import static jgd.trace.TracedGL.glTexSubImage3D;
+import static org.lwjgl.opengl.GL11.GL_NEAREST;
+import static org.lwjgl.opengl.GL11.GL_REPEAT;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_RGBA8;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+import static org.lwjgl.stb.STBImage.stbi_image_free;
+import static org.lwjgl.stb.STBImage.stbi_load;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.system.MemoryStack;
+
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class represents a GL_TEXTURE_2D_ARRAY texture. Every layer is an
+ * image with the same dimensions, so a single VAO can sample many images.
+ * The layer is selected per vertex with an attribute of size 1 (e.g. addAttribute(1))
+ * that the shader passes to a sampler2DArray as third texture coordinate.
+ * When the layers are full the array is reallocated with double capacity
+ * and the old layers are copied on the GPU (OpenGL 4.3).
+ * @author Matteo Pignataro
+ */
+public class TextureArray extends Texture
+{
+	/**
+	 * Number of layers in use
+	 */
+	private int layers;
+	
+	/**
+	 * Number of allocated layers
+	 */
+	private int capacity;
+	
+	/**
+	 * Constructor
+	 * @param width The width of every layer
+	 * @param height The height of every layer
+	 * @param capacity The initial number of allocated layers
+	 */
+	public TextureArray(int width, int height, int capacity)
+	{
+		//I expect valid dimensions
+		if(width <= 0 || height <= 0)
+		{
+			throw new RuntimeException("Invalid layer dimensions [TextureArray]");
+		}
+		
+		this.width = width;
+		this.height = height;
+		this.capacity = capacity > 0 ? capacity : 1;
+		layers = 0;
+		
+		//Create the storage
+		textureID = allocate(this.capacity);
+	}
+	
+	/**
+	 * Method that creates a new texture array with the given number of layers
+	 * @param layerCount The number of layers
+	 * @return The texture ID
+	 */
+	private int allocate(int layerCount)
+	{
+		//Generate the texture with OpenGL
+		int ID = GpuResources.create(Type.TEXTURE);
+		glBindTexture(GL_TEXTURE_2D_ARRAY, ID);
+		
+		//Set the texture parameters
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_REPEAT); //Repeat in case of >1 coordinates
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_T, GL_REPEAT); //Same on the y axis
+		
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_NEAREST); //Select the nearest pixel
+		glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAG_FILTER, GL_NEAREST); //The same in expansion
+		
+		//Allocate the layers without data
+		glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, GL_RGBA8, width, height, layerCount, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		GpuResources.setBytes(Type.TEXTURE, ID, (long) width * height * 4 * layerCount);
+		
+		return ID;
+	}
+	
+	/**
+	 * Method that reallocates the array and copies the used layers
+	 * @param newCapacity The new number of layers
+	 */
+	private void grow(int newCapacity)
+	{
+		//Create the new storage
+		int newID = allocate(newCapacity);
+		
+		//Copy the old layers without passing through the CPU
+		if(layers > 0)
+		{
+			glCopyImageSubData(textureID, GL_TEXTURE_2D_ARRAY, 0, 0, 0, 0,
+							   newID, GL_TEXTURE_2D_ARRAY, 0, 0, 0, 0,
+							   width, height, layers);
+		}
+		
+		//Delete the old storage
+		GpuResources.delete(Type.TEXTURE, textureID);
+		
+		textureID = newID;
+		capacity = newCapacity;
+	}
+	
+	/**
+	 * Method that reads an image and stores it in the next free layer
+	 * @param path The image file path
+	 * @return The layer index
+	 */
+	public int addLayer(String path)
+	{
+		//Check the image exists and actually is a file
+		if(path == null || !(new File(path).isFile()))
+		{
+			throw new RuntimeException("No texture file detected [TextureArray]");
+		}
+		
+		ByteBuffer image;
+		
+		//The dimension buffers live only during the read
+		try(MemoryStack stack = MemoryStack.stackPush())
+		{
+			//Create the buffer and read the image
+			IntBuffer widthBuffer = stack.mallocInt(1);
+			IntBuffer heightBuffer = stack.mallocInt(1);
+			IntBuffer channelsBuffer = stack.mallocInt(1);
+			
+			//Read the image always as RGBA
+			image = stbi_load(path, widthBuffer, heightBuffer, channelsBuffer, 4);
+			
+			//Check if the image was read
+			if(image == null)
+			{
+				throw new RuntimeException("Error reading the texture [TextureArray]: " + path);
+			}
+			
+			//Every layer must have the same dimensions
+			if(widthBuffer.get(0) != width || heightBuffer.get(0) != height)
+			{
+				stbi_image_free(image);
+				throw new RuntimeException("Layer dimensions different from the array ones [TextureArray]: " + path);
+			}
+		}
+		
+		//Make space if needed
+		if(layers == capacity)
+		{
+			grow(capacity * 2);
+		}
+		
+		//Upload the image in the layer
+		bind();
+		glTexSubImage3D(GL_TEXTURE_2D_ARRAY, 0, 0, 0, layers, width, height, 1, GL_RGBA, GL_UNSIGNED_BYTE, image);
+		
+		//Free the memory
+		stbi_image_free(image);
+		
+		return layers++;
+	}
+	
+	/**
+	 * A texture array keeps its dimensions
+	 */
+	@Override
+	public void resize(int width, int height)
+	{
+		throw new RuntimeException("Texture array can't be resized [TextureArray]");
+	}
+	
+	/**
+	 * @return The bytes of all the allocated layers
+	 */
+	@Override
+	public int getResidentBytes() { return width * height * 4 * capacity; }
+	
+	/**
+	 * Binding method
+	 */
+	@Override
+	public void bind() { glBindTexture(GL_TEXTURE_2D_ARRAY, textureID); }
+	
+	/**
+	 * Unbinding method
+	 */
+	@Override
+	public void unbind() { glBindTexture(GL_TEXTURE_2D_ARRAY, 0); }
+	
+	/**
+	 * Getters
+	 */
+	public int getLayerCount()	{ return layers; }
+	public int getCapacity()	{ return capacity; }
+}
@@ -0,0 +1,118 @@
+package jgd.render;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * This class shares a per frame upload budget between the mipmapped textures.
+ * The textures with the least detail on the GPU are streamed first.
+ * @author Matteo Pignataro
+ */
+public class TextureStreamer
+{
+	/**
+	 * Bytes that can be uploaded every frame
+	 */
+	private int frameBudget;
+	
+	/**
+	 * Textures under management
+	 */
+	private List<Texture> textures;
+	
+	/**
+	 * Constructor
+	 * @param frameBudget The number of bytes that can be uploaded every frame
+	 */
+	public TextureStreamer(int frameBudget)
+	{
+		this.frameBudget = frameBudget > 0 ? frameBudget : 1;
+		
+		//Instance the textures list
+		textures = new ArrayList<Texture>();
+	}
+	
+	/**
+	 * Add the texture to the streamed textures
+	 * @param t The mipmapped texture
+	 */
+	public void addTexture(Texture t)
+	{
+		//I add it if its not already present
+		if(!textures.contains(t))
+		{
+			textures.add(t);
+		}
+	}
+	
+	/**
+	 * Remove the texture from the streamed textures
+	 * @param t The texture
+	 */
+	public void removeTexture(Texture t) { textures.remove(t); }
+	
+	/**
+	 * Method to call once per frame. It uploads the missing levels within the budget.
+	 * @return The number of uploaded bytes
+	 */
+	public int update()
+	{
+		int uploaded = 0;
+		
+		//The least detailed textures first
+		textures.sort(Comparator.comparingInt((Texture t) -> t.getBaseLevel()).reversed());
+		
+		for(int i = 0; i < textures.size() && uploaded < frameBudget; i++)
+		{
+			uploaded += textures.get(i).streamLevels(frameBudget - uploaded);
+		}
+		
+		return uploaded;
+	}
+	
+	/**
+	 * Method to call under memory pressure. It evicts the top level of
+	 * the biggest textures that still have levels to drop until the requested memory is freed.
+	 * @param bytes The number of bytes to free
+	 * @return The number of freed bytes
+	 */
+	public int evict(int bytes)
+	{
+		int freed = 0;
+		int lastFreed = -1;
+		
+		//Continue until the request is satisfied or nothing can be evicted anymore
+		while(freed < bytes && lastFreed != 0)
+		{
+			//The biggest texture first
+			textures.sort(Comparator.comparingInt((Texture t) -> t.getResidentBytes()).reversed());
+			
+			lastFreed = 0;
+			
+			//The textures that cannot be trimmed (no mipmaps or last level) are skipped
+			for(int i = 0; i < textures.size() && lastFreed == 0; i++)
+			{
+				lastFreed = textures.get(i).evictLevels(1);
+			}
+			
+			freed += lastFreed;
+		}
+		
+		return freed;
+	}
+	
+	/**
+	 * @return true if all the textures are completely on the GPU
+	 */
+	public boolean isStreamed()
+	{
+		return textures.stream().allMatch((Texture t) -> t.isStreamed());
+	}
+	
+	/**
+	 * Getters and setters
+	 */
+	public int getFrameBudget() 			{ return frameBudget; }
+	public void setFrameBudget(int budget) 	{ frameBudget = budget > 0 ? budget : 1; }
+}
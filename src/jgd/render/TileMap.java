@@ -0,0 +1,557 @@
+package jgd.render;
+
+import static jgd.trace.TracedGL.glBindBuffer;
+import static jgd.trace.TracedGL.glBindVertexArray;
+import static jgd.trace.TracedGL.glBufferData;
+import static jgd.trace.TracedGL.glDrawElements;
+import static jgd.trace.TracedGL.glEnableVertexAttribArray;
+import static jgd.trace.TracedGL.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class represents a big tile map split in square chunks.
+ * Every chunk has its own static VBO and EBO that are created only when the chunk
+ * intersects the camera view, rebuilt only when one of its tiles changes and
+ * deleted when the chunk stays out of the view for a while.
+ * The tiles are indices in a tileset texture divided in a grid, -1 is an empty tile.
+ * Every vertex has the world position in pixels (vec2) at location 0 and the texture
+ * coordinates (vec2) at location 1. The shader receives the uniform vec4 "camera"
+ * = (cameraX, cameraY, 2 / viewWidth, 2 / viewHeight) and computes the position as
+ * vec2((pos.x - camera.x) * camera.z - 1, 1 - (pos.y - camera.y) * camera.w).
+ * @author Matteo Pignataro
+ */
+public class TileMap
+{
+	/**
+	 * Floats per vertex (position and texture coordinates)
+	 */
+	private static final int VERTEX_SIZE = 4;
+	
+	/**
+	 * Frames out of the view before a chunk is deleted
+	 */
+	private static final int DEFAULT_EVICTION_FRAMES = 300;
+	
+	/**
+	 * Shader assigned to the map
+	 */
+	private Shader shader;
+	
+	/**
+	 * Tileset texture
+	 */
+	private Texture tileset;
+	
+	/**
+	 * Tiles of the whole map (row major)
+	 */
+	private int[] tiles;
+	
+	/**
+	 * Map width in tiles
+	 */
+	private int mapWidth;
+	
+	/**
+	 * Map height in tiles
+	 */
+	private int mapHeight;
+	
+	/**
+	 * Tile size in pixels
+	 */
+	private int tileSize;
+	
+	/**
+	 * Chunk side in tiles
+	 */
+	private int chunkSize;
+	
+	/**
+	 * Tileset grid columns
+	 */
+	private int tilesetColumns;
+	
+	/**
+	 * Tileset grid rows
+	 */
+	private int tilesetRows;
+	
+	/**
+	 * Chunks grid (row major), created lazily
+	 */
+	private Chunk[] chunks;
+	
+	/**
+	 * Chunks that currently own GPU buffers
+	 */
+	private List<Chunk> allocated;
+	
+	/**
+	 * Number of chunks per row
+	 */
+	private int chunksX;
+	
+	/**
+	 * Number of chunks per column
+	 */
+	private int chunksY;
+	
+	/**
+	 * Camera position in pixels (top left corner of the view)
+	 */
+	private float cameraX;
+	private float cameraY;
+	
+	/**
+	 * View dimensions in pixels
+	 */
+	private int viewWidth;
+	private int viewHeight;
+	
+	/**
+	 * Frames out of the view before a chunk is deleted
+	 */
+	private int evictionFrames;
+	
+	/**
+	 * Frame counter
+	 */
+	private long frame;
+	
+	/**
+	 * Constructor
+	 * @param shader The shader that draws the tiles
+	 * @param tileset The tileset texture
+	 * @param mapWidth The map width in tiles
+	 * @param mapHeight The map height in tiles
+	 * @param tileSize The tile size in pixels
+	 * @param chunkSize The chunk side in tiles
+	 * @param tilesetColumns The number of tiles per row in the tileset
+	 * @param tilesetRows The number of tiles per column in the tileset
+	 */
+	public TileMap(Shader shader, Texture tileset, int mapWidth, int mapHeight, int tileSize,
+				   int chunkSize, int tilesetColumns, int tilesetRows)
+	{
+		//I expect the shader not null
+		if(shader == null)
+		{
+			throw new NullPointerException("Error shader null pointer [TileMap]");
+		}
+		
+		//I expect valid dimensions
+		if(mapWidth <= 0 || mapHeight <= 0 || tileSize <= 0 || chunkSize <= 0 || tilesetColumns <= 0 || tilesetRows <= 0)
+		{
+			throw new RuntimeException("Invalid map dimensions [TileMap]");
+		}
+		
+		this.shader = shader;
+		this.tileset = tileset;
+		
+		//The map is an owner of the shader and of the tileset
+		shader.retain();
+		
+		if(tileset != null)
+		{
+			tileset.retain();
+		}
+		this.mapWidth = mapWidth;
+		this.mapHeight = mapHeight;
+		this.tileSize = tileSize;
+		this.chunkSize = chunkSize;
+		this.tilesetColumns = tilesetColumns;
+		this.tilesetRows = tilesetRows;
+		
+		//All the tiles are empty
+		tiles = new int[mapWidth * mapHeight];
+		Arrays.fill(tiles, -1);
+		
+		//Create the chunks grid
+		chunksX = (mapWidth + chunkSize - 1) / chunkSize;
+		chunksY = (mapHeight + chunkSize - 1) / chunkSize;
+		chunks = new Chunk[chunksX * chunksY];
+		allocated = new ArrayList<Chunk>();
+		
+		evictionFrames = DEFAULT_EVICTION_FRAMES;
+		frame = 0;
+	}
+	
+	/**
+	 * Method to change a tile. Only its chunk will be rebuilt.
+	 * @param x The tile column
+	 * @param y The tile row
+	 * @param tile The tileset index, -1 for an empty tile
+	 */
+	public void setTile(int x, int y, int tile)
+	{
+		//Out of the map
+		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+		{
+			return;
+		}
+		
+		if(tiles[y * mapWidth + x] != tile)
+		{
+			tiles[y * mapWidth + x] = tile;
+			
+			//Mark the chunk in case it exists
+			Chunk c = chunks[(y / chunkSize) * chunksX + x / chunkSize];
+			
+			if(c != null)
+			{
+				c.dirty = true;
+			}
+		}
+	}
+	
+	/**
+	 * @param x The tile column
+	 * @param y The tile row
+	 * @return The tileset index, -1 for an empty or out of map tile
+	 */
+	public int getTile(int x, int y)
+	{
+		if(x < 0 || y < 0 || x >= mapWidth || y >= mapHeight)
+		{
+			return -1;
+		}
+		
+		return tiles[y * mapWidth + x];
+	}
+	
+	/**
+	 * Method to move the camera
+	 * @param x The world x coordinate of the top left corner of the view
+	 * @param y The world y coordinate of the top left corner of the view
+	 */
+	public void setCamera(float x, float y)
+	{
+		cameraX = x;
+		cameraY = y;
+	}
+	
+	/**
+	 * Callback method called when the window size is changed
+	 * @param width The new width
+	 * @param height The new height
+	 */
+	public void updateWindowSize(int width, int height)
+	{
+		viewWidth = width;
+		viewHeight = height;
+	}
+	
+	/**
+	 * Method to draw the chunks that intersect the view.
+	 * The invisible chunks are deleted after some frames.
+	 */
+	public void draw()
+	{
+		frame++;
+		
+		//Nothing is visible
+		if(viewWidth <= 0 || viewHeight <= 0)
+		{
+			return;
+		}
+		
+		//Range of the visible chunks
+		int chunkPixels = chunkSize * tileSize;
+		int firstX = Math.max(0, (int) Math.floor(cameraX / chunkPixels));
+		int firstY = Math.max(0, (int) Math.floor(cameraY / chunkPixels));
+		int lastX = Math.min(chunksX - 1, (int) Math.floor((cameraX + viewWidth) / chunkPixels));
+		int lastY = Math.min(chunksY - 1, (int) Math.floor((cameraY + viewHeight) / chunkPixels));
+		
+		//Bind the shader and pass the camera
+		shader.setUniform("camera", cameraX, cameraY, 2.0f / viewWidth, 2.0f / viewHeight);
+		
+		//Bind the texture in case not null
+		if(tileset != null)
+		{
+			tileset.bind();
+		}
+		
+		for(int cy = firstY; cy <= lastY; cy++)
+		{
+			for(int cx = firstX; cx <= lastX; cx++)
+			{
+				Chunk c = chunks[cy * chunksX + cx];
+				
+				//Create the chunk the first time it is visible
+				if(c == null)
+				{
+					c = new Chunk(cx, cy);
+					chunks[cy * chunksX + cx] = c;
+				}
+				
+				//Allocate the buffers if they were never created or evicted
+				if(c.vaoID == 0)
+				{
+					c.allocate();
+					allocated.add(c);
+				}
+				
+				//Rebuild only the changed chunks
+				if(c.dirty)
+				{
+					build(c);
+				}
+				
+				c.lastVisibleFrame = frame;
+				
+				//Draw the chunk
+				if(c.indexCount > 0)
+				{
+					glBindVertexArray(c.vaoID);
+					glDrawElements(GL_TRIANGLES, c.indexCount, GL_UNSIGNED_INT, 0);
+				}
+			}
+		}
+		
+		//Unbind
+		glBindVertexArray(0);
+		shader.unbind();
+		
+		if(tileset != null)
+		{
+			tileset.unbind();
+		}
+		
+		//Delete the chunks that have not been visible for a while
+		allocated.removeIf((Chunk c) ->
+		{
+			if(frame - c.lastVisibleFrame > evictionFrames)
+			{
+				c.delete();
+				return true;
+			}
+			
+			return false;
+		});
+	}
+	
+	/**
+	 * Method that writes the chunk tiles in its buffers
+	 * @param c The chunk to build
+	 */
+	private void build(Chunk c)
+	{
+		//Chunk range in tiles
+		int startX = c.x * chunkSize;
+		int startY = c.y * chunkSize;
+		int endX = Math.min(startX + chunkSize, mapWidth);
+		int endY = Math.min(startY + chunkSize, mapHeight);
+		
+		//Count the non empty tiles
+		int count = 0;
+		
+		for(int y = startY; y < endY; y++)
+		{
+			for(int x = startX; x < endX; x++)
+			{
+				if(tiles[y * mapWidth + x] >= 0)
+				{
+					count++;
+				}
+			}
+		}
+		
+		//Create the buffers
+		FloatBuffer vertices = NativeMemory.allocFloat(Math.max(1, count * 4 * VERTEX_SIZE));
+		IntBuffer elements = NativeMemory.allocInt(Math.max(1, count * 6));
+		
+		//Tileset cell dimensions in texture coordinates
+		float cellW = 1.0f / tilesetColumns;
+		float cellH = 1.0f / tilesetRows;
+		int vertex = 0;
+		
+		for(int y = startY; y < endY; y++)
+		{
+			for(int x = startX; x < endX; x++)
+			{
+				int tile = tiles[y * mapWidth + x];
+				
+				if(tile < 0)
+				{
+					continue;
+				}
+				
+				//Tile corners in pixels and in the tileset
+				float left = x * tileSize;
+				float top = y * tileSize;
+				float u = (tile % tilesetColumns) * cellW;
+				float v = ((tile / tilesetColumns) % tilesetRows) * cellH;
+				
+				vertices.put(left).put(top).put(u).put(v);
+				vertices.put(left + tileSize).put(top).put(u + cellW).put(v);
+				vertices.put(left + tileSize).put(top + tileSize).put(u + cellW).put(v + cellH);
+				vertices.put(left).put(top + tileSize).put(u).put(v + cellH);
+				
+				//Two triangles per tile
+				elements.put(vertex).put(vertex + 1).put(vertex + 2);
+				elements.put(vertex + 2).put(vertex + 3).put(vertex);
+				
+				vertex += 4;
+			}
+		}
+		
+		((Buffer) vertices).flip();
+		((Buffer) elements).flip();
+		
+		//Replace the whole buffers, a chunk is small
+		glBindVertexArray(c.vaoID);
+		glBindBuffer(GL_ARRAY_BUFFER, c.vboID);
+		glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, c.eboID);
+		glBufferData(GL_ELEMENT_ARRAY_BUFFER, elements, GL_STATIC_DRAW);
+		GpuResources.setBytes(Type.BUFFER, c.vboID, (long) vertices.capacity() * Float.BYTES);
+		GpuResources.setBytes(Type.BUFFER, c.eboID, (long) elements.capacity() * Integer.BYTES);
+		
+		//The data is on the GPU
+		NativeMemory.free(vertices);
+		NativeMemory.free(elements);
+		
+		c.indexCount = count * 6;
+		c.dirty = false;
+	}
+	
+	/**
+	 * Clean method
+	 */
+	public void clean()
+	{
+		//Delete all the allocated chunks
+		allocated.stream().forEach((Chunk c) -> c.delete());
+		allocated.clear();
+		
+		//Release the shader and the tileset
+		if(shader != null)
+		{
+			shader.release();
+			shader = null;
+			
+			if(tileset != null)
+			{
+				tileset.release();
+			}
+		}
+	}
+	
+	/**
+	 * Getters and setters
+	 */
+	public int getMapWidth()					{ return mapWidth; }
+	public int getMapHeight()					{ return mapHeight; }
+	public int getTileSize()					{ return tileSize; }
+	public int getAllocatedChunks()				{ return allocated.size(); }
+	public int getEvictionFrames()				{ return evictionFrames; }
+	public void setEvictionFrames(int frames)	{ evictionFrames = frames > 0 ? frames : 1; }
+	
+	/**
+	 * Square group of tiles with its own buffers
+	 */
+	private static class Chunk
+	{
+		/**
+		 * Chunk position in the chunks grid
+		 */
+		private final int x;
+		private final int y;
+		
+		/**
+		 * vaoID, 0 if the chunk has no buffers
+		 */
+		private int vaoID;
+		
+		/**
+		 * vboID
+		 */
+		private int vboID;
+		
+		/**
+		 * eboID
+		 */
+		private int eboID;
+		
+		/**
+		 * Number of indices to draw
+		 */
+		private int indexCount;
+		
+		/**
+		 * Boolean that represents if the buffers must be rebuilt
+		 */
+		private boolean dirty;
+		
+		/**
+		 * Last frame in which the chunk was visible
+		 */
+		private long lastVisibleFrame;
+		
+		/**
+		 * Constructor
+		 * @param x The chunk column
+		 * @param y The chunk row
+		 */
+		private Chunk(int x, int y)
+		{
+			this.x = x;
+			this.y = y;
+		}
+		
+		/**
+		 * Method that creates the buffers and sets the vertex layout
+		 */
+		private void allocate()
+		{
+			//Create the VAO, VBO and EBO buffers
+			vaoID = GpuResources.create(Type.VERTEX_ARRAY);
+			vboID = GpuResources.create(Type.BUFFER);
+			eboID = GpuResources.create(Type.BUFFER);
+			
+			glBindVertexArray(vaoID);
+			glBindBuffer(GL_ARRAY_BUFFER, vboID);
+			
+			//Position and texture coordinates
+			glVertexAttribPointer(0, 2, GL_FLOAT, false, VERTEX_SIZE * Float.BYTES, 0);
+			glEnableVertexAttribArray(0);
+			glVertexAttribPointer(1, 2, GL_FLOAT, false, VERTEX_SIZE * Float.BYTES, 2 * Float.BYTES);
+			glEnableVertexAttribArray(1);
+			
+			glBindVertexArray(0);
+			
+			//The buffers must be filled
+			dirty = true;
+		}
+		
+		/**
+		 * Method that deletes the buffers
+		 */
+		private void delete()
+		{
+			GpuResources.delete(Type.VERTEX_ARRAY, vaoID);
+			GpuResources.delete(Type.BUFFER, vboID);
+			GpuResources.delete(Type.BUFFER, eboID);
+			
+			vaoID = 0;
+			vboID = 0;
+			eboID = 0;
+			indexCount = 0;
+		}
+	}
+}
@@ -1,31 +1,40 @@
 package jgd.render;
 
+import static jgd.trace.TracedGL.glActiveTexture;
+import static jgd.trace.TracedGL.glBindBuffer;
+import static jgd.trace.TracedGL.glBindTexture;
+import static jgd.trace.TracedGL.glBindVertexArray;
+import static jgd.trace.TracedGL.glBufferData;
+import static jgd.trace.TracedGL.glBufferSubData;
+import static jgd.trace.TracedGL.glDisableVertexAttribArray;
+import static jgd.trace.TracedGL.glDrawElements;
+import static jgd.trace.TracedGL.glEnableVertexAttribArray;
+import static jgd.trace.TracedGL.glTexBuffer;
+import static jgd.trace.TracedGL.glVertexAttribIPointer;
+import static jgd.trace.TracedGL.glVertexAttribPointer;
 import static org.lwjgl.opengl.GL11.GL_FLOAT;
+import static org.lwjgl.opengl.GL11.GL_INT;
 import static org.lwjgl.opengl.GL11.GL_TRIANGLES;
 import static org.lwjgl.opengl.GL11.GL_UNSIGNED_INT;
-import static org.lwjgl.opengl.GL11.glDrawElements;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_SHORT;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE1;
 import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
 import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
 import static org.lwjgl.opengl.GL15.GL_STATIC_DRAW;
 import static org.lwjgl.opengl.GL15.GL_STREAM_DRAW;
-import static org.lwjgl.opengl.GL15.glBindBuffer;
-import static org.lwjgl.opengl.GL15.glBufferData;
-import static org.lwjgl.opengl.GL15.glBufferSubData;
-import static org.lwjgl.opengl.GL15.glGenBuffers;
-import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
-import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
-import static org.lwjgl.opengl.GL30.glBindVertexArray;
-import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
-import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL30.GL_RGBA32F;
+import static org.lwjgl.opengl.GL31.GL_TEXTURE_BUFFER;
 
 import java.nio.Buffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.lwjgl.BufferUtils;
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources.Type;
 
 /**
  * This class represents a VAO. A VAO is composed of a VBO and an EBO.
@@ -36,6 +45,20 @@ import org.lwjgl.BufferUtils;
  * They both have fixed dimensions so after the first draw it will be
  * impossible to add another element. It will be possible though to modify
  * the already registered elements but not their vertices number.
+ * With the transforms enabled every element gets a slot in a transform buffer
+ * (texture buffer of two RGBA32F texels per element) bound to the texture unit 1
+ * as the uniform samplerBuffer "transforms". The first texel contains translation x,
+ * translation y, rotation and scale, the second one the texture coordinates offset.
+ * The slot of every vertex is passed as an int attribute after the user attributes,
+ * so moving an element uploads 32 bytes instead of its vertices.
+ * With the optimization enabled the elements are welded and reordered for the vertex
+ * cache by the MeshOptimizer when the buffers are allocated. It is meant for the content
+ * that rarely changes: an updated element is optimized again, so its vertices can change
+ * values but the number of distinct vertices must stay the same, because the element space
+ * in the buffers is fixed. The indices are 16 bit when the vertices allow it.
+ * With the depth enabled the depth of every element is passed as a float attribute after
+ * the user attributes (and after the transform slot), the vertex shader is expected to
+ * write it as gl_Position.z = depth * 2.0 - 1.0 so the depth test layers the elements.
  * @author Matteo Pignataro
  */
 public class VAO 
@@ -85,11 +108,99 @@ public class VAO
 	 */
 	private List<DrawableElement> elements;
 	
+	/**
+	 * Floats per transform in the transform buffer
+	 */
+	private static final int TRANSFORM_SIZE = 8;
+	
+	/**
+	 * Boolean that represents if the elements transforms are used
+	 */
+	private boolean transforms;
+	
+	/**
+	 * Buffer of the vertex transform slots
+	 */
+	private int transformIndexID;
+	
+	/**
+	 * Buffer of the transforms
+	 */
+	private int transformBufferID;
+	
+	/**
+	 * Texture that exposes the transform buffer to the shader
+	 */
+	private int transformTextureID;
+	
+	/**
+	 * Copy of the transform buffer, used to upload the changed ranges
+	 */
+	private FloatBuffer transformData;
+	
+	/**
+	 * Reusable native buffers used to upload one element at a time
+	 */
+	private FloatBuffer vertexScratch;
+	private IntBuffer elementScratch;
+	private ShortBuffer shortScratch;
+	
+	/**
+	 * Boolean that represents if the elements are optimized
+	 */
+	private boolean optimized;
+	
+	/**
+	 * Optimized mesh of every element, null if the optimization is disabled
+	 */
+	private List<MeshOptimizer.Mesh> meshes;
+	
+	/**
+	 * Reusable array where the optimized vertices are gathered
+	 */
+	private float[] gatherScratch;
+	
+	/**
+	 * Index type of the ebo (GL_UNSIGNED_SHORT or GL_UNSIGNED_INT)
+	 */
+	private int indexType;
+	
+	/**
+	 * Boolean that represents if the elements depth is used
+	 */
+	private boolean depth;
+	
+	/**
+	 * Boolean that represents if the elements are translucent, so drawn back to front
+	 */
+	private boolean translucent;
+	
+	/**
+	 * Buffer of the vertex depths
+	 */
+	private int depthBufferID;
+	
+	/**
+	 * Reusable native buffer used to upload the depth of one element at a time
+	 */
+	private FloatBuffer depthScratch;
+	
+	/**
+	 * Bounds (minX, minY, maxX, maxY) of every element in normalized device coordinates,
+	 * used by the partial redraw. Null until the first collect
+	 */
+	private float[] bounds;
+	
 	/**
 	 * Boolean that represents if the VAO has already been drawn
 	 */
 	private boolean drawn;
 	
+	/**
+	 * Boolean that represents if the buffers are owned by a batch, so the VAO cannot be drawn alone
+	 */
+	private boolean locked;
+	
 	/**
 	 * Constructor
 	 * @param shader The shader that the user wants to execute
@@ -106,12 +217,14 @@ public class VAO
 		{
 			//Immutable class
 			this.shader = shader;
+			//The VAO is an owner of the shader
+			shader.retain();
 		}
 		
 		//Create the VAO, VBO and EBO buffers
-		vaoID = glGenVertexArrays();
-		vboID = glGenBuffers();
-		eboID = glGenBuffers();
+		vaoID = GpuResources.create(Type.VERTEX_ARRAY);
+		vboID = GpuResources.create(Type.BUFFER);
+		eboID = GpuResources.create(Type.BUFFER);
 		
 		//Set the vertex and the element indices at 0
 		vertexSize 	= 0;
@@ -125,9 +238,16 @@ public class VAO
 		
 		//The VAO has not been drawn
 		drawn = false;
+		indexType = GL_UNSIGNED_INT;
 		
 		//This is optional
 		this.texture = texture;
+		
+		//The VAO is an owner of the texture
+		if(texture != null)
+		{
+			texture.retain();
+		}
 	}
 	
 	/**
@@ -156,18 +276,36 @@ public class VAO
 	 */
 	public void draw()
 	{
+		//A batched VAO has no storage and its updated flags belong to the batch
+		if(locked)
+		{
+			throw new RuntimeException("VAO drawn by a batch [VAO]");
+		}
+		
 		//First of all we bind the VAO
 		bind();
 		
 		//In case of the first call i allocate the buffers
 		if(!drawn)
 		{
+			//Optimize the elements, the sizes can change
+			prepare();
+			
+			//Use 16 bit indices if every vertex can be addressed
+			if(vertexSize / Math.max(1, getStride()) <= 0x10000)
+			{
+				indexType = GL_UNSIGNED_SHORT;
+			}
+			
+			int indexBytes = indexType == GL_UNSIGNED_SHORT ? Short.BYTES : Integer.BYTES;
+			
 			//Bind the VBO
 			glBindBuffer(GL_ARRAY_BUFFER, vboID);
 			
 			//Put a new buffer with the correct dimensions in the vbo
 			//I use stream_draw because it is usal to change some parameters
-			glBufferData(GL_ARRAY_BUFFER, BufferUtils.createFloatBuffer(vertexSize), GL_STREAM_DRAW);
+			glBufferData(GL_ARRAY_BUFFER, (long) vertexSize * Float.BYTES, GL_STREAM_DRAW);
+			GpuResources.setBytes(Type.BUFFER, vboID, (long) vertexSize * Float.BYTES);
 			
 			//Bind the EBO
 			glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboID);
@@ -175,99 +313,634 @@ public class VAO
 			//Put a new buffer with the correct dimensions in the ebo
 			//I use static_draw because it is difficult that the triangle
 			//draw order is changed
-			glBufferData(GL_ELEMENT_ARRAY_BUFFER, BufferUtils.createIntBuffer(elementSize), GL_STATIC_DRAW);
+			glBufferData(GL_ELEMENT_ARRAY_BUFFER, (long) elementSize * indexBytes, GL_STATIC_DRAW);
+			GpuResources.setBytes(Type.BUFFER, eboID, (long) elementSize * indexBytes);
+			
+			//Create the transform buffers if needed
+			if(transforms)
+			{
+				allocateTransforms();
+			}
+			
+			//Create the depth buffer if needed
+			if(depth)
+			{
+				depthBufferID = GpuResources.create(Type.BUFFER);
+				glBindBuffer(GL_ARRAY_BUFFER, depthBufferID);
+				glBufferData(GL_ARRAY_BUFFER, (long) vertexSize / Math.max(1, getStride()) * Float.BYTES, GL_STREAM_DRAW);
+				GpuResources.setBytes(Type.BUFFER, depthBufferID, (long) vertexSize / Math.max(1, getStride()) * Float.BYTES);
+			}
 			
 			//I invalidate the addElement function
 			drawn = true;
 		}
 		
+		//Sum of attributes per vertex
+		int sumAttributes = getStride();
+		
+		//Update the changed elements in the buffers
+		upload(vboID, eboID, 0, 0);
+		
+		//Bind the VBO
+		glBindBuffer(GL_ARRAY_BUFFER, vboID);
+		
+		//Partial sum of attributes. It is used to indicate the offset
+		int partialSum = 0;
+		
+		//For all attributes i create the attribute pointer
+		for(int i = 0; i < attributes.size(); i++)
+		{
+			//Create the attribute pointer
+			glVertexAttribPointer(i, attributes.get(i).intValue(), GL_FLOAT, false, sumAttributes * Float.BYTES, partialSum * Float.BYTES);
+			
+			//Enable the vertex attribute pointer
+			glEnableVertexAttribArray(i);
+			
+			//Increment the partial sum
+			partialSum += attributes.get(i);
+		}
+		
+		//Upload the changed transforms and bind them
+		if(transforms)
+		{
+			uploadTransforms();
+			
+			//The transform slot attribute follows the user ones
+			glBindBuffer(GL_ARRAY_BUFFER, transformIndexID);
+			glVertexAttribIPointer(attributes.size(), 1, GL_INT, 0, 0);
+			glEnableVertexAttribArray(attributes.size());
+			
+			glActiveTexture(GL_TEXTURE1);
+			glBindTexture(GL_TEXTURE_BUFFER, transformTextureID);
+			glActiveTexture(GL_TEXTURE0);
+			shader.setUniform("transforms", 1);
+		}
+		
+		//Upload the changed depths and bind them
+		if(depth)
+		{
+			uploadDepth(depthBufferID, 0);
+			
+			glBindBuffer(GL_ARRAY_BUFFER, depthBufferID);
+			glVertexAttribPointer(getDepthLocation(), 1, GL_FLOAT, false, 0, 0);
+			glEnableVertexAttribArray(getDepthLocation());
+		}
+		
+		//Draw the VAO
+		glDrawElements(GL_TRIANGLES, elementSize, indexType, 0);
+		
+		//Bind the VBO
+		glBindBuffer(GL_ARRAY_BUFFER, vboID);
+		
+		//Disable all the attrinutes pointers
+		for(int i = 0; i < attributes.size(); i++)
+		{
+			glDisableVertexAttribArray(i);
+		}
+		
+		//Disable the transform slot attribute
+		if(transforms)
+		{
+			glDisableVertexAttribArray(attributes.size());
+		}
+		
+		//Disable the depth attribute
+		if(depth)
+		{
+			glDisableVertexAttribArray(getDepthLocation());
+		}
+		
+		//Unbind
+		unbind();
+	}
+	
+	/**
+	 * Method to enable the elements transforms BEFORE the first draw method call
+	 */
+	public void enableTransforms()
+	{
+		if(!drawn)
+		{
+			transforms = true;
+		}
+	}
+	
+	/**
+	 * Method to enable the elements depth BEFORE the first draw method call
+	 */
+	public void enableDepth()
+	{
+		if(!drawn)
+		{
+			depth = true;
+		}
+	}
+	
+	/**
+	 * Method to mark the VAO as translucent: with the depth layering it is drawn after
+	 * the opaque content, back to front and without writing the depth.
+	 * Its elements are drawn in their order, so they should be added back to front.
+	 * @param translucent The new translucent status
+	 */
+	public void setTranslucent(boolean translucent) { this.translucent = translucent; }
+	
+	/**
+	 * @return true if the VAO is translucent
+	 */
+	public boolean isTranslucent() { return translucent; }
+	
+	/**
+	 * @return The farthest depth of the elements, used to sort the translucent VAOs
+	 */
+	public float getSortDepth()
+	{
+		float max = 0;
+		
+		for(DrawableElement e : elements)
+		{
+			max = Math.max(max, e.getDepth());
+		}
+		
+		return max;
+	}
+	
+	/**
+	 * Method that gives the draw order depth to the elements without an explicit depth
+	 * @param position The draw order position of the first element
+	 * @param step The depth distance between two consecutive positions
+	 * @return The position after the last element
+	 */
+	int assignOrderDepth(int position, float step)
+	{
+		//The later elements are nearer
+		for(DrawableElement e : elements)
+		{
+			e.setOrderDepth(1 - ++position * step);
+		}
+		
+		return position;
+	}
+	
+	/**
+	 * Method that writes the depth of the changed elements in the given buffer
+	 * @param buffer The depth buffer
+	 * @param vertexOffset The position (in vertices) of the first vertex of this VAO in the buffer
+	 */
+	void uploadDepth(int buffer, int vertexOffset)
+	{
+		int sumAttributes = getStride();
+		int vertexIndex = 0;
+		
+		//The scratch buffer is as big as the biggest element
+		if(depthScratch == null)
+		{
+			int maxVertices = 1;
+			
+			for(int i = 0; i < elements.size(); i++)
+			{
+				maxVertices = Math.max(maxVertices, getVerticesSize(i) / sumAttributes);
+			}
+			
+			depthScratch = NativeMemory.allocFloat(maxVertices);
+		}
+		
+		for(int i = 0; i < elements.size(); i++)
+		{
+			DrawableElement e = elements.get(i);
+			int count = getVerticesSize(i) / sumAttributes;
+			
+			if(e.isDepthUpdated())
+			{
+				//Every vertex of the element has its depth
+				((Buffer) depthScratch).clear();
+				
+				for(int j = 0; j < count; j++)
+				{
+					depthScratch.put(e.getDepth());
+				}
+				
+				((Buffer) depthScratch).flip();
+				
+				glBindBuffer(GL_ARRAY_BUFFER, buffer);
+				glBufferSubData(GL_ARRAY_BUFFER, (long) (vertexOffset + vertexIndex) * Float.BYTES, depthScratch);
+				
+				e.toggleDepthUpdate();
+			}
+			
+			vertexIndex += count;
+		}
+	}
+	
+	/**
+	 * @return The location of the depth attribute
+	 */
+	int getDepthLocation() { return attributes.size() + (transforms ? 1 : 0); }
+	
+	/**
+	 * Method to enable the elements optimization BEFORE the first draw method call.
+	 * An updated element is optimized again at the upload and it must keep its number of distinct vertices.
+	 */
+	public void enableOptimization()
+	{
+		if(!drawn)
+		{
+			optimized = true;
+		}
+	}
+	
+	/**
+	 * Method that optimizes the elements if enabled and updates the VAO sizes.
+	 * It is called once, when the elements can no longer be added.
+	 */
+	private void prepare()
+	{
+		if(!optimized || meshes != null)
+		{
+			return;
+		}
+		
+		int sumAttributes = getStride();
+		
+		meshes = new ArrayList<MeshOptimizer.Mesh>();
+		vertexSize = 0;
+		elementSize = 0;
+		
+		for(DrawableElement e : elements)
+		{
+			MeshOptimizer.Mesh m = MeshOptimizer.optimize(e.getVertices(), e.getVerticesSize(), e.getElements(), e.getElementsSize(), sumAttributes);
+			
+			meshes.add(m);
+			vertexSize += m.getVerticesSize();
+			elementSize += m.getElementsSize();
+		}
+		
+		gatherScratch = new float[Math.max(1, meshes.stream().mapToInt((MeshOptimizer.Mesh m) -> m.getVerticesSize()).max().orElse(1))];
+	}
+	
+	/**
+	 * Method that optimizes again an updated element, because the vertices welded
+	 * by the previous optimization could be different now
+	 * @param i The element index
+	 */
+	private void reoptimize(int i)
+	{
+		DrawableElement e = elements.get(i);
+		MeshOptimizer.Mesh m = MeshOptimizer.optimize(e.getVertices(), e.getVerticesSize(), e.getElements(), e.getElementsSize(), getStride());
+		
+		//The element space in the buffers cannot change
+		if(m.getVerticesSize() != getVerticesSize(i) || m.getElementsSize() != getElementsSize(i))
+		{
+			throw new RuntimeException("Optimized element changed its number of distinct vertices [VAO]");
+		}
+		
+		meshes.set(i, m);
+	}
+	
+	/**
+	 * @return The floats of the i-th element in the vbo
+	 */
+	private int getVerticesSize(int i)
+	{
+		return meshes != null ? meshes.get(i).getVerticesSize() : elements.get(i).getVerticesSize();
+	}
+	
+	/**
+	 * @return The indices of the i-th element in the ebo
+	 */
+	private int getElementsSize(int i)
+	{
+		return meshes != null ? meshes.get(i).getElementsSize() : elements.get(i).getElementsSize();
+	}
+	
+	/**
+	 * Method that creates the transform slot buffer and the transform buffer
+	 */
+	private void allocateTransforms()
+	{
+		int sumAttributes = getStride();
+		IntBuffer slots = NativeMemory.allocInt(vertexSize / sumAttributes);
+		
+		//Every vertex gets the slot of its element
+		for(int i = 0; i < elements.size(); i++)
+		{
+			elements.get(i).setTransformIndex(i);
+			
+			for(int j = 0; j < getVerticesSize(i) / sumAttributes; j++)
+			{
+				slots.put(i);
+			}
+		}
+		
+		((Buffer) slots).flip();
+		
+		transformIndexID = GpuResources.create(Type.BUFFER);
+		glBindBuffer(GL_ARRAY_BUFFER, transformIndexID);
+		glBufferData(GL_ARRAY_BUFFER, slots, GL_STATIC_DRAW);
+		GpuResources.setBytes(Type.BUFFER, transformIndexID, (long) slots.capacity() * Integer.BYTES);
+		NativeMemory.free(slots);
+		
+		//The transform buffer is exposed as a texture
+		transformData = NativeMemory.allocFloat(Math.max(1, elements.size()) * TRANSFORM_SIZE);
+		
+		//The native memory is not initialized
+		for(int i = 0; i < transformData.capacity(); i++)
+		{
+			transformData.put(i, 0);
+		}
+		transformBufferID = GpuResources.create(Type.BUFFER);
+		glBindBuffer(GL_TEXTURE_BUFFER, transformBufferID);
+		glBufferData(GL_TEXTURE_BUFFER, transformData, GL_STREAM_DRAW);
+		GpuResources.setBytes(Type.BUFFER, transformBufferID, (long) transformData.capacity() * Float.BYTES);
+		glBindBuffer(GL_TEXTURE_BUFFER, 0);
+		
+		transformTextureID = GpuResources.create(Type.TEXTURE);
+		glBindTexture(GL_TEXTURE_BUFFER, transformTextureID);
+		glTexBuffer(GL_TEXTURE_BUFFER, GL_RGBA32F, transformBufferID);
+		glBindTexture(GL_TEXTURE_BUFFER, 0);
+	}
+	
+	/**
+	 * Method that uploads the consecutive ranges of changed transforms
+	 */
+	private void uploadTransforms()
+	{
+		//First slot of the current changed range, -1 if there is no range
+		int first = -1;
+		
+		glBindBuffer(GL_TEXTURE_BUFFER, transformBufferID);
+		
+		for(int i = 0; i <= elements.size(); i++)
+		{
+			if(i < elements.size() && elements.get(i).isTransformUpdated())
+			{
+				DrawableElement e = elements.get(i);
+				
+				//Write the transform in the copy
+				transformData.put(i * TRANSFORM_SIZE, e.getTranslationX())
+							 .put(i * TRANSFORM_SIZE + 1, e.getTranslationY())
+							 .put(i * TRANSFORM_SIZE + 2, e.getRotation())
+							 .put(i * TRANSFORM_SIZE + 3, e.getScale())
+							 .put(i * TRANSFORM_SIZE + 4, e.getOffsetU())
+							 .put(i * TRANSFORM_SIZE + 5, e.getOffsetV());
+				
+				e.toggleTransformUpdate();
+				
+				if(first == -1)
+				{
+					first = i;
+				}
+			}
+			else if(first != -1)
+			{
+				//The range ended, upload it
+				FloatBuffer range = transformData.duplicate();
+				((Buffer) range).position(first * TRANSFORM_SIZE);
+				((Buffer) range).limit(i * TRANSFORM_SIZE);
+				glBufferSubData(GL_TEXTURE_BUFFER, (long) first * TRANSFORM_SIZE * Float.BYTES, range);
+				
+				first = -1;
+			}
+		}
+		
+		glBindBuffer(GL_TEXTURE_BUFFER, 0);
+	}
+	
+	/**
+	 * Method that writes all the updated elements in the given buffers.
+	 * The element indices are relative to the first vertex of this VAO.
+	 * @param vbo The vertex buffer
+	 * @param ebo The element buffer
+	 * @param vertexOffset The position (in floats) of the first vertex of this VAO in the vbo
+	 * @param elementOffset The position (in indices) of the first element of this VAO in the ebo
+	 */
+	void upload(int vbo, int ebo, int vertexOffset, int elementOffset)
+	{
 		//Temporary Indices useful for counting the vertex and element positions
 		int vertexIndex = 0;
 		int elementIndex = 0;
 		//Sum of attributes per vertex
-		int sumAttributes = (attributes.stream().reduce(0, Integer::sum)).intValue();
-		//Temporary buffers to insert the values
-		FloatBuffer bufferFloat;
-		IntBuffer bufferInt;
+		int sumAttributes = getStride();
+		
+		//The first upload uses the meshes just optimized by prepare
+		boolean first = vertexScratch == null;
+		
+		//The scratch buffers are as big as the biggest element
+		if(vertexScratch == null)
+		{
+			int maxVertices = 1;
+			int maxElements = 1;
+			
+			for(int i = 0; i < elements.size(); i++)
+			{
+				maxVertices = Math.max(maxVertices, getVerticesSize(i));
+				maxElements = Math.max(maxElements, getElementsSize(i));
+			}
+			
+			vertexScratch = NativeMemory.allocFloat(maxVertices);
+			
+			//A 16 bit ebo needs short indices
+			if(indexType == GL_UNSIGNED_SHORT)
+			{
+				shortScratch = NativeMemory.allocShort(maxElements);
+			}
+			else
+			{
+				elementScratch = NativeMemory.allocInt(maxElements);
+			}
+		}
 		
 		//For all the updated elements i update them in the buffers
 		for(int i = 0; i < elements.size(); i++)
 		{
 			if(elements.get(i).isUpdated())
 			{
-				//Create the buffers
-				bufferFloat = BufferUtils.createFloatBuffer(elements.get(i).getVerticesSize())
-										 .put(elements.get(i).getVertices());
+				DrawableElement e = elements.get(i);
+				float[] vertices = e.getVertices();
+				int[] indices = e.getElements();
 				
-				//Cast the buffer to avoid compatibility errors
-				((Buffer) bufferFloat).flip();
+				//The optimized vertices are gathered from the element ones
+				if(meshes != null)
+				{
+					//The old weld can merge vertices that are different now
+					if(!first)
+					{
+						reoptimize(i);
+					}
+					
+					meshes.get(i).gather(vertices, gatherScratch);
+					vertices = gatherScratch;
+					indices = meshes.get(i).getElements();
+				}
+				
+				//Fill the buffers
+				((Buffer) vertexScratch).clear();
+				vertexScratch.put(vertices, 0, getVerticesSize(i));
 				
-				bufferInt = BufferUtils.createIntBuffer(elements.get(i).getElementsSize());
+				//Cast the buffer to avoid compatibility errors
+				((Buffer) vertexScratch).flip();
 				
 				//I need to traslate the elements number with the number of vertices added before
-				for(int j = 0; j < elements.get(i).getElementsSize(); j++)
+				if(shortScratch != null)
 				{
-					bufferInt.put(elements.get(i).getElements()[j] + vertexIndex / sumAttributes);
+					((Buffer) shortScratch).clear();
+					
+					for(int j = 0; j < getElementsSize(i); j++)
+					{
+						shortScratch.put((short) (indices[j] + vertexIndex / sumAttributes));
+					}
+					
+					((Buffer) shortScratch).flip();
+				}
+				else
+				{
+					((Buffer) elementScratch).clear();
+					
+					for(int j = 0; j < getElementsSize(i); j++)
+					{
+						elementScratch.put(indices[j] + vertexIndex / sumAttributes);
+					}
+					
+					((Buffer) elementScratch).flip();
 				}
-				
-				//Flip the element buffer
-				((Buffer) bufferInt).flip();
 				
 				//Bind the VBO
-				glBindBuffer(GL_ARRAY_BUFFER, vboID);
+				glBindBuffer(GL_ARRAY_BUFFER, vbo);
 				
 				//Insert the vertex array
-				glBufferSubData(GL_ARRAY_BUFFER, vertexIndex * Float.BYTES, bufferFloat);
+				glBufferSubData(GL_ARRAY_BUFFER, (vertexOffset + vertexIndex) * Float.BYTES, vertexScratch);
 				
 				//Bind the EBO
-				glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, eboID);
+				glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, ebo);
 				
 				//Insert the element array
-				glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, elementIndex * Integer.BYTES, bufferInt);
+				if(shortScratch != null)
+				{
+					glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, (elementOffset + elementIndex) * Short.BYTES, shortScratch);
+				}
+				else
+				{
+					glBufferSubData(GL_ELEMENT_ARRAY_BUFFER, (elementOffset + elementIndex) * Integer.BYTES, elementScratch);
+				}
 				
 				//At the end i toggle the update
-				elements.get(i).toggleUpdate();
+				e.toggleUpdate();
 			}
 			
-			vertexIndex += elements.get(i).getVerticesSize();
-			elementIndex += elements.get(i).getElementsSize();
+			vertexIndex += getVerticesSize(i);
+			elementIndex += getElementsSize(i);
 		}
+	}
+	
+	/**
+	 * Method that adds to the region the areas of the elements changed since the last draw:
+	 * where they were and where they are now. The position of a vertex is read from its first
+	 * two floats in normalized device coordinates. The elements moved by the transforms
+	 * cannot be bounded (the shader decides the position) so they invalidate the whole region.
+	 * It must be called before the draw, which clears the updated flags.
+	 * @param region The dirty region of the frame
+	 */
+	public void collectDirty(DirtyRegion region)
+	{
+		collectDirty(region, true);
+	}
+	
+	/**
+	 * Method that adds to the region the areas of the changed elements
+	 * @param region The dirty region of the frame
+	 * @param visible If false the bounds are only updated, the VAO is not on the screen
+	 */
+	void collectDirty(DirtyRegion region, boolean visible)
+	{
+		//The bounds are known only if they have been computed for all the elements
+		boolean known = bounds != null && bounds.length == elements.size() * 4;
+		//Without the old bounds or before the first draw the changed area is unknown
+		boolean unbounded = !known || !drawn;
+		int sumAttributes = getStride();
 		
-		//Bind the VBO
-		glBindBuffer(GL_ARRAY_BUFFER, vboID);
-		
-		//Partial sum of attributes. It is used to indicate the offset
-		int partialSum = 0;
+		if(!known)
+		{
+			bounds = new float[elements.size() * 4];
+		}
 		
-		//For all attributes i create the attribute pointer
-		for(int i = 0; i < attributes.size(); i++)
+		for(int i = 0; i < elements.size(); i++)
 		{
-			//Create the attribute pointer
-			glVertexAttribPointer(i, attributes.get(i).intValue(), GL_FLOAT, false, sumAttributes * Float.BYTES, partialSum * Float.BYTES);
+			DrawableElement e = elements.get(i);
 			
-			//Enable the vertex attribute pointer
-			glEnableVertexAttribArray(i);
+			if(known && !e.isUpdated() && !(transforms && e.isTransformUpdated()) && !(depth && e.isDepthUpdated()))
+			{
+				continue;
+			}
 			
-			//Increment the partial sum
-			partialSum += attributes.get(i);
+			//The shader transform decides the position
+			unbounded |= transforms;
+			
+			//The old area must be redrawn without the element
+			if(known && visible)
+			{
+				region.addNDC(bounds[i * 4], bounds[i * 4 + 1], bounds[i * 4 + 2], bounds[i * 4 + 3]);
+			}
+			
+			float minX = Float.POSITIVE_INFINITY;
+			float minY = Float.POSITIVE_INFINITY;
+			float maxX = Float.NEGATIVE_INFINITY;
+			float maxY = Float.NEGATIVE_INFINITY;
+			float[] vertices = e.getVertices();
+			
+			for(int j = 0; j + 1 < e.getVerticesSize(); j += sumAttributes)
+			{
+				minX = Math.min(minX, vertices[j]);
+				minY = Math.min(minY, vertices[j + 1]);
+				maxX = Math.max(maxX, vertices[j]);
+				maxY = Math.max(maxY, vertices[j + 1]);
+			}
+			
+			bounds[i * 4] = minX;
+			bounds[i * 4 + 1] = minY;
+			bounds[i * 4 + 2] = maxX;
+			bounds[i * 4 + 3] = maxY;
+			
+			if(visible)
+			{
+				region.addNDC(minX, minY, maxX, maxY);
+			}
 		}
 		
-		//Draw the VAO
-		glDrawElements(GL_TRIANGLES, elementIndex, GL_UNSIGNED_INT, 0);
-		
-		//Bind the VBO
-		glBindBuffer(GL_ARRAY_BUFFER, vboID);
-		
-		//Disable all the attrinutes pointers
-		for(int i = 0; i < attributes.size(); i++)
+		if(visible && unbounded)
 		{
-			glDisableVertexAttribArray(i);
+			region.invalidate();
 		}
-		
-		//Unbind
-		unbind();
 	}
 	
+	/**
+	 * Method that forbids adding new elements. It is used when the
+	 * buffers are allocated by someone else (e.g. a MultiDrawBatch),
+	 * the indices stay 32 bit because the buffers are shared.
+	 */
+	void lock()
+	{
+		prepare();
+		drawn = true;
+		locked = true;
+	}
+	
+	/**
+	 * @return The sum of the attributes sizes, that is the floats per vertex
+	 */
+	int getStride() { return (attributes.stream().reduce(0, Integer::sum)).intValue(); }
+	
+	/**
+	 * Package getters
+	 */
+	List<Integer> getAttributes()	{ return attributes; }
+	Shader getShader()				{ return shader; }
+	Texture getTexture()			{ return texture; }
+	int getVertexSize()				{ return vertexSize; }
+	int getElementSize()			{ return elementSize; }
+	boolean isDepthEnabled()		{ return depth; }
+	boolean isTransformsEnabled()	{ return transforms; }
+	boolean isDrawn()				{ return drawn; }
+	int getElementCount()			{ return elements.size(); }
+	
 	/**
 	 * Method to add a drawable element to the VAO BEFORE
 	 * the first draw method call
@@ -287,6 +960,15 @@ public class VAO
 		}
 	}
 	
+	/**
+	 * @return true if the VAO has never been drawn or at least one of its elements
+	 * needs to be refreshed, including its transform and its depth when they are enabled
+	 */
+	public boolean isUpdated()
+	{
+		return !drawn || elements.stream().anyMatch((DrawableElement e) -> e.isUpdated() || (transforms && e.isTransformUpdated()) || (depth && e.isDepthUpdated()));
+	}
+	
 	/**
 	 * Add attribute size method. It is designed to identify groups of values
 	 * in the vertex buffer object. (E.g. vector3f for a 3D position.. addAttribute(3))
@@ -341,18 +1023,49 @@ public class VAO
 		//Unbind all
 		unbind();
 		
-		//If present delete the vao
+		//If present delete the vao and its buffers
 		if(vaoID != 0)
 		{
-			glDeleteVertexArrays(vaoID);
+			GpuResources.delete(Type.VERTEX_ARRAY, vaoID);
+			GpuResources.delete(Type.BUFFER, vboID);
+			GpuResources.delete(Type.BUFFER, eboID);
+			vaoID = 0;
 		}
 		
-		//Clean the shader
-		shader.clean();
-		//Clean the texture if present
+		//If present delete the depth buffer
+		if(depthBufferID != 0)
+		{
+			GpuResources.delete(Type.BUFFER, depthBufferID);
+			depthBufferID = 0;
+		}
+		
+		//If present delete the transform buffers
+		if(transformTextureID != 0)
+		{
+			GpuResources.delete(Type.TEXTURE, transformTextureID);
+			GpuResources.delete(Type.BUFFER, transformBufferID);
+			GpuResources.delete(Type.BUFFER, transformIndexID);
+			transformTextureID = 0;
+		}
+		
+		//Release the native buffers
+		NativeMemory.free(transformData);
+		NativeMemory.free(vertexScratch);
+		NativeMemory.free(elementScratch);
+		NativeMemory.free(shortScratch);
+		NativeMemory.free(depthScratch);
+		transformData = null;
+		vertexScratch = null;
+		elementScratch = null;
+		shortScratch = null;
+		depthScratch = null;
+		
+		//Release the shader, it is cleaned only if no one else owns it
+		shader.release();
+		//Release the texture if present
 		if(texture != null)
 		{
-			texture.clean();
+			texture.release();
 		}
 	}
 }
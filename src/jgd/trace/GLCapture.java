@@ -0,0 +1,700 @@
+package jgd.trace;
+
+import static org.lwjgl.opengl.GL11.GL_PACK_ALIGNMENT;
+import static org.lwjgl.opengl.GL11.GL_RED;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_HEIGHT;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_INTERNAL_FORMAT;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WIDTH;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.GL_VIEWPORT;
+import static org.lwjgl.opengl.GL11.glGetInteger;
+import static org.lwjgl.opengl.GL11.glGetIntegerv;
+import static org.lwjgl.opengl.GL11.glIsTexture;
+import static org.lwjgl.opengl.GL11.glPixelStorei;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_BASE_LEVEL;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_DEPTH;
+import static org.lwjgl.opengl.GL15.GL_BUFFER_SIZE;
+import static org.lwjgl.opengl.GL15.GL_BUFFER_USAGE;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER_BINDING;
+import static org.lwjgl.opengl.GL15.GL_VERTEX_ATTRIB_ARRAY_BUFFER_BINDING;
+import static org.lwjgl.opengl.GL15.glIsBuffer;
+import static org.lwjgl.opengl.GL20.GL_ACTIVE_UNIFORMS;
+import static org.lwjgl.opengl.GL20.GL_MAX_VERTEX_ATTRIBS;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_ATTRIB_ARRAY_ENABLED;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_ATTRIB_ARRAY_NORMALIZED;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_ATTRIB_ARRAY_SIZE;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_ATTRIB_ARRAY_STRIDE;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_ATTRIB_ARRAY_TYPE;
+import static org.lwjgl.opengl.GL20.glGetProgrami;
+import static org.lwjgl.opengl.GL20.glGetUniformLocation;
+import static org.lwjgl.opengl.GL30.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30.GL_DEPTH_ATTACHMENT;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_ATTACHMENT_OBJECT_NAME;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER_ATTACHMENT_OBJECT_TYPE;
+import static org.lwjgl.opengl.GL30.GL_R8;
+import static org.lwjgl.opengl.GL30.GL_RENDERBUFFER;
+import static org.lwjgl.opengl.GL30.GL_RENDERBUFFER_HEIGHT;
+import static org.lwjgl.opengl.GL30.GL_RENDERBUFFER_INTERNAL_FORMAT;
+import static org.lwjgl.opengl.GL30.GL_RENDERBUFFER_WIDTH;
+import static org.lwjgl.opengl.GL30.GL_TEXTURE_2D_ARRAY;
+import static org.lwjgl.opengl.GL30.GL_VERTEX_ATTRIB_ARRAY_INTEGER;
+import static org.lwjgl.opengl.GL30.glIsFramebuffer;
+import static org.lwjgl.opengl.GL30.glIsRenderbuffer;
+import static org.lwjgl.opengl.GL30.glIsVertexArray;
+import static org.lwjgl.opengl.GL31.GL_TEXTURE_BUFFER;
+import static org.lwjgl.opengl.GL31.glGetActiveUniformName;
+import static org.lwjgl.opengl.GL33.GL_VERTEX_ATTRIB_ARRAY_DIVISOR;
+import static org.lwjgl.opengl.GL43.GL_TEXTURE_BUFFER_DATA_STORE_BINDING;
+import static org.lwjgl.opengl.GL43.GL_VERTEX_BINDING_OFFSET;
+import static org.lwjgl.opengl.GL45.GL_TEXTURE_TARGET;
+import static org.lwjgl.opengl.GL45.glGetNamedBufferParameteri;
+import static org.lwjgl.opengl.GL45.glGetNamedBufferSubData;
+import static org.lwjgl.opengl.GL45.glGetNamedFramebufferAttachmentParameteri;
+import static org.lwjgl.opengl.GL45.glGetNamedRenderbufferParameteri;
+import static org.lwjgl.opengl.GL45.glGetTextureImage;
+import static org.lwjgl.opengl.GL45.glGetTextureLevelParameteri;
+import static org.lwjgl.opengl.GL45.glGetTextureParameteri;
+import static org.lwjgl.opengl.GL45.glGetVertexArrayIndexed64i;
+import static org.lwjgl.opengl.GL45.glGetVertexArrayIndexedi;
+import static org.lwjgl.opengl.GL45.glGetVertexArrayi;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memByteBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources;
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class records the GL calls made through TracedGL into a trace file for a number of frames.
+ * The capture starts at the end of the frame after the start call with a snapshot of the objects
+ * alive (buffers and textures content, vertex arrays, renderbuffers, framebuffers and programs) and stops by itself
+ * after the requested frames. The records of a frame are kept in memory and written when the frame
+ * ends, so the game is not slowed down by the disk.
+ * The capture belongs to the thread that presents the first frame after the start call: with
+ * several render threads only the calls of that thread (and of its context) are recorded.
+ * The snapshot uses the OpenGL 4.5 direct state access queries.
+ * The trace is replayed by GLReplay.
+ * @author Matteo Pignataro
+ */
+public final class GLCapture
+{
+	/**
+	 * Trace file signature ("JGDT")
+	 */
+	public static final int MAGIC = 0x4A474454;
+	
+	/**
+	 * Trace format version
+	 */
+	public static final int VERSION = 3;
+	
+	/**
+	 * GLSL code of every linked program, needed to rebuild the programs in the snapshot
+	 */
+	private static final Map<Integer, String[]> programs = new ConcurrentHashMap<Integer, String[]>();
+	
+	/**
+	 * Records of the current frame
+	 */
+	private static ByteBuffer record = ByteBuffer.allocate(1 << 16);
+	
+	/**
+	 * Trace stream, null if the capture is not running
+	 */
+	private static DataOutputStream out;
+	
+	/**
+	 * Path of the requested capture, null if there is no request
+	 */
+	private static volatile String requestPath;
+	
+	/**
+	 * Frames of the requested capture
+	 */
+	private static int requestFrames;
+	
+	/**
+	 * Frames still to be recorded
+	 */
+	private static int framesLeft;
+	
+	/**
+	 * Boolean that represents if the calls are being recorded
+	 */
+	private static volatile boolean capturing;
+	
+	/**
+	 * Thread that owns the running capture, the only one whose calls are recorded
+	 */
+	private static volatile Thread owner;
+	
+	/**
+	 * Boolean set when another thread stops the capture, the owner stops at the end of its frame
+	 */
+	private static volatile boolean stopRequested;
+	
+	/**
+	 * Error that stopped or damaged the last capture, null if none
+	 */
+	private static String error;
+	
+	/**
+	 * Not instantiable class
+	 */
+	private GLCapture() {}
+	
+	/**
+	 * Method to request a capture. It starts at the end of the current frame.
+	 * @param path The trace file path
+	 * @param frames The number of frames to record
+	 */
+	public static synchronized void start(String path, int frames)
+	{
+		if(path == null)
+		{
+			throw new NullPointerException("Error path null pointer [GLCapture]");
+		}
+		
+		if(capturing || requestPath != null)
+		{
+			throw new RuntimeException("Capture already running [GLCapture]");
+		}
+		
+		requestPath = path;
+		requestFrames = Math.max(frames, 1);
+		error = null;
+	}
+	
+	/**
+	 * Method to stop the capture before the requested frames. Called by another
+	 * thread than the owner, the capture stops at the end of the owner frame.
+	 */
+	public static synchronized void stop()
+	{
+		if(isCapturing())
+		{
+			record(TraceOp.END, 0);
+			writeRecords();
+			close();
+		}
+		else if(capturing)
+		{
+			stopRequested = true;
+		}
+		
+		requestPath = null;
+	}
+	
+	/**
+	 * Method called by the window when a frame has been presented
+	 * @param swapNanos The buffer swap duration
+	 */
+	public static void endFrame(long swapNanos)
+	{
+		if(isCapturing())
+		{
+			record(TraceOp.FRAME, swapNanos);
+			writeRecords();
+			
+			//The stream can be closed by a write error
+			if(capturing && (--framesLeft == 0 || stopRequested))
+			{
+				stop();
+			}
+		}
+		else if(requestPath != null)
+		{
+			//The first thread that presents a frame owns the capture
+			synchronized(GLCapture.class)
+			{
+				if(!capturing && requestPath != null)
+				{
+					begin();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Method that opens the trace and writes the header and the snapshot
+	 */
+	private static void begin()
+	{
+		try
+		{
+			out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(requestPath))));
+		}
+		catch(IOException e)
+		{
+			requestPath = null;
+			throw new RuntimeException("Unable to create the trace [GLCapture]: " + e.getMessage());
+		}
+		
+		//The viewport gives the size of the default framebuffer
+		int[] viewport = new int[4];
+		glGetIntegerv(GL_VIEWPORT, viewport);
+		
+		((Buffer) record).clear();
+		putInt(MAGIC);
+		putInt(VERSION);
+		putInt(requestFrames);
+		putInt(viewport[2]);
+		putInt(viewport[3]);
+		
+		snapshot();
+		record(TraceOp.SNAPSHOT_END, 0);
+		
+		framesLeft = requestFrames;
+		requestPath = null;
+		stopRequested = false;
+		owner = Thread.currentThread();
+		capturing = true;
+		
+		writeRecords();
+	}
+	
+	/**
+	 * Method that records the objects alive. Buffers come first because
+	 * textures and vertex arrays refer to them.
+	 */
+	private static void snapshot()
+	{
+		//The images are read without row padding
+		glPixelStorei(GL_PACK_ALIGNMENT, 1);
+		
+		for(int ID : GpuResources.getLiveIDs(Type.BUFFER))
+		{
+			writeCreate(Type.BUFFER, ID);
+			
+			if(glIsBuffer(ID))
+			{
+				int size = glGetNamedBufferParameteri(ID, GL_BUFFER_SIZE);
+				ByteBuffer data = NativeMemory.alloc(Math.max(size, 1));
+				((Buffer) data).limit(size);
+				glGetNamedBufferSubData(ID, 0, data);
+				
+				record(TraceOp.BUFFER_CONTENT, 0);
+				putInt(ID);
+				putInt(glGetNamedBufferParameteri(ID, GL_BUFFER_USAGE));
+				putBytes(data);
+				
+				NativeMemory.free(data);
+			}
+		}
+		
+		for(int ID : GpuResources.getLiveIDs(Type.TEXTURE))
+		{
+			writeCreate(Type.TEXTURE, ID);
+			
+			if(glIsTexture(ID))
+			{
+				writeTexture(ID);
+			}
+		}
+		
+		for(int ID : GpuResources.getLiveIDs(Type.VERTEX_ARRAY))
+		{
+			writeCreate(Type.VERTEX_ARRAY, ID);
+			
+			if(glIsVertexArray(ID))
+			{
+				writeVertexArray(ID);
+			}
+		}
+		
+		for(int ID : GpuResources.getLiveIDs(Type.RENDERBUFFER))
+		{
+			writeCreate(Type.RENDERBUFFER, ID);
+			
+			if(glIsRenderbuffer(ID))
+			{
+				record(TraceOp.RENDERBUFFER_STATE, 0);
+				putInt(ID);
+				putInt(glGetNamedRenderbufferParameteri(ID, GL_RENDERBUFFER_INTERNAL_FORMAT));
+				putInt(glGetNamedRenderbufferParameteri(ID, GL_RENDERBUFFER_WIDTH));
+				putInt(glGetNamedRenderbufferParameteri(ID, GL_RENDERBUFFER_HEIGHT));
+			}
+		}
+		
+		for(int ID : GpuResources.getLiveIDs(Type.FRAMEBUFFER))
+		{
+			writeCreate(Type.FRAMEBUFFER, ID);
+			
+			if(glIsFramebuffer(ID) && glGetNamedFramebufferAttachmentParameteri(ID, GL_COLOR_ATTACHMENT0, GL_FRAMEBUFFER_ATTACHMENT_OBJECT_TYPE) == GL_TEXTURE)
+			{
+				boolean depth = glGetNamedFramebufferAttachmentParameteri(ID, GL_DEPTH_ATTACHMENT, GL_FRAMEBUFFER_ATTACHMENT_OBJECT_TYPE) == GL_RENDERBUFFER;
+				
+				//Color texture and depth renderbuffer, 0 if none
+				record(TraceOp.FRAMEBUFFER_STATE, 0);
+				putInt(ID);
+				putInt(glGetNamedFramebufferAttachmentParameteri(ID, GL_COLOR_ATTACHMENT0, GL_FRAMEBUFFER_ATTACHMENT_OBJECT_NAME));
+				putInt(depth ? glGetNamedFramebufferAttachmentParameteri(ID, GL_DEPTH_ATTACHMENT, GL_FRAMEBUFFER_ATTACHMENT_OBJECT_NAME) : 0);
+			}
+		}
+		
+		for(int ID : GpuResources.getLiveIDs(Type.PROGRAM))
+		{
+			writeCreate(Type.PROGRAM, ID);
+			
+			if(programs.containsKey(ID))
+			{
+				writeProgram(ID);
+			}
+		}
+		
+		//Restore the default alignment
+		glPixelStorei(GL_PACK_ALIGNMENT, 4);
+	}
+	
+	/**
+	 * Method that records the base level of a 2D texture or a 2D array texture
+	 * and the data store of a buffer texture
+	 * @param ID The texture ID
+	 */
+	private static void writeTexture(int ID)
+	{
+		int target = glGetTextureParameteri(ID, GL_TEXTURE_TARGET);
+		
+		if(target == GL_TEXTURE_BUFFER)
+		{
+			record(TraceOp.TEXTURE_CONTENT, 0);
+			putInt(ID);
+			putInt(target);
+			putInt(glGetTextureLevelParameteri(ID, 0, GL_TEXTURE_INTERNAL_FORMAT));
+			putInt(glGetTextureLevelParameteri(ID, 0, GL_TEXTURE_BUFFER_DATA_STORE_BINDING));
+			return;
+		}
+		
+		if(target != GL_TEXTURE_2D && target != GL_TEXTURE_2D_ARRAY)
+		{
+			return;
+		}
+		
+		//Streamed textures can have the first levels evicted
+		int level = glGetTextureParameteri(ID, GL_TEXTURE_BASE_LEVEL);
+		int internalFormat = glGetTextureLevelParameteri(ID, level, GL_TEXTURE_INTERNAL_FORMAT);
+		int width = glGetTextureLevelParameteri(ID, level, GL_TEXTURE_WIDTH);
+		int height = glGetTextureLevelParameteri(ID, level, GL_TEXTURE_HEIGHT);
+		int depth = glGetTextureLevelParameteri(ID, level, GL_TEXTURE_DEPTH);
+		
+		//The framework uses only single channel (font atlas) and RGBA textures
+		int format = internalFormat == GL_R8 ? GL_RED : GL_RGBA;
+		int size = width * height * depth * (format == GL_RED ? 1 : 4);
+		
+		record(TraceOp.TEXTURE_CONTENT, 0);
+		putInt(ID);
+		putInt(target);
+		putInt(internalFormat);
+		putInt(width);
+		putInt(height);
+		putInt(depth);
+		putInt(format);
+		putInt(glGetTextureParameteri(ID, GL_TEXTURE_MIN_FILTER));
+		putInt(glGetTextureParameteri(ID, GL_TEXTURE_MAG_FILTER));
+		putInt(glGetTextureParameteri(ID, GL_TEXTURE_WRAP_S));
+		putInt(glGetTextureParameteri(ID, GL_TEXTURE_WRAP_T));
+		
+		ByteBuffer data = NativeMemory.alloc(Math.max(size, 1));
+		((Buffer) data).limit(size);
+		
+		if(size > 0)
+		{
+			glGetTextureImage(ID, level, format, GL_UNSIGNED_BYTE, data);
+		}
+		
+		putBytes(data);
+		NativeMemory.free(data);
+	}
+	
+	/**
+	 * Method that records the element buffer and the enabled attributes of a vertex array
+	 * @param ID The vertex array ID
+	 */
+	private static void writeVertexArray(int ID)
+	{
+		int max = glGetInteger(GL_MAX_VERTEX_ATTRIBS);
+		int enabled = 0;
+		
+		for(int i = 0; i < max; i++)
+		{
+			if(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_ENABLED) != 0)
+			{
+				enabled++;
+			}
+		}
+		
+		record(TraceOp.VERTEX_ARRAY_STATE, 0);
+		putInt(ID);
+		putInt(glGetVertexArrayi(ID, GL_ELEMENT_ARRAY_BUFFER_BINDING));
+		putInt(enabled);
+		
+		for(int i = 0; i < max; i++)
+		{
+			if(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_ENABLED) != 0)
+			{
+				//glVertexAttribPointer uses the binding with the same index
+				putInt(i);
+				putInt(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_SIZE));
+				putInt(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_TYPE));
+				putInt(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_NORMALIZED));
+				putInt(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_INTEGER));
+				putInt(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_STRIDE));
+				putLong(glGetVertexArrayIndexed64i(ID, i, GL_VERTEX_BINDING_OFFSET));
+				putInt(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_BUFFER_BINDING));
+				putInt(glGetVertexArrayIndexedi(ID, i, GL_VERTEX_ATTRIB_ARRAY_DIVISOR));
+			}
+		}
+	}
+	
+	/**
+	 * Method that records the code and the uniform locations of a program
+	 * @param ID The program ID
+	 */
+	private static void writeProgram(int ID)
+	{
+		String[] sources = programs.get(ID);
+		
+		record(TraceOp.PROGRAM, 0);
+		putInt(ID);
+		
+		for(String s : sources)
+		{
+			putString(s == null ? "" : s);
+		}
+		
+		//The replay maps the captured locations to its own ones by name
+		int uniforms = glGetProgrami(ID, GL_ACTIVE_UNIFORMS);
+		putInt(uniforms);
+		
+		for(int i = 0; i < uniforms; i++)
+		{
+			String name = glGetActiveUniformName(ID, i);
+			putString(name);
+			putInt(glGetUniformLocation(ID, name));
+		}
+	}
+	
+	/**
+	 * Method that records an object creation
+	 * @param type The object type
+	 * @param ID The object ID
+	 */
+	private static void writeCreate(Type type, int ID)
+	{
+		record(TraceOp.CREATE, 0);
+		putByte(type.ordinal());
+		putInt(ID);
+	}
+	
+	/**
+	 * Method called by GpuResources when an object is created
+	 * @param type The object type
+	 * @param ID The object ID
+	 */
+	public static void created(Type type, int ID)
+	{
+		if(isCapturing())
+		{
+			writeCreate(type, ID);
+		}
+	}
+	
+	/**
+	 * Method called by GpuResources when an object is deleted
+	 * @param type The object type
+	 * @param ID The object ID
+	 */
+	public static void deleted(Type type, int ID)
+	{
+		if(type == Type.PROGRAM)
+		{
+			programs.remove(ID);
+		}
+		
+		if(isCapturing())
+		{
+			record(TraceOp.DELETE, 0);
+			putByte(type.ordinal());
+			putInt(ID);
+		}
+	}
+	
+	/**
+	 * Method called by the shaders after linking, the code is kept to rebuild the program in a replay
+	 * @param ID The program ID
+	 * @param vertex The vertex code, can be null
+	 * @param fragment The fragment code, can be null
+	 * @param geometry The geometry code, can be null
+	 */
+	public static void registerProgram(int ID, String vertex, String fragment, String geometry)
+	{
+		programs.put(ID, new String[] {vertex, fragment, geometry});
+		
+		if(isCapturing())
+		{
+			writeProgram(ID);
+		}
+	}
+	
+	/**
+	 * @return true if the GL calls of the calling thread are being recorded
+	 */
+	public static boolean isCapturing() { return capturing && owner == Thread.currentThread(); }
+	
+	/**
+	 * @return The error that stopped or damaged the last capture, null if it has been written correctly
+	 */
+	public static String getError() { return error; }
+	
+	/**
+	 * Method that starts a record
+	 * @param op The operation
+	 * @param nanos The call duration
+	 */
+	static void record(TraceOp op, long nanos)
+	{
+		putByte(op.ordinal());
+		putInt((int) Math.min(nanos, Integer.MAX_VALUE));
+	}
+	
+	/**
+	 * Record writers
+	 */
+	static void putByte(int value) 		{ ensure(1); record.put((byte) value); }
+	static void putInt(int value) 		{ ensure(4); record.putInt(value); }
+	static void putLong(long value) 	{ ensure(8); record.putLong(value); }
+	static void putFloat(float value) 	{ ensure(4); record.putFloat(value); }
+	
+	/**
+	 * Method that writes a payload, -1 as length for a null buffer.
+	 * The buffer position is not changed.
+	 * @param data The payload
+	 */
+	static void putBytes(ByteBuffer data)
+	{
+		if(data == null)
+		{
+			putInt(-1);
+			return;
+		}
+		
+		ensure(4 + data.remaining());
+		record.putInt(data.remaining());
+		record.put(data.duplicate());
+	}
+	
+	/**
+	 * Payload writers for the other buffer types
+	 */
+	static void putBytes(FloatBuffer data)	{ putBytes(memByteBuffer(memAddress(data), data.remaining() * Float.BYTES)); }
+	static void putBytes(IntBuffer data)	{ putBytes(memByteBuffer(memAddress(data), data.remaining() * Integer.BYTES)); }
+	static void putBytes(ShortBuffer data)	{ putBytes(memByteBuffer(memAddress(data), data.remaining() * Short.BYTES)); }
+	
+	/**
+	 * Method that writes a float array as a payload in native order, like the buffers
+	 * @param data The payload
+	 */
+	static void putBytes(float[] data)
+	{
+		int size = data.length * Float.BYTES;
+		
+		ensure(4 + size);
+		record.putInt(size);
+		record.duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer().put(data);
+		record.position(record.position() + size);
+	}
+	
+	/**
+	 * Method that writes an UTF-8 string as a payload
+	 * @param value The string
+	 */
+	static void putString(String value)
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		
+		ensure(4 + bytes.length);
+		record.putInt(bytes.length);
+		record.put(bytes);
+	}
+	
+	/**
+	 * Method that grows the record buffer if needed
+	 * @param bytes The bytes to be written
+	 */
+	private static void ensure(int bytes)
+	{
+		if(record.remaining() < bytes)
+		{
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(record.capacity() * 2, record.position() + bytes));
+			((Buffer) record).flip();
+			bigger.put(record);
+			record = bigger;
+		}
+	}
+	
+	/**
+	 * Method that writes the records to the trace. In case of error the capture is stopped
+	 * without throwing because the game must not be interrupted by a capture; the error
+	 * is returned by getError.
+	 */
+	private static void writeRecords()
+	{
+		try
+		{
+			out.write(record.array(), 0, record.position());
+		}
+		catch(IOException e)
+		{
+			error = "Trace write error, capture stopped [GLCapture]: " + e.getMessage();
+			close();
+		}
+		
+		((Buffer) record).clear();
+	}
+	
+	/**
+	 * Method that closes the trace stream
+	 */
+	private static void close()
+	{
+		try
+		{
+			out.close();
+		}
+		catch(IOException e)
+		{
+			//A previous write error is more useful than the close one
+			if(error == null)
+			{
+				error = "Trace close error [GLCapture]: " + e.getMessage();
+			}
+		}
+		
+		out = null;
+		capturing = false;
+		owner = null;
+		((Buffer) record).clear();
+	}
+}
@@ -0,0 +1,1194 @@
+package jgd.trace;
+
+import static org.lwjgl.glfw.GLFW.GLFW_FALSE;
+import static org.lwjgl.glfw.GLFW.GLFW_VISIBLE;
+import static org.lwjgl.glfw.GLFW.glfwCreateWindow;
+import static org.lwjgl.glfw.GLFW.glfwDefaultWindowHints;
+import static org.lwjgl.glfw.GLFW.glfwDestroyWindow;
+import static org.lwjgl.glfw.GLFW.glfwInit;
+import static org.lwjgl.glfw.GLFW.glfwMakeContextCurrent;
+import static org.lwjgl.glfw.GLFW.glfwTerminate;
+import static org.lwjgl.glfw.GLFW.glfwWindowHint;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MAG_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_MIN_FILTER;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_S;
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_WRAP_T;
+import static org.lwjgl.opengl.GL11.GL_UNPACK_ALIGNMENT;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.glBindTexture;
+import static org.lwjgl.opengl.GL11.glClear;
+import static org.lwjgl.opengl.GL11.glDeleteTextures;
+import static org.lwjgl.opengl.GL11.glDepthFunc;
+import static org.lwjgl.opengl.GL11.glDepthMask;
+import static org.lwjgl.opengl.GL11.glDisable;
+import static org.lwjgl.opengl.GL11.glDrawElements;
+import static org.lwjgl.opengl.GL11.glEnable;
+import static org.lwjgl.opengl.GL11.glFinish;
+import static org.lwjgl.opengl.GL11.glGenTextures;
+import static org.lwjgl.opengl.GL11.glPixelStorei;
+import static org.lwjgl.opengl.GL11.glScissor;
+import static org.lwjgl.opengl.GL11.glTexImage2D;
+import static org.lwjgl.opengl.GL11.glTexParameteri;
+import static org.lwjgl.opengl.GL11.glTexSubImage2D;
+import static org.lwjgl.opengl.GL11.glViewport;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_BASE_LEVEL;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
+import static org.lwjgl.opengl.GL12.glTexSubImage3D;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL14.GL_DEPTH_COMPONENT24;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.GL_ELEMENT_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.glBeginQuery;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glBufferSubData;
+import static org.lwjgl.opengl.GL15.glDeleteBuffers;
+import static org.lwjgl.opengl.GL15.glDeleteQueries;
+import static org.lwjgl.opengl.GL15.glEndQuery;
+import static org.lwjgl.opengl.GL15.glGenBuffers;
+import static org.lwjgl.opengl.GL15.glGenQueries;
+import static org.lwjgl.opengl.GL20.GL_FRAGMENT_SHADER;
+import static org.lwjgl.opengl.GL20.GL_LINK_STATUS;
+import static org.lwjgl.opengl.GL20.GL_VERTEX_SHADER;
+import static org.lwjgl.opengl.GL20.glAttachShader;
+import static org.lwjgl.opengl.GL20.glCompileShader;
+import static org.lwjgl.opengl.GL20.glCreateProgram;
+import static org.lwjgl.opengl.GL20.glCreateShader;
+import static org.lwjgl.opengl.GL20.glDeleteProgram;
+import static org.lwjgl.opengl.GL20.glDeleteShader;
+import static org.lwjgl.opengl.GL20.glDetachShader;
+import static org.lwjgl.opengl.GL20.glDisableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glEnableVertexAttribArray;
+import static org.lwjgl.opengl.GL20.glGetProgramInfoLog;
+import static org.lwjgl.opengl.GL20.glGetProgrami;
+import static org.lwjgl.opengl.GL20.glGetUniformLocation;
+import static org.lwjgl.opengl.GL20.glLinkProgram;
+import static org.lwjgl.opengl.GL20.glShaderSource;
+import static org.lwjgl.opengl.GL20.glUniform1f;
+import static org.lwjgl.opengl.GL20.glUniform1i;
+import static org.lwjgl.opengl.GL20.glUniform2f;
+import static org.lwjgl.opengl.GL20.glUniform3f;
+import static org.lwjgl.opengl.GL20.glUniform4f;
+import static org.lwjgl.opengl.GL20.glUseProgram;
+import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
+import static org.lwjgl.opengl.GL30.GL_COLOR_ATTACHMENT0;
+import static org.lwjgl.opengl.GL30.GL_DEPTH_ATTACHMENT;
+import static org.lwjgl.opengl.GL30.GL_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.GL_RENDERBUFFER;
+import static org.lwjgl.opengl.GL30.GL_RGBA8;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glBindRenderbuffer;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+import static org.lwjgl.opengl.GL30.glBlitFramebuffer;
+import static org.lwjgl.opengl.GL30.glClearBufferfv;
+import static org.lwjgl.opengl.GL30.glDeleteFramebuffers;
+import static org.lwjgl.opengl.GL30.glDeleteRenderbuffers;
+import static org.lwjgl.opengl.GL30.glDeleteVertexArrays;
+import static org.lwjgl.opengl.GL30.glFramebufferRenderbuffer;
+import static org.lwjgl.opengl.GL30.glFramebufferTexture2D;
+import static org.lwjgl.opengl.GL30.glGenFramebuffers;
+import static org.lwjgl.opengl.GL30.glGenRenderbuffers;
+import static org.lwjgl.opengl.GL30.glGenVertexArrays;
+import static org.lwjgl.opengl.GL30.glRenderbufferStorage;
+import static org.lwjgl.opengl.GL30.glVertexAttribIPointer;
+import static org.lwjgl.opengl.GL31.GL_COPY_WRITE_BUFFER;
+import static org.lwjgl.opengl.GL31.GL_TEXTURE_BUFFER;
+import static org.lwjgl.opengl.GL31.glDrawArraysInstanced;
+import static org.lwjgl.opengl.GL31.glTexBuffer;
+import static org.lwjgl.opengl.GL32.GL_GEOMETRY_SHADER;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+import static org.lwjgl.opengl.GL43.glCopyImageSubData;
+import static org.lwjgl.opengl.GL43.glMultiDrawElementsIndirect;
+import static org.lwjgl.system.MemoryUtil.NULL;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.lwjgl.opengl.GL;
+
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources.Type;
+
+/**
+ * Command line tool that replays a trace written by GLCapture on a hidden window
+ * and reports the duration of every call and of every frame, next to the captured ones.
+ * The frames are rendered into an offscreen framebuffer with the captured size.
+ * The captured object IDs are mapped to the IDs of the replay context and the uniform
+ * locations are mapped by name.
+ * Usage: GLReplay trace-file
+ * @author Matteo Pignataro
+ */
+public final class GLReplay
+{
+	/**
+	 * Trace stream
+	 */
+	private DataInputStream in;
+	
+	/**
+	 * Captured object keys to replay IDs
+	 */
+	private Map<Long, Integer> objects;
+	
+	/**
+	 * Captured (program, location) keys to replay locations
+	 */
+	private Map<Long, Integer> locations;
+	
+	/**
+	 * Captured ID of the program in use
+	 */
+	private int currentProgram;
+	
+	/**
+	 * Framebuffer that replaces the default one
+	 */
+	private int offscreenFBO;
+	
+	/**
+	 * Color texture of the offscreen framebuffer
+	 */
+	private int offscreenTexture;
+	
+	/**
+	 * Depth renderbuffer of the offscreen framebuffer, like the depth buffer of the windows
+	 */
+	private int offscreenDepth;
+	
+	/**
+	 * Statistics per operation
+	 */
+	private long[] calls;
+	private long[] capturedNanos;
+	private long[] replayNanos;
+	private long[] replayMax;
+	
+	/**
+	 * Captured and replay nanoseconds of the current frame
+	 */
+	private long frameCaptured;
+	private long frameReplay;
+	
+	/**
+	 * Captured and replay nanoseconds of every frame
+	 */
+	private List<long[]> frames;
+	
+	/**
+	 * Constructor
+	 * @param in The decompressed trace stream, positioned after the header
+	 */
+	private GLReplay(DataInputStream in)
+	{
+		this.in = in;
+		
+		objects = new HashMap<Long, Integer>();
+		locations = new HashMap<Long, Integer>();
+		frames = new ArrayList<long[]>();
+		
+		int ops = TraceOp.VALUES.length;
+		calls = new long[ops];
+		capturedNanos = new long[ops];
+		replayNanos = new long[ops];
+		replayMax = new long[ops];
+	}
+	
+	/**
+	 * Entry point
+	 * @param args The trace file path
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if(args.length < 1)
+		{
+			System.out.println("Usage: GLReplay trace-file");
+			return;
+		}
+		
+		try(DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(args[0])))))
+		{
+			//Check the header
+			if(in.readInt() != GLCapture.MAGIC || in.readInt() != GLCapture.VERSION)
+			{
+				throw new RuntimeException("Not a JGD trace or unsupported version [GLReplay]");
+			}
+			
+			int frames = in.readInt();
+			int width = in.readInt();
+			int height = in.readInt();
+			
+			//Create a hidden window for the context
+			if(!glfwInit())
+			{
+				throw new RuntimeException("Unable to initialize GLFW [GLReplay]");
+			}
+			
+			glfwDefaultWindowHints();
+			glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
+			long window = glfwCreateWindow(Math.max(width, 1), Math.max(height, 1), "GLReplay", NULL, NULL);
+			glfwMakeContextCurrent(window);
+			GL.createCapabilities();
+			
+			GLReplay replay = new GLReplay(in);
+			replay.createOffscreen(Math.max(width, 1), Math.max(height, 1));
+			replay.run();
+			
+			System.out.println("Trace " + args[0] + ": " + replay.frames.size() + "/" + frames + " frames, " + width + "x" + height);
+			System.out.print(replay.report());
+			
+			glfwDestroyWindow(window);
+			glfwTerminate();
+		}
+	}
+	
+	/**
+	 * Method that creates the framebuffer used in place of the default one
+	 * @param width The captured width
+	 * @param height The captured height
+	 */
+	private void createOffscreen(int width, int height)
+	{
+		offscreenTexture = glGenTextures();
+		glBindTexture(GL_TEXTURE_2D, offscreenTexture);
+		glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+		glBindTexture(GL_TEXTURE_2D, 0);
+		
+		offscreenFBO = glGenFramebuffers();
+		glBindFramebuffer(GL_FRAMEBUFFER, offscreenFBO);
+		glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, offscreenTexture, 0);
+		
+		offscreenDepth = glGenRenderbuffers();
+		glBindRenderbuffer(GL_RENDERBUFFER, offscreenDepth);
+		glRenderbufferStorage(GL_RENDERBUFFER, GL_DEPTH_COMPONENT24, width, height);
+		glBindRenderbuffer(GL_RENDERBUFFER, 0);
+		glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, offscreenDepth);
+		glViewport(0, 0, width, height);
+	}
+	
+	/**
+	 * Method that executes all the records
+	 */
+	private void run() throws IOException
+	{
+		try
+		{
+			while(true)
+			{
+				TraceOp op = TraceOp.VALUES[in.readUnsignedByte()];
+				int captured = in.readInt();
+				
+				if(op == TraceOp.END)
+				{
+					return;
+				}
+				
+				execute(op, captured);
+			}
+		}
+		catch(EOFException e)
+		{
+			//The game has been closed during the capture, the trace ends with the last complete frame
+		}
+	}
+	
+	/**
+	 * Method that reads the arguments of an operation and executes it.
+	 * Only the GL call is timed, the trace decoding is not.
+	 * @param op The operation
+	 * @param captured The captured duration
+	 */
+	private void execute(TraceOp op, int captured) throws IOException
+	{
+		long start;
+		
+		switch(op)
+		{
+			case CREATE:
+			{
+				Type type = Type.values()[in.readUnsignedByte()];
+				int ID = in.readInt();
+				
+				//Shader objects are rebuilt with the programs
+				if(type != Type.SHADER)
+				{
+					objects.put(key(type.ordinal(), ID), generate(type));
+				}
+				return;
+			}
+			case DELETE:
+			{
+				Type type = Type.values()[in.readUnsignedByte()];
+				Integer ID = objects.remove(key(type.ordinal(), in.readInt()));
+				
+				if(ID != null)
+				{
+					delete(type, ID);
+				}
+				return;
+			}
+			case BUFFER_CONTENT:
+			{
+				int ID = map(Type.BUFFER, in.readInt());
+				int usage = in.readInt();
+				ByteBuffer data = readBytes();
+				
+				glBindBuffer(GL_COPY_WRITE_BUFFER, ID);
+				glBufferData(GL_COPY_WRITE_BUFFER, data, usage);
+				glBindBuffer(GL_COPY_WRITE_BUFFER, 0);
+				
+				NativeMemory.free(data);
+				return;
+			}
+			case TEXTURE_CONTENT:
+			{
+				readTexture();
+				return;
+			}
+			case VERTEX_ARRAY_STATE:
+			{
+				readVertexArray();
+				return;
+			}
+			case RENDERBUFFER_STATE:
+			{
+				int ID = map(Type.RENDERBUFFER, in.readInt());
+				int format = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				
+				glBindRenderbuffer(GL_RENDERBUFFER, ID);
+				glRenderbufferStorage(GL_RENDERBUFFER, format, width, height);
+				glBindRenderbuffer(GL_RENDERBUFFER, 0);
+				return;
+			}
+			case FRAMEBUFFER_STATE:
+			{
+				int ID = map(Type.FRAMEBUFFER, in.readInt());
+				int texture = map(Type.TEXTURE, in.readInt());
+				int depth = map(Type.RENDERBUFFER, in.readInt());
+				
+				glBindFramebuffer(GL_FRAMEBUFFER, ID);
+				glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texture, 0);
+				glFramebufferRenderbuffer(GL_FRAMEBUFFER, GL_DEPTH_ATTACHMENT, GL_RENDERBUFFER, depth);
+				glBindFramebuffer(GL_FRAMEBUFFER, offscreenFBO);
+				return;
+			}
+			case PROGRAM:
+			{
+				readProgram();
+				return;
+			}
+			case SNAPSHOT_END:
+			{
+				return;
+			}
+			case BIND_VERTEX_ARRAY:
+			{
+				int ID = map(Type.VERTEX_ARRAY, in.readInt());
+				
+				start = System.nanoTime();
+				glBindVertexArray(ID);
+				break;
+			}
+			case BIND_BUFFER:
+			{
+				int target = in.readInt();
+				int ID = map(Type.BUFFER, in.readInt());
+				
+				start = System.nanoTime();
+				glBindBuffer(target, ID);
+				break;
+			}
+			case BUFFER_DATA:
+			{
+				int target = in.readInt();
+				int usage = in.readInt();
+				long size = in.readLong();
+				ByteBuffer data = readBytes();
+				
+				start = System.nanoTime();
+				
+				if(data == null)
+				{
+					glBufferData(target, size, usage);
+				}
+				else
+				{
+					glBufferData(target, data, usage);
+				}
+				
+				time(op, captured, start);
+				NativeMemory.free(data);
+				return;
+			}
+			case BUFFER_SUB_DATA:
+			{
+				int target = in.readInt();
+				long offset = in.readLong();
+				ByteBuffer data = readBytes();
+				
+				start = System.nanoTime();
+				glBufferSubData(target, offset, data);
+				time(op, captured, start);
+				
+				NativeMemory.free(data);
+				return;
+			}
+			case VERTEX_ATTRIB_POINTER:
+			{
+				int index = in.readInt();
+				int size = in.readInt();
+				int type = in.readInt();
+				boolean normalized = in.readByte() != 0;
+				int stride = in.readInt();
+				long pointer = in.readLong();
+				
+				start = System.nanoTime();
+				glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+				break;
+			}
+			case VERTEX_ATTRIB_I_POINTER:
+			{
+				int index = in.readInt();
+				int size = in.readInt();
+				int type = in.readInt();
+				int stride = in.readInt();
+				long pointer = in.readLong();
+				
+				start = System.nanoTime();
+				glVertexAttribIPointer(index, size, type, stride, pointer);
+				break;
+			}
+			case ENABLE_VERTEX_ATTRIB_ARRAY:
+			{
+				int index = in.readInt();
+				
+				start = System.nanoTime();
+				glEnableVertexAttribArray(index);
+				break;
+			}
+			case DISABLE_VERTEX_ATTRIB_ARRAY:
+			{
+				int index = in.readInt();
+				
+				start = System.nanoTime();
+				glDisableVertexAttribArray(index);
+				break;
+			}
+			case ACTIVE_TEXTURE:
+			{
+				int texture = in.readInt();
+				
+				start = System.nanoTime();
+				glActiveTexture(texture);
+				break;
+			}
+			case TEX_BUFFER:
+			{
+				int target = in.readInt();
+				int internalFormat = in.readInt();
+				int buffer = map(Type.BUFFER, in.readInt());
+				
+				start = System.nanoTime();
+				glTexBuffer(target, internalFormat, buffer);
+				break;
+			}
+			case DRAW_ELEMENTS:
+			{
+				int mode = in.readInt();
+				int count = in.readInt();
+				int type = in.readInt();
+				long indices = in.readLong();
+				
+				start = System.nanoTime();
+				glDrawElements(mode, count, type, indices);
+				break;
+			}
+			case BIND_TEXTURE:
+			{
+				int target = in.readInt();
+				int ID = map(Type.TEXTURE, in.readInt());
+				
+				start = System.nanoTime();
+				glBindTexture(target, ID);
+				break;
+			}
+			case TEX_PARAMETER:
+			{
+				int target = in.readInt();
+				int name = in.readInt();
+				int value = in.readInt();
+				
+				start = System.nanoTime();
+				glTexParameteri(target, name, value);
+				break;
+			}
+			case TEX_IMAGE_2D:
+			{
+				int target = in.readInt();
+				int level = in.readInt();
+				int internalFormat = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				int format = in.readInt();
+				int type = in.readInt();
+				ByteBuffer pixels = readBytes();
+				
+				start = System.nanoTime();
+				glTexImage2D(target, level, internalFormat, width, height, 0, format, type, pixels);
+				time(op, captured, start);
+				
+				NativeMemory.free(pixels);
+				return;
+			}
+			case TEX_SUB_IMAGE_2D:
+			{
+				int target = in.readInt();
+				int level = in.readInt();
+				int x = in.readInt();
+				int y = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				int format = in.readInt();
+				int type = in.readInt();
+				ByteBuffer pixels = readBytes();
+				
+				start = System.nanoTime();
+				glTexSubImage2D(target, level, x, y, width, height, format, type, pixels);
+				time(op, captured, start);
+				
+				NativeMemory.free(pixels);
+				return;
+			}
+			case PIXEL_STORE:
+			{
+				int name = in.readInt();
+				int value = in.readInt();
+				
+				start = System.nanoTime();
+				glPixelStorei(name, value);
+				break;
+			}
+			case USE_PROGRAM:
+			{
+				currentProgram = in.readInt();
+				int ID = map(Type.PROGRAM, currentProgram);
+				
+				start = System.nanoTime();
+				glUseProgram(ID);
+				break;
+			}
+			case UNIFORM_F:
+			{
+				int location = uniform(in.readInt());
+				float[] v = new float[in.readInt()];
+				
+				for(int i = 0; i < v.length; i++)
+				{
+					v[i] = in.readFloat();
+				}
+				
+				start = System.nanoTime();
+				
+				switch(v.length)
+				{
+					case 1: glUniform1f(location, v[0]); break;
+					case 2: glUniform2f(location, v[0], v[1]); break;
+					case 3: glUniform3f(location, v[0], v[1], v[2]); break;
+					default: glUniform4f(location, v[0], v[1], v[2], v[3]); break;
+				}
+				break;
+			}
+			case UNIFORM_I:
+			{
+				int location = uniform(in.readInt());
+				int value = in.readInt();
+				
+				start = System.nanoTime();
+				glUniform1i(location, value);
+				break;
+			}
+			case BIND_FRAMEBUFFER:
+			{
+				int target = in.readInt();
+				int capturedID = in.readInt();
+				
+				//The default framebuffer is replaced by the offscreen one
+				int ID = capturedID == 0 ? offscreenFBO : map(Type.FRAMEBUFFER, capturedID);
+				
+				start = System.nanoTime();
+				glBindFramebuffer(target, ID);
+				break;
+			}
+			case FRAMEBUFFER_TEXTURE_2D:
+			{
+				int target = in.readInt();
+				int attachment = in.readInt();
+				int textureTarget = in.readInt();
+				int texture = map(Type.TEXTURE, in.readInt());
+				int level = in.readInt();
+				
+				start = System.nanoTime();
+				glFramebufferTexture2D(target, attachment, textureTarget, texture, level);
+				break;
+			}
+			case VIEWPORT:
+			{
+				int x = in.readInt();
+				int y = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				
+				start = System.nanoTime();
+				glViewport(x, y, width, height);
+				break;
+			}
+			case CLEAR_BUFFER:
+			{
+				int buffer = in.readInt();
+				int drawBuffer = in.readInt();
+				float[] value = new float[in.readInt()];
+				
+				for(int i = 0; i < value.length; i++)
+				{
+					value[i] = in.readFloat();
+				}
+				
+				start = System.nanoTime();
+				glClearBufferfv(buffer, drawBuffer, value);
+				break;
+			}
+			case CLEAR:
+			{
+				int mask = in.readInt();
+				
+				start = System.nanoTime();
+				glClear(mask);
+				break;
+			}
+			case ENABLE:
+			{
+				int target = in.readInt();
+				
+				start = System.nanoTime();
+				glEnable(target);
+				break;
+			}
+			case DISABLE:
+			{
+				int target = in.readInt();
+				
+				start = System.nanoTime();
+				glDisable(target);
+				break;
+			}
+			case SCISSOR:
+			{
+				int x = in.readInt();
+				int y = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				
+				start = System.nanoTime();
+				glScissor(x, y, width, height);
+				break;
+			}
+			case BLIT_FRAMEBUFFER:
+			{
+				int[] v = new int[10];
+				
+				for(int i = 0; i < v.length; i++)
+				{
+					v[i] = in.readInt();
+				}
+				
+				start = System.nanoTime();
+				glBlitFramebuffer(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9]);
+				break;
+			}
+			case BEGIN_QUERY:
+			{
+				int target = in.readInt();
+				int ID = map(Type.QUERY, in.readInt());
+				
+				start = System.nanoTime();
+				glBeginQuery(target, ID);
+				break;
+			}
+			case END_QUERY:
+			{
+				int target = in.readInt();
+				
+				start = System.nanoTime();
+				glEndQuery(target);
+				break;
+			}
+			case DEPTH_FUNC:
+			{
+				int func = in.readInt();
+				
+				start = System.nanoTime();
+				glDepthFunc(func);
+				break;
+			}
+			case DEPTH_MASK:
+			{
+				boolean flag = in.readUnsignedByte() != 0;
+				
+				start = System.nanoTime();
+				glDepthMask(flag);
+				break;
+			}
+			case BIND_RENDERBUFFER:
+			{
+				int target = in.readInt();
+				int ID = map(Type.RENDERBUFFER, in.readInt());
+				
+				start = System.nanoTime();
+				glBindRenderbuffer(target, ID);
+				break;
+			}
+			case RENDERBUFFER_STORAGE:
+			{
+				int target = in.readInt();
+				int format = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				
+				start = System.nanoTime();
+				glRenderbufferStorage(target, format, width, height);
+				break;
+			}
+			case FRAMEBUFFER_RENDERBUFFER:
+			{
+				int target = in.readInt();
+				int attachment = in.readInt();
+				int renderbufferTarget = in.readInt();
+				int ID = map(Type.RENDERBUFFER, in.readInt());
+				
+				start = System.nanoTime();
+				glFramebufferRenderbuffer(target, attachment, renderbufferTarget, ID);
+				break;
+			}
+			case TEX_IMAGE_3D:
+			{
+				int target = in.readInt();
+				int level = in.readInt();
+				int internalFormat = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				int depth = in.readInt();
+				int format = in.readInt();
+				int type = in.readInt();
+				ByteBuffer pixels = readBytes();
+				
+				start = System.nanoTime();
+				glTexImage3D(target, level, internalFormat, width, height, depth, 0, format, type, pixels);
+				time(op, captured, start);
+				
+				NativeMemory.free(pixels);
+				return;
+			}
+			case TEX_SUB_IMAGE_3D:
+			{
+				int target = in.readInt();
+				int level = in.readInt();
+				int x = in.readInt();
+				int y = in.readInt();
+				int z = in.readInt();
+				int width = in.readInt();
+				int height = in.readInt();
+				int depth = in.readInt();
+				int format = in.readInt();
+				int type = in.readInt();
+				ByteBuffer pixels = readBytes();
+				
+				start = System.nanoTime();
+				glTexSubImage3D(target, level, x, y, z, width, height, depth, format, type, pixels);
+				time(op, captured, start);
+				
+				NativeMemory.free(pixels);
+				return;
+			}
+			case COPY_IMAGE_SUB_DATA:
+			{
+				int[] v = new int[15];
+				
+				for(int i = 0; i < v.length; i++)
+				{
+					v[i] = in.readInt();
+				}
+				
+				//The source and the destination are textures
+				v[0] = map(Type.TEXTURE, v[0]);
+				v[6] = map(Type.TEXTURE, v[6]);
+				
+				start = System.nanoTime();
+				glCopyImageSubData(v[0], v[1], v[2], v[3], v[4], v[5], v[6], v[7], v[8], v[9], v[10], v[11], v[12], v[13], v[14]);
+				break;
+			}
+			case VERTEX_ATTRIB_DIVISOR:
+			{
+				int index = in.readInt();
+				int divisor = in.readInt();
+				
+				start = System.nanoTime();
+				glVertexAttribDivisor(index, divisor);
+				break;
+			}
+			case DRAW_ARRAYS_INSTANCED:
+			{
+				int mode = in.readInt();
+				int first = in.readInt();
+				int count = in.readInt();
+				int instances = in.readInt();
+				
+				start = System.nanoTime();
+				glDrawArraysInstanced(mode, first, count, instances);
+				break;
+			}
+			case MULTI_DRAW_ELEMENTS_INDIRECT:
+			{
+				int mode = in.readInt();
+				int type = in.readInt();
+				long indirect = in.readLong();
+				int drawCount = in.readInt();
+				int stride = in.readInt();
+				
+				start = System.nanoTime();
+				glMultiDrawElementsIndirect(mode, type, indirect, drawCount, stride);
+				break;
+			}
+			case FRAME:
+			{
+				//The swap is replaced by waiting the GPU, so the frame includes the GPU work
+				start = System.nanoTime();
+				glFinish();
+				time(op, captured, start);
+				
+				frames.add(new long[] {frameCaptured, frameReplay});
+				frameCaptured = 0;
+				frameReplay = 0;
+				return;
+			}
+			default:
+				throw new RuntimeException("Unexpected operation " + op + " [GLReplay]");
+		}
+		
+		time(op, captured, start);
+	}
+	
+	/**
+	 * Method that updates the statistics of a call
+	 * @param op The operation
+	 * @param captured The captured duration
+	 * @param start The replay start time
+	 */
+	private void time(TraceOp op, int captured, long start)
+	{
+		long elapsed = System.nanoTime() - start;
+		int i = op.ordinal();
+		
+		calls[i]++;
+		capturedNanos[i] += captured;
+		replayNanos[i] += elapsed;
+		replayMax[i] = Math.max(replayMax[i], elapsed);
+		
+		frameCaptured += captured;
+		frameReplay += elapsed;
+	}
+	
+	/**
+	 * Method that rebuilds a texture of the snapshot
+	 */
+	private void readTexture() throws IOException
+	{
+		int ID = map(Type.TEXTURE, in.readInt());
+		int target = in.readInt();
+		int internalFormat = in.readInt();
+		
+		if(target == GL_TEXTURE_BUFFER)
+		{
+			int buffer = map(Type.BUFFER, in.readInt());
+			
+			glBindTexture(GL_TEXTURE_BUFFER, ID);
+			glTexBuffer(GL_TEXTURE_BUFFER, internalFormat, buffer);
+			glBindTexture(GL_TEXTURE_BUFFER, 0);
+			return;
+		}
+		
+		int width = in.readInt();
+		int height = in.readInt();
+		int depth = in.readInt();
+		int format = in.readInt();
+		int minFilter = in.readInt();
+		int magFilter = in.readInt();
+		int wrapS = in.readInt();
+		int wrapT = in.readInt();
+		ByteBuffer pixels = readBytes();
+		
+		glBindTexture(target, ID);
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+		
+		//Only the base level is captured
+		if(target == GL_TEXTURE_2D)
+		{
+			glTexImage2D(target, 0, internalFormat, width, height, 0, format, GL_UNSIGNED_BYTE, pixels);
+		}
+		else
+		{
+			glTexImage3D(target, 0, internalFormat, width, height, depth, 0, format, GL_UNSIGNED_BYTE, pixels);
+		}
+		
+		glTexParameteri(target, GL_TEXTURE_MIN_FILTER, minFilter);
+		glTexParameteri(target, GL_TEXTURE_MAG_FILTER, magFilter);
+		glTexParameteri(target, GL_TEXTURE_WRAP_S, wrapS);
+		glTexParameteri(target, GL_TEXTURE_WRAP_T, wrapT);
+		glTexParameteri(target, GL_TEXTURE_BASE_LEVEL, 0);
+		glTexParameteri(target, GL_TEXTURE_MAX_LEVEL, 0);
+		
+		glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+		glBindTexture(target, 0);
+		
+		NativeMemory.free(pixels);
+	}
+	
+	/**
+	 * Method that rebuilds a vertex array of the snapshot
+	 */
+	private void readVertexArray() throws IOException
+	{
+		int ID = map(Type.VERTEX_ARRAY, in.readInt());
+		int elementBuffer = map(Type.BUFFER, in.readInt());
+		int attributes = in.readInt();
+		
+		glBindVertexArray(ID);
+		glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, elementBuffer);
+		
+		for(int i = 0; i < attributes; i++)
+		{
+			int index = in.readInt();
+			int size = in.readInt();
+			int type = in.readInt();
+			boolean normalized = in.readInt() != 0;
+			boolean integer = in.readInt() != 0;
+			int stride = in.readInt();
+			long offset = in.readLong();
+			int buffer = map(Type.BUFFER, in.readInt());
+			int divisor = in.readInt();
+			
+			glBindBuffer(GL_ARRAY_BUFFER, buffer);
+			
+			if(integer)
+			{
+				glVertexAttribIPointer(index, size, type, stride, offset);
+			}
+			else
+			{
+				glVertexAttribPointer(index, size, type, normalized, stride, offset);
+			}
+			
+			glEnableVertexAttribArray(index);
+			glVertexAttribDivisor(index, divisor);
+		}
+		
+		glBindVertexArray(0);
+		glBindBuffer(GL_ARRAY_BUFFER, 0);
+	}
+	
+	/**
+	 * Method that compiles and links a captured program and maps its uniform locations
+	 */
+	private void readProgram() throws IOException
+	{
+		int capturedID = in.readInt();
+		int ID = map(Type.PROGRAM, capturedID);
+		int[] stages = {GL_VERTEX_SHADER, GL_FRAGMENT_SHADER, GL_GEOMETRY_SHADER};
+		int[] shaders = new int[stages.length];
+		
+		for(int i = 0; i < stages.length; i++)
+		{
+			String code = readString();
+			
+			if(!code.isEmpty())
+			{
+				shaders[i] = glCreateShader(stages[i]);
+				glShaderSource(shaders[i], code);
+				glCompileShader(shaders[i]);
+				glAttachShader(ID, shaders[i]);
+			}
+		}
+		
+		glLinkProgram(ID);
+		
+		if(glGetProgrami(ID, GL_LINK_STATUS) == 0)
+		{
+			throw new RuntimeException("Program linking error [GLReplay]: " + glGetProgramInfoLog(ID, 1024));
+		}
+		
+		for(int shader : shaders)
+		{
+			if(shader != 0)
+			{
+				glDetachShader(ID, shader);
+				glDeleteShader(shader);
+			}
+		}
+		
+		//Map the captured locations by name
+		int uniforms = in.readInt();
+		
+		for(int i = 0; i < uniforms; i++)
+		{
+			String name = readString();
+			int location = in.readInt();
+			
+			locations.put(key(capturedID, location), glGetUniformLocation(ID, name));
+		}
+	}
+	
+	/**
+	 * @param location The captured location in the program in use
+	 * @return The replay location
+	 */
+	private int uniform(int location)
+	{
+		return locations.getOrDefault(key(currentProgram, location), location);
+	}
+	
+	/**
+	 * @param type The object type
+	 * @param capturedID The captured ID
+	 * @return The replay ID, objects not created by the trace are created on first use
+	 */
+	private int map(Type type, int capturedID)
+	{
+		if(capturedID == 0)
+		{
+			return 0;
+		}
+		
+		return objects.computeIfAbsent(key(type.ordinal(), capturedID), (Long k) -> generate(type));
+	}
+	
+	/**
+	 * @return The key of a pair of ints
+	 */
+	private static long key(int high, int low) { return ((long) high << 32) | (low & 0xFFFFFFFFL); }
+	
+	/**
+	 * @param type The object type
+	 * @return A new object of the replay context
+	 */
+	private static int generate(Type type)
+	{
+		switch(type)
+		{
+			case BUFFER: 		return glGenBuffers();
+			case VERTEX_ARRAY: 	return glGenVertexArrays();
+			case TEXTURE: 		return glGenTextures();
+			case FRAMEBUFFER: 	return glGenFramebuffers();
+			case RENDERBUFFER: 	return glGenRenderbuffers();
+			case PROGRAM: 		return glCreateProgram();
+			case QUERY: 		return glGenQueries();
+			default: 			return 0;
+		}
+	}
+	
+	/**
+	 * @param type The object type
+	 * @param ID The replay object to be deleted
+	 */
+	private static void delete(Type type, int ID)
+	{
+		switch(type)
+		{
+			case BUFFER: 		glDeleteBuffers(ID); break;
+			case VERTEX_ARRAY: 	glDeleteVertexArrays(ID); break;
+			case TEXTURE: 		glDeleteTextures(ID); break;
+			case FRAMEBUFFER: 	glDeleteFramebuffers(ID); break;
+			case RENDERBUFFER: 	glDeleteRenderbuffers(ID); break;
+			case PROGRAM: 		glDeleteProgram(ID); break;
+			case QUERY: 		glDeleteQueries(ID); break;
+			default: 			break;
+		}
+	}
+	
+	/**
+	 * @return A native buffer with the payload, null for a null payload
+	 */
+	private ByteBuffer readBytes() throws IOException
+	{
+		int length = in.readInt();
+		
+		if(length < 0)
+		{
+			return null;
+		}
+		
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		
+		ByteBuffer data = NativeMemory.alloc(Math.max(length, 1));
+		data.put(bytes);
+		((Buffer) data).flip();
+		
+		return data;
+	}
+	
+	/**
+	 * @return The UTF-8 string payload
+	 */
+	private String readString() throws IOException
+	{
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @return The frames and the calls statistics
+	 */
+	private String report()
+	{
+		StringBuilder report = new StringBuilder();
+		
+		report.append(String.format("%-8s %14s %14s%n", "Frame", "Captured ms", "Replay ms"));
+		
+		for(int i = 0; i < frames.size(); i++)
+		{
+			report.append(String.format("%-8d %14.3f %14.3f%n", i, frames.get(i)[0] / 1e6, frames.get(i)[1] / 1e6));
+		}
+		
+		report.append(String.format("%n%-28s %8s %16s %16s %16s%n", "Operation", "Calls", "Captured avg us", "Replay avg us", "Replay max us"));
+		
+		for(TraceOp op : TraceOp.VALUES)
+		{
+			int i = op.ordinal();
+			
+			if(calls[i] > 0)
+			{
+				report.append(String.format("%-28s %8d %16.3f %16.3f %16.3f%n", op, calls[i],
+						capturedNanos[i] / 1e3 / calls[i], replayNanos[i] / 1e3 / calls[i], replayMax[i] / 1e3));
+			}
+		}
+		
+		return report.toString();
+	}
+}
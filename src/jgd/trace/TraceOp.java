@@ -0,0 +1,48 @@
+package jgd.trace;
+
+/**
+ * Operations stored in a GL trace.
+ * A trace is a gzip stream that starts with the header (magic, version,
+ * frames, viewport width and height) followed by records. Every record is
+ * the operation ordinal (byte), the call duration in nanoseconds (int) and
+ * the operation arguments. Payloads are stored as length (int) and bytes,
+ * strings as UTF-8 payloads. Object IDs are the ones of the captured context.
+ * The snapshot records describe the objects alive when the capture started.
+ * @author Matteo Pignataro
+ */
+public enum TraceOp
+{
+	//Object lifetime: type ordinal (byte), ID
+	CREATE, DELETE,
+	
+	//Snapshot records
+	BUFFER_CONTENT, TEXTURE_CONTENT, VERTEX_ARRAY_STATE, RENDERBUFFER_STATE, FRAMEBUFFER_STATE, PROGRAM, SNAPSHOT_END,
+	
+	//VAO calls
+	BIND_VERTEX_ARRAY, BIND_BUFFER, BUFFER_DATA, BUFFER_SUB_DATA, VERTEX_ATTRIB_POINTER, VERTEX_ATTRIB_I_POINTER,
+	ENABLE_VERTEX_ATTRIB_ARRAY, DISABLE_VERTEX_ATTRIB_ARRAY, ACTIVE_TEXTURE, TEX_BUFFER, DRAW_ELEMENTS,
+	
+	//Texture calls
+	BIND_TEXTURE, TEX_PARAMETER, TEX_IMAGE_2D, TEX_SUB_IMAGE_2D, PIXEL_STORE,
+	
+	//Shader calls
+	USE_PROGRAM, UNIFORM_F, UNIFORM_I,
+	
+	//Window and layer calls
+	BIND_FRAMEBUFFER, FRAMEBUFFER_TEXTURE_2D, VIEWPORT, CLEAR_BUFFER, FRAME,
+	
+	//Render target calls (dynamic resolution, partial redraw and depth layering)
+	CLEAR, ENABLE, DISABLE, SCISSOR, BLIT_FRAMEBUFFER, BEGIN_QUERY, END_QUERY,
+	DEPTH_FUNC, DEPTH_MASK, BIND_RENDERBUFFER, RENDERBUFFER_STORAGE, FRAMEBUFFER_RENDERBUFFER,
+	
+	//Batch, particle and texture array calls
+	TEX_IMAGE_3D, TEX_SUB_IMAGE_3D, COPY_IMAGE_SUB_DATA, VERTEX_ATTRIB_DIVISOR, DRAW_ARRAYS_INSTANCED, MULTI_DRAW_ELEMENTS_INDIRECT,
+	
+	//Last record of the trace
+	END;
+	
+	/**
+	 * Cached values, values() creates a new array every call
+	 */
+	static final TraceOp[] VALUES = values();
+}
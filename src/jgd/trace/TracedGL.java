@@ -0,0 +1,1025 @@
+package jgd.trace;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL12;
+import org.lwjgl.opengl.GL13;
+import org.lwjgl.opengl.GL15;
+import org.lwjgl.opengl.GL20;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GL31;
+import org.lwjgl.opengl.GL33;
+import org.lwjgl.opengl.GL43;
+
+/**
+ * This class mirrors the GL functions used by the VAOs, the batches, the shaders, the textures,
+ * the fonts, the text, tile and particle renderers, the layers, the render targets and the window. Every function calls OpenGL and, while GLCapture is
+ * capturing, records the call with its duration and its arguments.
+ * When the capture is not running the only cost is a boolean check.
+ * @author Matteo Pignataro
+ */
+public final class TracedGL
+{
+	/**
+	 * Not instantiable class
+	 */
+	private TracedGL() {}
+	
+	/**
+	 * Traced glBindVertexArray
+	 */
+	public static void glBindVertexArray(int array)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glBindVertexArray(array);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glBindVertexArray(array);
+		GLCapture.record(TraceOp.BIND_VERTEX_ARRAY, System.nanoTime() - start);
+		GLCapture.putInt(array);
+	}
+	
+	/**
+	 * Traced glBindBuffer
+	 */
+	public static void glBindBuffer(int target, int buffer)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBindBuffer(target, buffer);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBindBuffer(target, buffer);
+		GLCapture.record(TraceOp.BIND_BUFFER, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(buffer);
+	}
+	
+	/**
+	 * Traced glBufferData
+	 */
+	public static void glBufferData(int target, long size, int usage)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBufferData(target, size, usage);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBufferData(target, size, usage);
+		GLCapture.record(TraceOp.BUFFER_DATA, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(usage);
+		GLCapture.putLong(size);
+		GLCapture.putBytes((ByteBuffer) null);
+	}
+	
+	/**
+	 * Traced glBufferData
+	 */
+	public static void glBufferData(int target, FloatBuffer data, int usage)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBufferData(target, data, usage);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBufferData(target, data, usage);
+		GLCapture.record(TraceOp.BUFFER_DATA, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(usage);
+		GLCapture.putLong((long) data.remaining() * Float.BYTES);
+		GLCapture.putBytes(data);
+	}
+	
+	/**
+	 * Traced glBufferData
+	 */
+	public static void glBufferData(int target, IntBuffer data, int usage)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBufferData(target, data, usage);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBufferData(target, data, usage);
+		GLCapture.record(TraceOp.BUFFER_DATA, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(usage);
+		GLCapture.putLong((long) data.remaining() * Integer.BYTES);
+		GLCapture.putBytes(data);
+	}
+	
+	/**
+	 * Traced glBufferData
+	 */
+	public static void glBufferData(int target, float[] data, int usage)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBufferData(target, data, usage);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBufferData(target, data, usage);
+		GLCapture.record(TraceOp.BUFFER_DATA, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(usage);
+		GLCapture.putLong((long) data.length * Float.BYTES);
+		GLCapture.putBytes(data);
+	}
+	
+	/**
+	 * Traced glBufferSubData
+	 */
+	public static void glBufferSubData(int target, long offset, float[] data)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBufferSubData(target, offset, data);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBufferSubData(target, offset, data);
+		GLCapture.record(TraceOp.BUFFER_SUB_DATA, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putLong(offset);
+		GLCapture.putBytes(data);
+	}
+	
+	/**
+	 * Traced glBufferSubData
+	 */
+	public static void glBufferSubData(int target, long offset, FloatBuffer data)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBufferSubData(target, offset, data);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBufferSubData(target, offset, data);
+		GLCapture.record(TraceOp.BUFFER_SUB_DATA, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putLong(offset);
+		GLCapture.putBytes(data);
+	}
+	
+	/**
+	 * Traced glBufferSubData
+	 */
+	public static void glBufferSubData(int target, long offset, IntBuffer data)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBufferSubData(target, offset, data);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBufferSubData(target, offset, data);
+		GLCapture.record(TraceOp.BUFFER_SUB_DATA, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putLong(offset);
+		GLCapture.putBytes(data);
+	}
+	
+	/**
+	 * Traced glBufferSubData
+	 */
+	public static void glBufferSubData(int target, long offset, ShortBuffer data)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBufferSubData(target, offset, data);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBufferSubData(target, offset, data);
+		GLCapture.record(TraceOp.BUFFER_SUB_DATA, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putLong(offset);
+		GLCapture.putBytes(data);
+	}
+	
+	/**
+	 * Traced glVertexAttribPointer
+	 */
+	public static void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, long pointer)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glVertexAttribPointer(index, size, type, normalized, stride, pointer);
+		GLCapture.record(TraceOp.VERTEX_ATTRIB_POINTER, System.nanoTime() - start);
+		GLCapture.putInt(index);
+		GLCapture.putInt(size);
+		GLCapture.putInt(type);
+		GLCapture.putByte(normalized ? 1 : 0);
+		GLCapture.putInt(stride);
+		GLCapture.putLong(pointer);
+	}
+	
+	/**
+	 * Traced glVertexAttribIPointer
+	 */
+	public static void glVertexAttribIPointer(int index, int size, int type, int stride, long pointer)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glVertexAttribIPointer(index, size, type, stride, pointer);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glVertexAttribIPointer(index, size, type, stride, pointer);
+		GLCapture.record(TraceOp.VERTEX_ATTRIB_I_POINTER, System.nanoTime() - start);
+		GLCapture.putInt(index);
+		GLCapture.putInt(size);
+		GLCapture.putInt(type);
+		GLCapture.putInt(stride);
+		GLCapture.putLong(pointer);
+	}
+	
+	/**
+	 * Traced glEnableVertexAttribArray
+	 */
+	public static void glEnableVertexAttribArray(int index)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glEnableVertexAttribArray(index);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glEnableVertexAttribArray(index);
+		GLCapture.record(TraceOp.ENABLE_VERTEX_ATTRIB_ARRAY, System.nanoTime() - start);
+		GLCapture.putInt(index);
+	}
+	
+	/**
+	 * Traced glDisableVertexAttribArray
+	 */
+	public static void glDisableVertexAttribArray(int index)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glDisableVertexAttribArray(index);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glDisableVertexAttribArray(index);
+		GLCapture.record(TraceOp.DISABLE_VERTEX_ATTRIB_ARRAY, System.nanoTime() - start);
+		GLCapture.putInt(index);
+	}
+	
+	/**
+	 * Traced glActiveTexture
+	 */
+	public static void glActiveTexture(int texture)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL13.glActiveTexture(texture);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL13.glActiveTexture(texture);
+		GLCapture.record(TraceOp.ACTIVE_TEXTURE, System.nanoTime() - start);
+		GLCapture.putInt(texture);
+	}
+	
+	/**
+	 * Traced glTexBuffer
+	 */
+	public static void glTexBuffer(int target, int internalformat, int buffer)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL31.glTexBuffer(target, internalformat, buffer);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL31.glTexBuffer(target, internalformat, buffer);
+		GLCapture.record(TraceOp.TEX_BUFFER, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(internalformat);
+		GLCapture.putInt(buffer);
+	}
+	
+	/**
+	 * Traced glDrawElements
+	 */
+	public static void glDrawElements(int mode, int count, int type, long indices)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glDrawElements(mode, count, type, indices);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glDrawElements(mode, count, type, indices);
+		GLCapture.record(TraceOp.DRAW_ELEMENTS, System.nanoTime() - start);
+		GLCapture.putInt(mode);
+		GLCapture.putInt(count);
+		GLCapture.putInt(type);
+		GLCapture.putLong(indices);
+	}
+	
+	/**
+	 * Traced glBindTexture
+	 */
+	public static void glBindTexture(int target, int texture)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glBindTexture(target, texture);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glBindTexture(target, texture);
+		GLCapture.record(TraceOp.BIND_TEXTURE, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(texture);
+	}
+	
+	/**
+	 * Traced glTexParameteri
+	 */
+	public static void glTexParameteri(int target, int pname, int param)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glTexParameteri(target, pname, param);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glTexParameteri(target, pname, param);
+		GLCapture.record(TraceOp.TEX_PARAMETER, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(pname);
+		GLCapture.putInt(param);
+	}
+	
+	/**
+	 * Traced glTexImage2D
+	 */
+	public static void glTexImage2D(int target, int level, int internalformat, int width, int height, int border, int format, int type, ByteBuffer pixels)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glTexImage2D(target, level, internalformat, width, height, border, format, type, pixels);
+		GLCapture.record(TraceOp.TEX_IMAGE_2D, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(level);
+		GLCapture.putInt(internalformat);
+		GLCapture.putInt(width);
+		GLCapture.putInt(height);
+		GLCapture.putInt(format);
+		GLCapture.putInt(type);
+		GLCapture.putBytes(pixels);
+	}
+	
+	/**
+	 * Traced glTexSubImage2D
+	 */
+	public static void glTexSubImage2D(int target, int level, int xoffset, int yoffset, int width, int height, int format, int type, ByteBuffer pixels)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glTexSubImage2D(target, level, xoffset, yoffset, width, height, format, type, pixels);
+		GLCapture.record(TraceOp.TEX_SUB_IMAGE_2D, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(level);
+		GLCapture.putInt(xoffset);
+		GLCapture.putInt(yoffset);
+		GLCapture.putInt(width);
+		GLCapture.putInt(height);
+		GLCapture.putInt(format);
+		GLCapture.putInt(type);
+		GLCapture.putBytes(pixels);
+	}
+	
+	/**
+	 * Traced glPixelStorei
+	 */
+	public static void glPixelStorei(int pname, int param)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glPixelStorei(pname, param);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glPixelStorei(pname, param);
+		GLCapture.record(TraceOp.PIXEL_STORE, System.nanoTime() - start);
+		GLCapture.putInt(pname);
+		GLCapture.putInt(param);
+	}
+	
+	/**
+	 * Traced glUseProgram
+	 */
+	public static void glUseProgram(int program)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glUseProgram(program);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glUseProgram(program);
+		GLCapture.record(TraceOp.USE_PROGRAM, System.nanoTime() - start);
+		GLCapture.putInt(program);
+	}
+	
+	/**
+	 * Traced glUniform1f
+	 */
+	public static void glUniform1f(int location, float v0)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glUniform1f(location, v0);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glUniform1f(location, v0);
+		GLCapture.record(TraceOp.UNIFORM_F, System.nanoTime() - start);
+		GLCapture.putInt(location);
+		GLCapture.putInt(1);
+		GLCapture.putFloat(v0);
+	}
+	
+	/**
+	 * Traced glUniform2f
+	 */
+	public static void glUniform2f(int location, float v0, float v1)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glUniform2f(location, v0, v1);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glUniform2f(location, v0, v1);
+		GLCapture.record(TraceOp.UNIFORM_F, System.nanoTime() - start);
+		GLCapture.putInt(location);
+		GLCapture.putInt(2);
+		GLCapture.putFloat(v0);
+		GLCapture.putFloat(v1);
+	}
+	
+	/**
+	 * Traced glUniform3f
+	 */
+	public static void glUniform3f(int location, float v0, float v1, float v2)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glUniform3f(location, v0, v1, v2);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glUniform3f(location, v0, v1, v2);
+		GLCapture.record(TraceOp.UNIFORM_F, System.nanoTime() - start);
+		GLCapture.putInt(location);
+		GLCapture.putInt(3);
+		GLCapture.putFloat(v0);
+		GLCapture.putFloat(v1);
+		GLCapture.putFloat(v2);
+	}
+	
+	/**
+	 * Traced glUniform4f
+	 */
+	public static void glUniform4f(int location, float v0, float v1, float v2, float v3)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glUniform4f(location, v0, v1, v2, v3);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glUniform4f(location, v0, v1, v2, v3);
+		GLCapture.record(TraceOp.UNIFORM_F, System.nanoTime() - start);
+		GLCapture.putInt(location);
+		GLCapture.putInt(4);
+		GLCapture.putFloat(v0);
+		GLCapture.putFloat(v1);
+		GLCapture.putFloat(v2);
+		GLCapture.putFloat(v3);
+	}
+	
+	/**
+	 * Traced glUniform1i
+	 */
+	public static void glUniform1i(int location, int v0)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL20.glUniform1i(location, v0);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL20.glUniform1i(location, v0);
+		GLCapture.record(TraceOp.UNIFORM_I, System.nanoTime() - start);
+		GLCapture.putInt(location);
+		GLCapture.putInt(v0);
+	}
+	
+	/**
+	 * Traced glBindFramebuffer
+	 */
+	public static void glBindFramebuffer(int target, int framebuffer)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glBindFramebuffer(target, framebuffer);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glBindFramebuffer(target, framebuffer);
+		GLCapture.record(TraceOp.BIND_FRAMEBUFFER, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(framebuffer);
+	}
+	
+	/**
+	 * Traced glFramebufferTexture2D
+	 */
+	public static void glFramebufferTexture2D(int target, int attachment, int textarget, int texture, int level)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glFramebufferTexture2D(target, attachment, textarget, texture, level);
+		GLCapture.record(TraceOp.FRAMEBUFFER_TEXTURE_2D, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(attachment);
+		GLCapture.putInt(textarget);
+		GLCapture.putInt(texture);
+		GLCapture.putInt(level);
+	}
+	
+	/**
+	 * Traced glViewport
+	 */
+	public static void glViewport(int x, int y, int w, int h)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glViewport(x, y, w, h);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glViewport(x, y, w, h);
+		GLCapture.record(TraceOp.VIEWPORT, System.nanoTime() - start);
+		GLCapture.putInt(x);
+		GLCapture.putInt(y);
+		GLCapture.putInt(w);
+		GLCapture.putInt(h);
+	}
+	
+	/**
+	 * Traced glClearBufferfv
+	 */
+	public static void glClearBufferfv(int buffer, int drawbuffer, float[] value)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glClearBufferfv(buffer, drawbuffer, value);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glClearBufferfv(buffer, drawbuffer, value);
+		GLCapture.record(TraceOp.CLEAR_BUFFER, System.nanoTime() - start);
+		GLCapture.putInt(buffer);
+		GLCapture.putInt(drawbuffer);
+		GLCapture.putInt(value.length);
+		
+		for(float v : value)
+		{
+			GLCapture.putFloat(v);
+		}
+	}
+	
+	/**
+	 * Traced glClear
+	 */
+	public static void glClear(int mask)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glClear(mask);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glClear(mask);
+		GLCapture.record(TraceOp.CLEAR, System.nanoTime() - start);
+		GLCapture.putInt(mask);
+	}
+	
+	/**
+	 * Traced glEnable
+	 */
+	public static void glEnable(int target)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glEnable(target);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glEnable(target);
+		GLCapture.record(TraceOp.ENABLE, System.nanoTime() - start);
+		GLCapture.putInt(target);
+	}
+	
+	/**
+	 * Traced glDisable
+	 */
+	public static void glDisable(int target)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glDisable(target);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glDisable(target);
+		GLCapture.record(TraceOp.DISABLE, System.nanoTime() - start);
+		GLCapture.putInt(target);
+	}
+	
+	/**
+	 * Traced glScissor
+	 */
+	public static void glScissor(int x, int y, int width, int height)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glScissor(x, y, width, height);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glScissor(x, y, width, height);
+		GLCapture.record(TraceOp.SCISSOR, System.nanoTime() - start);
+		GLCapture.putInt(x);
+		GLCapture.putInt(y);
+		GLCapture.putInt(width);
+		GLCapture.putInt(height);
+	}
+	
+	/**
+	 * Traced glBlitFramebuffer
+	 */
+	public static void glBlitFramebuffer(int srcX0, int srcY0, int srcX1, int srcY1, int dstX0, int dstY0, int dstX1, int dstY1, int mask, int filter)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glBlitFramebuffer(srcX0, srcY0, srcX1, srcY1, dstX0, dstY0, dstX1, dstY1, mask, filter);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glBlitFramebuffer(srcX0, srcY0, srcX1, srcY1, dstX0, dstY0, dstX1, dstY1, mask, filter);
+		GLCapture.record(TraceOp.BLIT_FRAMEBUFFER, System.nanoTime() - start);
+		GLCapture.putInt(srcX0);
+		GLCapture.putInt(srcY0);
+		GLCapture.putInt(srcX1);
+		GLCapture.putInt(srcY1);
+		GLCapture.putInt(dstX0);
+		GLCapture.putInt(dstY0);
+		GLCapture.putInt(dstX1);
+		GLCapture.putInt(dstY1);
+		GLCapture.putInt(mask);
+		GLCapture.putInt(filter);
+	}
+	
+	/**
+	 * Traced glBeginQuery
+	 */
+	public static void glBeginQuery(int target, int id)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glBeginQuery(target, id);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glBeginQuery(target, id);
+		GLCapture.record(TraceOp.BEGIN_QUERY, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(id);
+	}
+	
+	/**
+	 * Traced glEndQuery
+	 */
+	public static void glEndQuery(int target)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL15.glEndQuery(target);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL15.glEndQuery(target);
+		GLCapture.record(TraceOp.END_QUERY, System.nanoTime() - start);
+		GLCapture.putInt(target);
+	}
+	
+	/**
+	 * Traced glDepthFunc
+	 */
+	public static void glDepthFunc(int func)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glDepthFunc(func);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glDepthFunc(func);
+		GLCapture.record(TraceOp.DEPTH_FUNC, System.nanoTime() - start);
+		GLCapture.putInt(func);
+	}
+	
+	/**
+	 * Traced glDepthMask
+	 */
+	public static void glDepthMask(boolean flag)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL11.glDepthMask(flag);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL11.glDepthMask(flag);
+		GLCapture.record(TraceOp.DEPTH_MASK, System.nanoTime() - start);
+		GLCapture.putByte(flag ? 1 : 0);
+	}
+	
+	/**
+	 * Traced glBindRenderbuffer
+	 */
+	public static void glBindRenderbuffer(int target, int renderbuffer)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glBindRenderbuffer(target, renderbuffer);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glBindRenderbuffer(target, renderbuffer);
+		GLCapture.record(TraceOp.BIND_RENDERBUFFER, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(renderbuffer);
+	}
+	
+	/**
+	 * Traced glRenderbufferStorage
+	 */
+	public static void glRenderbufferStorage(int target, int internalformat, int width, int height)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glRenderbufferStorage(target, internalformat, width, height);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glRenderbufferStorage(target, internalformat, width, height);
+		GLCapture.record(TraceOp.RENDERBUFFER_STORAGE, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(internalformat);
+		GLCapture.putInt(width);
+		GLCapture.putInt(height);
+	}
+	
+	/**
+	 * Traced glFramebufferRenderbuffer
+	 */
+	public static void glFramebufferRenderbuffer(int target, int attachment, int renderbuffertarget, int renderbuffer)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL30.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL30.glFramebufferRenderbuffer(target, attachment, renderbuffertarget, renderbuffer);
+		GLCapture.record(TraceOp.FRAMEBUFFER_RENDERBUFFER, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(attachment);
+		GLCapture.putInt(renderbuffertarget);
+		GLCapture.putInt(renderbuffer);
+	}
+	
+	/**
+	 * Traced glTexImage3D
+	 */
+	public static void glTexImage3D(int target, int level, int internalformat, int width, int height, int depth, int border, int format, int type, ByteBuffer pixels)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL12.glTexImage3D(target, level, internalformat, width, height, depth, border, format, type, pixels);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL12.glTexImage3D(target, level, internalformat, width, height, depth, border, format, type, pixels);
+		GLCapture.record(TraceOp.TEX_IMAGE_3D, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(level);
+		GLCapture.putInt(internalformat);
+		GLCapture.putInt(width);
+		GLCapture.putInt(height);
+		GLCapture.putInt(depth);
+		GLCapture.putInt(format);
+		GLCapture.putInt(type);
+		GLCapture.putBytes(pixels);
+	}
+	
+	/**
+	 * Traced glTexSubImage3D
+	 */
+	public static void glTexSubImage3D(int target, int level, int xoffset, int yoffset, int zoffset, int width, int height, int depth, int format, int type, ByteBuffer pixels)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL12.glTexSubImage3D(target, level, xoffset, yoffset, zoffset, width, height, depth, format, type, pixels);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL12.glTexSubImage3D(target, level, xoffset, yoffset, zoffset, width, height, depth, format, type, pixels);
+		GLCapture.record(TraceOp.TEX_SUB_IMAGE_3D, System.nanoTime() - start);
+		GLCapture.putInt(target);
+		GLCapture.putInt(level);
+		GLCapture.putInt(xoffset);
+		GLCapture.putInt(yoffset);
+		GLCapture.putInt(zoffset);
+		GLCapture.putInt(width);
+		GLCapture.putInt(height);
+		GLCapture.putInt(depth);
+		GLCapture.putInt(format);
+		GLCapture.putInt(type);
+		GLCapture.putBytes(pixels);
+	}
+	
+	/**
+	 * Traced glCopyImageSubData
+	 */
+	public static void glCopyImageSubData(int srcName, int srcTarget, int srcLevel, int srcX, int srcY, int srcZ, int dstName, int dstTarget, int dstLevel, int dstX, int dstY, int dstZ, int srcWidth, int srcHeight, int srcDepth)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL43.glCopyImageSubData(srcName, srcTarget, srcLevel, srcX, srcY, srcZ, dstName, dstTarget, dstLevel, dstX, dstY, dstZ, srcWidth, srcHeight, srcDepth);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL43.glCopyImageSubData(srcName, srcTarget, srcLevel, srcX, srcY, srcZ, dstName, dstTarget, dstLevel, dstX, dstY, dstZ, srcWidth, srcHeight, srcDepth);
+		GLCapture.record(TraceOp.COPY_IMAGE_SUB_DATA, System.nanoTime() - start);
+		GLCapture.putInt(srcName);
+		GLCapture.putInt(srcTarget);
+		GLCapture.putInt(srcLevel);
+		GLCapture.putInt(srcX);
+		GLCapture.putInt(srcY);
+		GLCapture.putInt(srcZ);
+		GLCapture.putInt(dstName);
+		GLCapture.putInt(dstTarget);
+		GLCapture.putInt(dstLevel);
+		GLCapture.putInt(dstX);
+		GLCapture.putInt(dstY);
+		GLCapture.putInt(dstZ);
+		GLCapture.putInt(srcWidth);
+		GLCapture.putInt(srcHeight);
+		GLCapture.putInt(srcDepth);
+	}
+	
+	/**
+	 * Traced glVertexAttribDivisor
+	 */
+	public static void glVertexAttribDivisor(int index, int divisor)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL33.glVertexAttribDivisor(index, divisor);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL33.glVertexAttribDivisor(index, divisor);
+		GLCapture.record(TraceOp.VERTEX_ATTRIB_DIVISOR, System.nanoTime() - start);
+		GLCapture.putInt(index);
+		GLCapture.putInt(divisor);
+	}
+	
+	/**
+	 * Traced glDrawArraysInstanced
+	 */
+	public static void glDrawArraysInstanced(int mode, int first, int count, int primcount)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL31.glDrawArraysInstanced(mode, first, count, primcount);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL31.glDrawArraysInstanced(mode, first, count, primcount);
+		GLCapture.record(TraceOp.DRAW_ARRAYS_INSTANCED, System.nanoTime() - start);
+		GLCapture.putInt(mode);
+		GLCapture.putInt(first);
+		GLCapture.putInt(count);
+		GLCapture.putInt(primcount);
+	}
+	
+	/**
+	 * Traced glMultiDrawElementsIndirect
+	 */
+	public static void glMultiDrawElementsIndirect(int mode, int type, long indirect, int drawcount, int stride)
+	{
+		if(!GLCapture.isCapturing())
+		{
+			GL43.glMultiDrawElementsIndirect(mode, type, indirect, drawcount, stride);
+			return;
+		}
+		
+		long start = System.nanoTime();
+		GL43.glMultiDrawElementsIndirect(mode, type, indirect, drawcount, stride);
+		GLCapture.record(TraceOp.MULTI_DRAW_ELEMENTS_INDIRECT, System.nanoTime() - start);
+		GLCapture.putInt(mode);
+		GLCapture.putInt(type);
+		GLCapture.putLong(indirect);
+		GLCapture.putInt(drawcount);
+		GLCapture.putInt(stride);
+	}
+}
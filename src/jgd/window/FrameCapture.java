@@ -0,0 +1,489 @@
+package jgd.window;
+
+import static org.lwjgl.opengl.GL11.GL_BACK;
+import static org.lwjgl.opengl.GL11.GL_RGBA;
+import static org.lwjgl.opengl.GL11.GL_UNSIGNED_BYTE;
+import static org.lwjgl.opengl.GL11.glReadBuffer;
+import static org.lwjgl.opengl.GL11.glReadPixels;
+import static org.lwjgl.opengl.GL15.GL_STREAM_READ;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL15.glBufferData;
+import static org.lwjgl.opengl.GL15.glUnmapBuffer;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
+import static org.lwjgl.opengl.GL30.GL_MAP_READ_BIT;
+import static org.lwjgl.opengl.GL30.GL_READ_FRAMEBUFFER;
+import static org.lwjgl.opengl.GL30.glBindFramebuffer;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL32.GL_ALREADY_SIGNALED;
+import static org.lwjgl.opengl.GL32.GL_CONDITION_SATISFIED;
+import static org.lwjgl.opengl.GL32.GL_SYNC_FLUSH_COMMANDS_BIT;
+import static org.lwjgl.opengl.GL32.GL_SYNC_GPU_COMMANDS_COMPLETE;
+import static org.lwjgl.opengl.GL32.glClientWaitSync;
+import static org.lwjgl.opengl.GL32.glDeleteSync;
+import static org.lwjgl.opengl.GL32.glFenceSync;
+import static org.lwjgl.stb.STBImageWrite.stbi_write_png;
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jgd.memory.NativeMemory;
+import jgd.render.GpuResources;
+import jgd.render.GpuResources.Type;
+
+/**
+ * This class reads the window frames without stalling the pipeline.
+ * Every captured frame is copied by the GPU into a pixel buffer object of a ring
+ * and a fence is inserted. The buffer is mapped a few frames later, when its fence
+ * has signaled, and the pixels are written to disk by background threads.
+ * If all the ring buffers are still in flight or the writers are late the frame is
+ * dropped instead of waiting, so the frame time is never affected. A screenshot is
+ * not dropped: it waits for the first frame with a free buffer.
+ * PNG files are written top to bottom, RAW files contain the RGBA rows bottom to top.
+ * @author Matteo Pignataro
+ */
+public class FrameCapture
+{
+	/**
+	 * Output file formats
+	 */
+	public static enum Format
+	{
+		PNG, RAW;
+	}
+	
+	/**
+	 * Encoded frames that can wait for a writer
+	 */
+	private static final int QUEUE_SIZE = 8;
+	
+	/**
+	 * Pixel buffers ring
+	 */
+	private Slot[] ring;
+	
+	/**
+	 * Next ring slot to be used
+	 */
+	private int next;
+	
+	/**
+	 * Background writers
+	 */
+	private ThreadPoolExecutor writers;
+	
+	/**
+	 * Path of the requested screenshot, null if there is no request
+	 */
+	private volatile String screenshotPath;
+	
+	/**
+	 * Path pattern (String.format with the frame number) of the continuous capture, null if stopped
+	 */
+	private String pattern;
+	
+	/**
+	 * Format of the continuous capture and of the screenshots
+	 */
+	private Format format;
+	
+	/**
+	 * Number of the next continuous frame
+	 */
+	private int frameNumber;
+	
+	/**
+	 * Frames dropped to avoid a stall
+	 */
+	private AtomicInteger dropped;
+	
+	/**
+	 * Frames that the writers failed to write
+	 */
+	private AtomicInteger failed;
+	
+	/**
+	 * Callback that asks a new frame to the window, null if none
+	 */
+	private Runnable redraw;
+	
+	/**
+	 * Constructor
+	 * @param ringSize The number of pixel buffers, at least 2
+	 */
+	public FrameCapture(int ringSize) { this(ringSize, null); }
+	
+	/**
+	 * Constructor used by the window
+	 * @param ringSize The number of pixel buffers, at least 2
+	 * @param redraw The callback that asks a new frame, null if none
+	 */
+	FrameCapture(int ringSize, Runnable redraw)
+	{
+		this.redraw = redraw;
+		
+		ring = new Slot[Math.max(ringSize, 2)];
+		
+		for(int i = 0; i < ring.length; i++)
+		{
+			ring[i] = new Slot();
+		}
+		
+		//One writer per spare core, the frames in excess are dropped
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+		writers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), (Runnable r) ->
+		{
+			Thread t = new Thread(r, "FrameCapture writer");
+			t.setDaemon(true);
+			return t;
+		});
+		
+		format = Format.PNG;
+		dropped = new AtomicInteger();
+		failed = new AtomicInteger();
+	}
+	
+	/**
+	 * Method to capture the next presented frame
+	 * @param path The file path
+	 */
+	public void screenshot(String path)
+	{
+		if(path == null)
+		{
+			throw new NullPointerException("Error path null pointer [FrameCapture]");
+		}
+		
+		screenshotPath = path;
+		
+		//An on demand window must present a frame
+		if(redraw != null)
+		{
+			redraw.run();
+		}
+	}
+	
+	/**
+	 * Method to capture every presented frame
+	 * @param pattern The path pattern with the frame number (e.g. "frames/%05d.png")
+	 * @param format The file format
+	 */
+	public void start(String pattern, Format format)
+	{
+		if(pattern == null || format == null)
+		{
+			throw new NullPointerException("Error pattern or format null pointer [FrameCapture]");
+		}
+		
+		this.pattern = pattern;
+		this.format = format;
+		frameNumber = 0;
+	}
+	
+	/**
+	 * Method to stop the continuous capture. The frames in flight are still written.
+	 */
+	public void stop() { pattern = null; }
+	
+	/**
+	 * Method called by the window before the buffers swap.
+	 * It collects the signaled buffers and starts the read of the current frame if requested.
+	 * @param width The framebuffer width
+	 * @param height The framebuffer height
+	 */
+	void endFrame(int width, int height)
+	{
+		collect(0);
+		
+		//Nothing to capture
+		if(screenshotPath == null && pattern == null)
+		{
+			return;
+		}
+		
+		Slot slot = ring[next];
+		
+		//The oldest buffer is still in flight, i drop the frame instead of waiting.
+		//The screenshot request is kept for a next frame
+		if(slot.fence != 0)
+		{
+			if(screenshotPath == null)
+			{
+				frameNumber++;
+				dropped.incrementAndGet();
+			}
+			return;
+		}
+		
+		String path = screenshotPath != null ? screenshotPath : String.format(pattern, frameNumber++);
+		screenshotPath = null;
+		
+		next = (next + 1) % ring.length;
+		
+		//Resize the buffer if needed
+		int size = width * height * 4;
+		
+		if(slot.pboID == 0)
+		{
+			slot.pboID = GpuResources.create(Type.BUFFER);
+		}
+		
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pboID);
+		
+		if(slot.size != size)
+		{
+			glBufferData(GL_PIXEL_PACK_BUFFER, size, GL_STREAM_READ);
+			GpuResources.setBytes(Type.BUFFER, slot.pboID, size);
+			slot.size = size;
+		}
+		
+		//Asynchronous read of the back buffer into the pixel buffer
+		glBindFramebuffer(GL_READ_FRAMEBUFFER, 0);
+		glReadBuffer(GL_BACK);
+		glReadPixels(0, 0, width, height, GL_RGBA, GL_UNSIGNED_BYTE, 0);
+		glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+		
+		slot.fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+		slot.width = width;
+		slot.height = height;
+		slot.path = path;
+		slot.format = format;
+	}
+	
+	/**
+	 * Method that hands the buffers with a signaled fence to the writers
+	 * @param timeout Nanoseconds to wait for every fence, 0 to only check them
+	 */
+	private void collect(long timeout)
+	{
+		for(Slot slot : ring)
+		{
+			if(slot.fence == 0)
+			{
+				continue;
+			}
+			
+			int status = glClientWaitSync(slot.fence, timeout > 0 ? GL_SYNC_FLUSH_COMMANDS_BIT : 0, timeout);
+			
+			if(status != GL_ALREADY_SIGNALED && status != GL_CONDITION_SATISFIED)
+			{
+				continue;
+			}
+			
+			glDeleteSync(slot.fence);
+			slot.fence = 0;
+			
+			//Copy the pixels so the buffer can be reused immediately
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, slot.pboID);
+			ByteBuffer mapped = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, slot.size, GL_MAP_READ_BIT);
+			
+			//A failed map has nothing to unmap
+			if(mapped != null)
+			{
+				ByteBuffer pixels = NativeMemory.alloc(slot.size);
+				memCopy(memAddress(mapped), memAddress(pixels), slot.size);
+				glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+				submit(pixels, slot.width, slot.height, slot.path, slot.format);
+			}
+			
+			glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+		}
+	}
+	
+	/**
+	 * Method that writes the pixels on a background thread
+	 * @param pixels The pixels, released by the writer
+	 * @param width The image width
+	 * @param height The image height
+	 * @param path The file path
+	 * @param format The file format
+	 */
+	private void submit(ByteBuffer pixels, int width, int height, String path, Format format)
+	{
+		try
+		{
+			writers.execute(() ->
+			{
+				try
+				{
+					write(pixels, width, height, path, format);
+				}
+				finally
+				{
+					NativeMemory.free(pixels);
+				}
+			});
+		}
+		catch(RejectedExecutionException e)
+		{
+			//The writers are late
+			NativeMemory.free(pixels);
+			dropped.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Method that writes an image file
+	 * @param pixels The RGBA pixels, rows from bottom to top
+	 * @param width The image width
+	 * @param height The image height
+	 * @param path The file path
+	 * @param format The file format
+	 */
+	private void write(ByteBuffer pixels, int width, int height, String path, Format format)
+	{
+		if(format == Format.PNG)
+		{
+			//OpenGL rows go from bottom to top. The stb flip is a process global setting, so i flip the rows here
+			flip(pixels, width * 4, height);
+			
+			if(!stbi_write_png(path, width, height, 4, pixels, width * 4))
+			{
+				failed.incrementAndGet();
+			}
+			return;
+		}
+		
+		try(FileChannel channel = new FileOutputStream(path).getChannel())
+		{
+			while(pixels.hasRemaining())
+			{
+				channel.write(pixels);
+			}
+		}
+		catch(IOException e)
+		{
+			failed.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Method that reverses the rows order in place
+	 * @param pixels The pixels
+	 * @param stride The row size in bytes
+	 * @param height The number of rows
+	 */
+	private static void flip(ByteBuffer pixels, int stride, int height)
+	{
+		byte[] top = new byte[stride];
+		byte[] bottom = new byte[stride];
+		
+		for(int i = 0, j = height - 1; i < j; i++, j--)
+		{
+			pixels.get(i * stride, top);
+			pixels.get(j * stride, bottom);
+			pixels.put(i * stride, bottom);
+			pixels.put(j * stride, top);
+		}
+	}
+	
+	/**
+	 * @return true if every frame is being captured
+	 */
+	public boolean isRunning() { return pattern != null; }
+	
+	/**
+	 * @return true if a screenshot is waiting for a frame or a read is in flight, so more frames must be presented
+	 */
+	public boolean isPending()
+	{
+		if(screenshotPath != null)
+		{
+			return true;
+		}
+		
+		for(Slot slot : ring)
+		{
+			if(slot.fence != 0)
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * @return The number of frames dropped to avoid a stall
+	 */
+	public int getDroppedFrames() { return dropped.get(); }
+	
+	/**
+	 * @return The number of frames that could not be written to disk
+	 */
+	public int getFailedFrames() { return failed.get(); }
+	
+	/**
+	 * Clean method. It waits the frames in flight and the writers.
+	 */
+	public void clean()
+	{
+		pattern = null;
+		screenshotPath = null;
+		
+		//Collect the frames in flight waiting at most one second each
+		collect(1_000_000_000L);
+		
+		for(Slot slot : ring)
+		{
+			if(slot.fence != 0)
+			{
+				glDeleteSync(slot.fence);
+				slot.fence = 0;
+			}
+			
+			GpuResources.delete(Type.BUFFER, slot.pboID);
+			slot.pboID = 0;
+			slot.size = 0;
+		}
+		
+		//Let the writers finish
+		writers.shutdown();
+		
+		try
+		{
+			writers.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Pixel buffer of the ring
+	 */
+	private static class Slot
+	{
+		/**
+		 * Pixel buffer ID, 0 until the first use
+		 */
+		private int pboID;
+		
+		/**
+		 * Pixel buffer size in bytes
+		 */
+		private int size;
+		
+		/**
+		 * Fence of the read, 0 if the buffer is free
+		 */
+		private long fence;
+		
+		/**
+		 * Frame properties
+		 */
+		private int width;
+		private int height;
+		private String path;
+		private Format format;
+	}
+}
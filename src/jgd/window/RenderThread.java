@@ -0,0 +1,138 @@
+package jgd.window;
+
+import jgd.render.GpuResources;
+
+/**
+ * This class draws a window on its own thread. The window context is made current on the
+ * render thread, so the frame runnable can draw and swap without blocking the other windows.
+ * The windows must be created (sharing the context of the first one) and cleaned on the main
+ * thread, which also polls the events with Window.pollEvents or Window.waitEvents:
+ * the GLFW callbacks keep running there and only mark the window as changed.
+ * An object created by a thread and used by another one must be published with
+ * GpuResources.publish(), the other render threads wait it at the start of their next frame.
+ * @author Matteo Pignataro
+ */
+public class RenderThread implements Runnable
+{
+	/**
+	 * Window drawn by the thread
+	 */
+	private Window window;
+	
+	/**
+	 * Runnable that draws a frame, called with the window context current
+	 */
+	private Runnable frame;
+	
+	/**
+	 * Java thread
+	 */
+	private Thread thread;
+	
+	/**
+	 * Boolean that represents if the thread must keep drawing
+	 */
+	private volatile boolean running;
+	
+	/**
+	 * Constructor
+	 * @param window The window to draw
+	 * @param frame The runnable that draws a frame (VAOs, layers...)
+	 */
+	public RenderThread(Window window, Runnable frame)
+	{
+		//I expect the window and the frame not null
+		if(window == null || frame == null)
+		{
+			throw new NullPointerException("Error window or frame null pointer [RenderThread]");
+		}
+		
+		this.window = window;
+		this.frame = frame;
+	}
+	
+	/**
+	 * Method to start the thread, it must be called by the main thread
+	 */
+	public void start()
+	{
+		//The thread can be started only once at a time
+		if(thread != null)
+		{
+			throw new RuntimeException("Render thread already started [RenderThread]");
+		}
+		
+		//A context can be current on one thread only
+		window.releaseContext();
+		window.setThreaded(true);
+		
+		running = true;
+		thread = new Thread(this, "Render " + window.getName());
+		thread.start();
+	}
+	
+	@Override
+	public void run()
+	{
+		window.makeCurrent();
+		
+		try
+		{
+			while(running && window.isOpen())
+			{
+				//Apply the pending size and wait the objects shared by the other threads
+				window.prepareFrame();
+				
+				frame.run();
+				
+				//Nothing changed, i sleep until an event or the animation deadline
+				if(!window.present())
+				{
+					window.awaitRedraw();
+				}
+			}
+		}
+		finally
+		{
+			//Delete the objects released by this thread and give the context back
+			GpuResources.flush();
+			window.releaseContext();
+			
+			//The main thread could be waiting the events
+			Window.wakeUp();
+		}
+	}
+	
+	/**
+	 * Method to stop the thread and wait its end, it must be called before the window clean
+	 */
+	public void stop()
+	{
+		if(thread == null)
+		{
+			return;
+		}
+		
+		running = false;
+		
+		//Wake up the thread if it is sleeping
+		window.requestRedraw();
+		
+		try
+		{
+			thread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		thread = null;
+		window.setThreaded(false);
+	}
+	
+	/**
+	 * @return true if the thread is drawing
+	 */
+	public boolean isRunning() { return thread != null && thread.isAlive(); }
+}
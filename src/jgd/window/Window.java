@@ -1,6 +1,8 @@
 package jgd.window;
 
+import static jgd.trace.TracedGL.glViewport;
 import static org.lwjgl.glfw.Callbacks.glfwFreeCallbacks;
+import static org.lwjgl.glfw.GLFW.GLFW_DEPTH_BITS;
 import static org.lwjgl.glfw.GLFW.GLFW_FALSE;
 import static org.lwjgl.glfw.GLFW.GLFW_RESIZABLE;
 import static org.lwjgl.glfw.GLFW.GLFW_TRUE;
@@ -8,24 +10,44 @@ import static org.lwjgl.glfw.GLFW.GLFW_VISIBLE;
 import static org.lwjgl.glfw.GLFW.glfwCreateWindow;
 import static org.lwjgl.glfw.GLFW.glfwDefaultWindowHints;
 import static org.lwjgl.glfw.GLFW.glfwDestroyWindow;
+import static org.lwjgl.glfw.GLFW.glfwGetCurrentContext;
+import static org.lwjgl.glfw.GLFW.glfwGetTime;
 import static org.lwjgl.glfw.GLFW.glfwHideWindow;
 import static org.lwjgl.glfw.GLFW.glfwMakeContextCurrent;
 import static org.lwjgl.glfw.GLFW.glfwPollEvents;
+import static org.lwjgl.glfw.GLFW.glfwPostEmptyEvent;
 import static org.lwjgl.glfw.GLFW.glfwSetCursorPosCallback;
+import static org.lwjgl.glfw.GLFW.glfwSetKeyCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetMouseButtonCallback;
+import static org.lwjgl.glfw.GLFW.glfwSetScrollCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetWindowCloseCallback;
+import static org.lwjgl.glfw.GLFW.glfwSetWindowRefreshCallback;
 import static org.lwjgl.glfw.GLFW.glfwSetWindowSizeCallback;
 import static org.lwjgl.glfw.GLFW.glfwShowWindow;
 import static org.lwjgl.glfw.GLFW.glfwSwapBuffers;
 import static org.lwjgl.glfw.GLFW.glfwSwapInterval;
+import static org.lwjgl.glfw.GLFW.glfwWaitEventsTimeout;
 import static org.lwjgl.glfw.GLFW.glfwWindowHint;
-import static org.lwjgl.opengl.GL11.glViewport;
 import static org.lwjgl.system.MemoryUtil.NULL;
 
 import java.util.ArrayList;
 import java.util.List;
 
+import org.lwjgl.glfw.GLFWKeyCallbackI;
+import org.lwjgl.glfw.GLFWScrollCallbackI;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GLCapabilities;
+
+import jgd.memory.NativeMemory;
+import jgd.render.DepthLayering;
+import jgd.render.DirtyRegion;
+import jgd.render.DynamicResolution;
+import jgd.render.GpuResources;
+import jgd.render.MultiDrawBatch;
+import jgd.render.PartialRedraw;
+import jgd.render.RenderLayer;
 import jgd.render.VAO;
+import jgd.trace.GLCapture;
 import jgd.window.listener.MouseEvent;
 import jgd.window.listener.MouseListener;
 
@@ -70,15 +92,107 @@ public class Window
 	 */
 	private MouseListener mouseListener;
 	
+	/**
+	 * User key and scroll listeners, null if not set
+	 */
+	private volatile GLFWKeyCallbackI keyListener;
+	private volatile GLFWScrollCallbackI scrollListener;
+	
 	/**
 	 * VAOs list
 	 */
 	private List<VAO> vaoList;
 	
+	/**
+	 * Multi draw batches list
+	 */
+	private List<MultiDrawBatch> batchList;
+	
+	/**
+	 * Cached layers list
+	 */
+	private List<RenderLayer> layerList;
+	
+	/**
+	 * Dynamic resolution of the VAOs and batches, null if disabled
+	 */
+	private DynamicResolution dynamicResolution;
+	
+	/**
+	 * Partial redraw of the VAOs and batches, null if disabled
+	 */
+	private PartialRedraw partialRedraw;
+	
+	/**
+	 * Depth layering of the VAOs and batches, null if disabled
+	 */
+	private DepthLayering depthLayering;
+	
+	/**
+	 * Frame capture service, null until requested
+	 */
+	private FrameCapture frameCapture;
+	
+	/**
+	 * Boolean that represents if the window redraws only when something changed
+	 */
+	private boolean onDemand;
+	
+	/**
+	 * Boolean set by the input, resize and refresh callbacks and by requestRedraw
+	 */
+	private boolean dirty;
+	
+	/**
+	 * Boolean that represents if the redraw decision has been taken for the current frame
+	 */
+	private boolean frameDecided;
+	
+	/**
+	 * Redraw decision for the current frame
+	 */
+	private boolean frameRedraw;
+	
+	/**
+	 * Time (glfwGetTime seconds) of the next scheduled animation frame
+	 */
+	private double redrawDeadline;
+	
+	/**
+	 * Maximum time (seconds) the on demand mode waits for events
+	 */
+	private double idleTimeout;
+	
+	/**
+	 * OpenGL capabilities of the window context
+	 */
+	private GLCapabilities capabilities;
+	
+	/**
+	 * Boolean that represents if the window is drawn by a RenderThread
+	 */
+	private volatile boolean threaded;
+	
+	/**
+	 * Size received by the callback and not yet applied by the render thread, -1 if none
+	 */
+	private int pendingWidth;
+	private int pendingHeight;
+	
 	/**
 	 * Private Constructor
 	 */
 	public Window(String name, int width, int height, boolean resizable)
+	{
+		this(name, width, height, resizable, null);
+	}
+	
+	/**
+	 * Constructor for a window whose context shares textures, shaders and buffers
+	 * with another window. It must be called on the main thread.
+	 * @param shared The window to share the objects with, null for an unshared context
+	 */
+	public Window(String name, int width, int height, boolean resizable, Window shared)
 	{
 		//Initial dimensions
 		this.name 		= name == null 	? "" 		: name;
@@ -96,15 +210,30 @@ public class Window
 		//Initialize the VAO list
 		vaoList = new ArrayList<VAO>();
 		
+		//Initialize the batches list
+		batchList = new ArrayList<MultiDrawBatch>();
+		
+		//Initialize the layers list
+		layerList = new ArrayList<RenderLayer>();
+		
+		//By default the window redraws every frame
+		onDemand = false;
+		dirty = true;
+		redrawDeadline = Double.POSITIVE_INFINITY;
+		idleTimeout = 0.5;
+		pendingWidth = -1;
+		pendingHeight = -1;
+		
 		//Initialize the window
-		initWindow();
+		initWindow(shared == null ? NULL : shared.ID);
 	}
 	
 	/**
 	 * Window initializer
 	 * Fails in case of an already initialized window
+	 * @param share The window whose context is shared, NULL if none
 	 */
-	private void initWindow()
+	private void initWindow(long share)
 	{
 		//Initiliaze if and only if the window has not been initialized yet
 		if(ID == -1)
@@ -117,9 +246,11 @@ public class Window
 			
 			//Set the window to resizable
 			glfwWindowHint(GLFW_RESIZABLE, resizable ? GLFW_TRUE : GLFW_FALSE);
+			//Depth buffer used by the depth layering
+			glfwWindowHint(GLFW_DEPTH_BITS, 24);
 			
 			//Create the display
-			ID = glfwCreateWindow(width, height, name, NULL, NULL);
+			ID = glfwCreateWindow(width, height, name, NULL, share);
 			
 			//Select the context
 			glfwMakeContextCurrent(ID);
@@ -127,13 +258,71 @@ public class Window
 			//Enable V-Sync (1-enabled 0-disabled)
 			glfwSwapInterval(1);
 			
-			//Set the callbacks to the listeners
-			glfwSetMouseButtonCallback(ID, mouseListener);
-			glfwSetCursorPosCallback(ID, mouseListener.getMousePositionListener());
-			//Set the callback to call the clean function
-			glfwSetWindowCloseCallback(ID, (long window) -> clean());
-			//Set this object as window size change listener
-			glfwSetWindowSizeCallback(ID, (long window, int w, int h) -> updateSize(w, h));
+			//Set the callbacks to the listeners, every input invalidates the frame
+			glfwSetMouseButtonCallback(ID, (long window, int button, int action, int mods) ->
+			{
+				mouseListener.invoke(window, button, action, mods);
+				markDirty();
+			});
+			glfwSetCursorPosCallback(ID, (long window, double x, double y) ->
+			{
+				mouseListener.getMousePositionListener().invoke(window, x, y);
+				markDirty();
+			});
+			glfwSetKeyCallback(ID, (long window, int key, int scancode, int action, int mods) ->
+			{
+				GLFWKeyCallbackI listener = keyListener;
+				
+				if(listener != null)
+				{
+					listener.invoke(window, key, scancode, action, mods);
+				}
+				
+				markDirty();
+			});
+			glfwSetScrollCallback(ID, (long window, double x, double y) ->
+			{
+				GLFWScrollCallbackI listener = scrollListener;
+				
+				if(listener != null)
+				{
+					listener.invoke(window, x, y);
+				}
+				
+				markDirty();
+			});
+			//The window content has been damaged (e.g. uncovered)
+			glfwSetWindowRefreshCallback(ID, (long window) -> markDirty());
+			//Set the callback to call the clean function, a threaded window is cleaned after its thread stops
+			glfwSetWindowCloseCallback(ID, (long window) ->
+			{
+				if(threaded)
+				{
+					open = false;
+					markDirty();
+				}
+				else
+				{
+					clean();
+				}
+			});
+			//Set this object as window size change listener, the render thread applies the size
+			glfwSetWindowSizeCallback(ID, (long window, int w, int h) ->
+			{
+				if(threaded)
+				{
+					synchronized(this)
+					{
+						pendingWidth = w;
+						pendingHeight = h;
+					}
+					markDirty();
+				}
+				else
+				{
+					updateSize(w, h);
+				}
+			});
 		}
 	}
 	
@@ -148,15 +337,290 @@ public class Window
 	public void hideWindow() { glfwHideWindow(ID); }
 	
 	/**
-	 * Refresh the screen and poll all the events
+	 * Refresh the screen and poll all the events.
+	 * In on demand mode the buffers are swapped only if the frame has been redrawn,
+	 * otherwise the thread sleeps until an event or the next scheduled redraw.
 	 */
 	public void update()
 	{
-		//Swap OpenGL buffers
-		glfwSwapBuffers(ID);
+		boolean redraw = present();
+		
+		//Nothing changed, i sleep until an event or the animation deadline
+		if(!redraw && open)
+		{
+			glfwWaitEventsTimeout(getIdleWait());
+		}
+		else
+		{
+			//Call all the events managers
+			glfwPollEvents();
+		}
+	}
+	
+	/**
+	 * Method to present the frame without polling the events, it can be called by
+	 * the thread that renders the window. In on demand mode the buffers are swapped only
+	 * if the frame has been redrawn.
+	 * @return true if the frame has been swapped
+	 */
+	public boolean present()
+	{
+		boolean redraw = needsRedraw();
+		
+		//The next frame takes a new decision
+		frameDecided = false;
+		
+		if(redraw)
+		{
+			//Read the frame before it is presented
+			if(frameCapture != null)
+			{
+				frameCapture.endFrame(width, height);
+				
+				//A waiting screenshot or a read in flight needs the next frame
+				if(frameCapture.isPending())
+				{
+					requestRedraw();
+				}
+			}
+			
+			//Swap OpenGL buffers
+			long swapStart = System.nanoTime();
+			glfwSwapBuffers(ID);
+			long swapNanos = System.nanoTime() - swapStart;
+			
+			//The frame is over, the released GPU objects can be deleted
+			GpuResources.flush();
+			
+			//Close the frame of a running GL capture
+			GLCapture.endFrame(swapNanos);
+		}
+		
+		return redraw;
+	}
+	
+	/**
+	 * @return The seconds the on demand mode can sleep
+	 */
+	private synchronized double getIdleWait()
+	{
+		return Math.max(Math.min(redrawDeadline - glfwGetTime(), idleTimeout), 0);
+	}
+	
+	/**
+	 * Method that marks the frame as changed and wakes up the render thread
+	 */
+	private synchronized void markDirty()
+	{
+		dirty = true;
+		notifyAll();
+	}
+	
+	/**
+	 * Method called by the render thread when the frame has not been drawn.
+	 * It sleeps until an input, a redraw request or the animation deadline.
+	 */
+	public synchronized void awaitRedraw()
+	{
+		long millis = (long) (getIdleWait() * 1000);
+		
+		if(!dirty && open && millis > 0)
+		{
+			try
+			{
+				wait(millis);
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Method called by the render thread before drawing. It applies the size received by
+	 * the main thread and waits (on the GPU) the shared objects published by the other threads.
+	 */
+	public void prepareFrame()
+	{
+		int w;
+		int h;
+		
+		synchronized(this)
+		{
+			w = pendingWidth;
+			h = pendingHeight;
+			pendingWidth = -1;
+			pendingHeight = -1;
+		}
+		
+		if(w != -1)
+		{
+			updateSize(w, h);
+		}
+		
+		GpuResources.await();
+	}
+	
+	/**
+	 * Method to make the window context current on the calling thread
+	 */
+	public void makeCurrent()
+	{
+		glfwMakeContextCurrent(ID);
+		
+		//The capabilities are created once and then selected on every thread
+		if(capabilities == null)
+		{
+			capabilities = GL.createCapabilities();
+		}
+		else
+		{
+			GL.setCapabilities(capabilities);
+		}
+	}
+	
+	/**
+	 * Method to release the window context if it is current on the calling thread
+	 */
+	public void releaseContext()
+	{
+		if(glfwGetCurrentContext() == ID)
+		{
+			glfwMakeContextCurrent(NULL);
+		}
+	}
+	
+	/**
+	 * Method to mark the window as drawn by a render thread. The callbacks stop touching
+	 * the OpenGL state and leave the size changes to prepareFrame.
+	 * @param threaded true if a render thread draws the window
+	 */
+	void setThreaded(boolean threaded) { this.threaded = threaded; }
+	
+	/**
+	 * Method for the main thread of the multi window applications: it polls the events of all the windows
+	 */
+	public static void pollEvents() { glfwPollEvents(); }
+	
+	/**
+	 * Method for the main thread of the multi window applications: it waits the events of all the windows
+	 * @param timeout The maximum wait in seconds
+	 */
+	public static void waitEvents(double timeout) { glfwWaitEventsTimeout(timeout); }
+	
+	/**
+	 * Method to wake up the main thread waiting in waitEvents (e.g. a render thread finished)
+	 */
+	public static void wakeUp() { glfwPostEmptyEvent(); }
+	
+	/**
+	 * Method that decides (once per frame) if the current frame must be drawn.
+	 * It is always true when the on demand mode is disabled. Otherwise a change is a
+	 * redraw request, an expired scheduled redraw or a VAO, batch or layer that reports
+	 * an update, which includes the element transforms and depths when the VAO uses them.
+	 * @return true if something changed since the last drawn frame
+	 */
+	public boolean needsRedraw()
+	{
+		if(!frameDecided)
+		{
+			double now = glfwGetTime();
+			boolean changed;
+			boolean expired;
+			
+			//The callbacks and scheduleRedraw can change the state from the other threads
+			synchronized(this)
+			{
+				changed = dirty;
+				dirty = false;
+				expired = now >= redrawDeadline;
+				
+				//The deadline has been consumed
+				if(expired)
+				{
+					redrawDeadline = Double.POSITIVE_INFINITY;
+				}
+			}
+			
+			frameRedraw = !onDemand || changed || expired
+						|| vaoList.stream().anyMatch((VAO v) -> v.isUpdated())
+						|| batchList.stream().anyMatch((MultiDrawBatch b) -> b.isUpdated())
+						|| layerList.stream().anyMatch((RenderLayer l) -> l.isUpdated());
+			
+			frameDecided = true;
+		}
+		
+		return frameRedraw;
+	}
+	
+	/**
+	 * Method to force the redraw of the next frame (e.g. an object not handled
+	 * by the window like a TileMap or a TextRenderer changed)
+	 */
+	public void requestRedraw() { markDirty(); }
+	
+	/**
+	 * Method to schedule a redraw after a delay, used by animations in on demand mode.
+	 * The earliest scheduled redraw wins, animations schedule again every frame.
+	 * @param delay Seconds from now
+	 */
+	public synchronized void scheduleRedraw(double delay)
+	{
+		redrawDeadline = Math.min(redrawDeadline, glfwGetTime() + Math.max(delay, 0));
 		
-		//Call all the events managers
-		glfwPollEvents();
+		//A sleeping render thread must compute the new timeout, the frame is not changed yet
+		notifyAll();
+	}
+	
+	/**
+	 * Method to receive the key events. The GLFW callbacks of the window must not be replaced
+	 * with glfwSetKeyCallback, otherwise the input stops waking the on demand mode.
+	 * @param listener The key listener, null to remove it
+	 */
+	public void setKeyListener(GLFWKeyCallbackI listener) { keyListener = listener; }
+	
+	/**
+	 * Method to receive the scroll events. The GLFW callbacks of the window must not be replaced
+	 * with glfwSetScrollCallback, otherwise the input stops waking the on demand mode.
+	 * @param listener The scroll listener, null to remove it
+	 */
+	public void setScrollListener(GLFWScrollCallbackI listener) { scrollListener = listener; }
+	
+	/**
+	 * @return The frame capture service of the window, created on the first call
+	 */
+	public FrameCapture getFrameCapture()
+	{
+		if(frameCapture == null)
+		{
+			frameCapture = new FrameCapture(3, this::requestRedraw);
+		}
+		
+		return frameCapture;
+	}
+	
+	/**
+	 * Method to enable or disable the on demand mode
+	 * @param onDemand true to redraw only when something changed
+	 */
+	public void setOnDemand(boolean onDemand)
+	{
+		this.onDemand = onDemand;
+		dirty = true;
+	}
+	
+	/**
+	 * Method to set the maximum time the on demand mode sleeps without events.
+	 * It bounds the delay of changes that the window cannot detect.
+	 * @param seconds The timeout in seconds
+	 */
+	public void setIdleTimeout(double seconds)
+	{
+		if(seconds > 0)
+		{
+			idleTimeout = seconds;
+		}
 	}
 	
 	/**
@@ -173,26 +637,104 @@ public class Window
 		//Update all the VAOs objects
 		vaoList.stream().forEach((VAO v) -> v.updateWindowSize(width, height));
 		
+		//Update all the batches
+		batchList.stream().forEach((MultiDrawBatch b) -> b.updateWindowSize(width, height));
+		
+		//Update all the layers
+		layerList.stream().forEach((RenderLayer l) -> l.updateWindowSize(width, height));
+		
+		//Resize the scaled scene target
+		if(dynamicResolution != null)
+		{
+			dynamicResolution.updateWindowSize(width, height);
+		}
+		
+		//Resize the persistent scene target
+		if(partialRedraw != null)
+		{
+			partialRedraw.updateWindowSize(width, height);
+		}
+		
 		//Reset openGL references
 		glViewport(0, 0, width, height);
+		
+		//The frame must be drawn with the new size
+		dirty = true;
 	}
 	
 	/**
-	 * Clears all the callbacks and the window itself
+	 * Clears all the callbacks and the window itself. The window context is made current
+	 * during the cleanup and the context current before the call is restored.
 	 */
 	public void clean()
 	{
+		//The GL cleanup needs this context, the one current on the calling thread is restored at the end
+		long previous = glfwGetCurrentContext();
+		GLCapabilities previousCapabilities = null;
+		
+		if(previous != NULL && previous != ID)
+		{
+			try
+			{
+				previousCapabilities = GL.getCapabilities();
+			}
+			catch(IllegalStateException e)
+			{
+				//The capabilities of the previous context have never been selected on this thread
+			}
+		}
+		
+		makeCurrent();
+		
 		//Clean all the VAOs
 		vaoList.stream().forEach((VAO v) -> v.clean());
 		
+		//Clean all the batches
+		batchList.stream().forEach((MultiDrawBatch b) -> b.clean());
+		
+		//Clean all the layers
+		layerList.stream().forEach((RenderLayer l) -> l.clean());
+		
+		//Clean the scaled and the persistent scene targets
+		disableDynamicResolution();
+		disablePartialRedraw();
+		
+		//Write the captured frames still in flight
+		if(frameCapture != null)
+		{
+			frameCapture.clean();
+		}
+		
+		//Delete the released GPU objects while the context exists
+		GpuResources.flush();
+		GpuResources.forgetContext(ID);
+		
 		//Release callbacks
 		glfwFreeCallbacks(ID);
 		
+		//The listeners are wrapped by the callbacks so they are released here
+		mouseListener.getMousePositionListener().free();
+		mouseListener.free();
+		
 		//Destroy the window
 		glfwDestroyWindow(ID);
 		
+		//Restore the previous context, the destroyed one is not current anymore
+		if(previous != NULL && previous != ID)
+		{
+			glfwMakeContextCurrent(previous);
+		}
+		
+		GL.setCapabilities(previousCapabilities);
+		
 		//Put the status to closed
 		open = false;
+		
+		//Report the native buffers that have not been released
+		if(NativeMemory.isDebug() && NativeMemory.getAllocationCount() > 0)
+		{
+			System.err.println(NativeMemory.report());
+		}
 	}
 	
 	/**
@@ -212,12 +754,202 @@ public class Window
 	}
 	
 	/**
-	 * Method to draw all the VAOs
+	 * Add the batch to the batches list
+	 * @param b The batch that needs to be added
+	 */
+	public void addBatch(MultiDrawBatch b)
+	{
+		//I add it if its not already present
+		if(!batchList.contains(b))
+		{
+			//Add the batch to the list
+			batchList.add(b);
+			//Send a change dimensions to force every element to adapt
+			b.updateWindowSize(width, height);
+		}
+	}
+	
+	/**
+	 * Method to draw all the VAOs and then all the batches.
+	 * In on demand mode it does nothing if the frame does not need to be redrawn.
+	 * With the dynamic resolution they are drawn at the current scale and stretched on the
+	 * whole window, so the layers that must stay at native resolution are drawn afterwards.
+	 * With the partial redraw only the changed areas are drawn and the scene is copied on the
+	 * window, so also in this case the layers are drawn afterwards.
 	 */
 	public void drawVAO()
 	{
+		if(!needsRedraw())
+		{
+			return;
+		}
+		
+		//The elements without an explicit depth are layered by the draw order
+		if(depthLayering != null)
+		{
+			depthLayering.assignOrderDepth(vaoList, batchList);
+		}
+		
+		if(dynamicResolution != null)
+		{
+			dynamicResolution.begin();
+			drawScene();
+			dynamicResolution.end();
+			
+			//The persistent scene is not updated meanwhile
+			if(partialRedraw != null)
+			{
+				partialRedraw.invalidate();
+			}
+		}
+		else if(partialRedraw != null)
+		{
+			//The changed areas must be collected before the draw clears the updated flags
+			DirtyRegion region = partialRedraw.getRegion();
+			vaoList.stream().forEach((VAO v) -> v.collectDirty(region));
+			batchList.stream().forEach((MultiDrawBatch b) -> b.collectDirty(region));
+			
+			partialRedraw.draw(this::drawScene);
+		}
+		else
+		{
+			drawScene();
+		}
+	}
+	
+	/**
+	 * Method that draws the VAOs and then the batches, or all of them sorted with the depth layering
+	 */
+	private void drawScene()
+	{
+		if(depthLayering != null)
+		{
+			depthLayering.draw(vaoList, batchList);
+			return;
+		}
+		
 		//For each VAO i call the draw method
 		vaoList.stream().forEach((VAO v) -> v.draw());
+		
+		//For each batch i call the draw method
+		batchList.stream().forEach((MultiDrawBatch b) -> b.draw());
+	}
+	
+	/**
+	 * Method to layer the VAOs and batches with the depth of their elements instead of the
+	 * draw order. The opaque ones are drawn sorted by shader and texture, the translucent ones
+	 * back to front. The VAOs must have the depth enabled and their shaders must write it.
+	 * @param enabled true to enable the depth layering
+	 */
+	public void setDepthLayering(boolean enabled)
+	{
+		if(!enabled)
+		{
+			depthLayering = null;
+		}
+		else if(depthLayering == null)
+		{
+			depthLayering = new DepthLayering();
+		}
+		
+		//The persistent scene has been drawn with the other layering
+		if(partialRedraw != null)
+		{
+			partialRedraw.invalidate();
+		}
+	}
+	
+	/**
+	 * Method to draw only the changed areas of the VAOs and batches, useful for the mostly
+	 * static screens at high resolutions. It is ignored while the dynamic resolution is enabled.
+	 * @return The partial redraw, to force a full redraw or read the redrawn pixels
+	 */
+	public PartialRedraw enablePartialRedraw()
+	{
+		if(partialRedraw == null)
+		{
+			partialRedraw = new PartialRedraw();
+			partialRedraw.updateWindowSize(width, height);
+		}
+		
+		return partialRedraw;
+	}
+	
+	/**
+	 * Method to draw the whole VAOs and batches every frame again
+	 */
+	public void disablePartialRedraw()
+	{
+		if(partialRedraw != null)
+		{
+			partialRedraw.clean();
+			partialRedraw = null;
+		}
+	}
+	
+	/**
+	 * Method to render the VAOs and batches at a scale driven by the measured GPU time.
+	 * If already enabled only the bounds are changed.
+	 * @param minScale The minimum scale, greater than 0
+	 * @param maxScale The maximum scale, at least minScale
+	 * @return The dynamic resolution, to tune the target time or read the current scale
+	 */
+	public DynamicResolution enableDynamicResolution(float minScale, float maxScale)
+	{
+		if(dynamicResolution == null)
+		{
+			dynamicResolution = new DynamicResolution(minScale, maxScale);
+			dynamicResolution.updateWindowSize(width, height);
+		}
+		else
+		{
+			dynamicResolution.setBounds(minScale, maxScale);
+		}
+		
+		return dynamicResolution;
+	}
+	
+	/**
+	 * Method to render the VAOs and batches at the window resolution again
+	 */
+	public void disableDynamicResolution()
+	{
+		if(dynamicResolution != null)
+		{
+			dynamicResolution.clean();
+			dynamicResolution = null;
+		}
+	}
+	
+	/**
+	 * Add the layer to the layers list
+	 * @param l The layer that needs to be added
+	 */
+	public void addLayer(RenderLayer l)
+	{
+		//I add it if its not already present
+		if(!layerList.contains(l))
+		{
+			//Add the layer to the list
+			layerList.add(l);
+			//Send a change dimensions to allocate the layer texture
+			l.updateWindowSize(width, height);
+		}
+	}
+	
+	/**
+	 * Method to draw all the layers. The caller decides if the layers
+	 * go under (background) or over (HUD) the VAOs
+	 */
+	public void drawLayers()
+	{
+		if(!needsRedraw())
+		{
+			return;
+		}
+		
+		//For each layer i call the draw method
+		layerList.stream().forEach((RenderLayer l) -> l.draw());
 	}
 	
 	/**
@@ -230,4 +962,8 @@ public class Window
 	public String getName()					{ return name; }
 	public boolean isResizable() 			{ return resizable; }
 	public boolean isOpen()					{ return open; }
+	public boolean isOnDemand()				{ return onDemand; }
+	public DynamicResolution getDynamicResolution() { return dynamicResolution; }
+	public PartialRedraw getPartialRedraw()	{ return partialRedraw; }
+	public boolean isDepthLayering()		{ return depthLayering != null; }
 }